@@ -1,5 +1,7 @@
 package db;
 
+import java.util.BitSet;
+
 public class Aggregation {
 
     /* This class handles all aggregation functions for numerical columns types.
@@ -16,11 +18,15 @@ public class Aggregation {
 
     private String type;
 
+    //The rows of the column to aggregate
+    private BitSet rows;
+
     /*
       Constructor for an Aggregation object.
      */
-    Aggregation(String name, Column col) {
+    Aggregation(String name, Column col, BitSet selectedRows) {
         column = col;
+        rows = selectedRows;
         type = col.columnType;
         for (String agg : validAggs) {
             if (name.equals(agg)) {
@@ -33,36 +39,19 @@ public class Aggregation {
     }
 
     /*
-    Performs the aggregation function.
+    Performs the aggregation function. NOVALUE items are skipped, and any NaN item
+    makes the result NaN.
      */
     float aggregate() {
-        // Many of the aggregation functions use the length of the column.
-        int n = column.size();
+        // Many of the aggregation functions use the number of rows.
+        int n = rows.cardinality();
         switch (agg_name) {
             case "avg":
-                float sum = 0;
-                if (type.equals("int")) {
-                    for (int i = 0; i < n; i++) {
-                        sum += (int) column.get(i);
-                    }
-                } else {
-                    for (int i = 0; i < n; i++) {
-                        sum += (float) column.get(i);
-                    }
-                }
-                return sum / n;
+                BitSet values = (BitSet) rows.clone();
+                values.andNot(column.noValues);
+                return sum() / values.cardinality();
             case "sum":
-                float result = 0;
-                if (type.equals("int")) {
-                    for (int i = 0; i < n; i++) {
-                        result += (int) column.get(i);
-                    }
-                } else {
-                    for (int i = 0; i < n; i++) {
-                        result += (float) column.get(i);
-                    }
-                }
-                return result;
+                return sum();
             case "count":
                 return n;
             default:
@@ -70,4 +59,28 @@ public class Aggregation {
         }
     }
 
+    /* Sums the items of the column over the rows, reading them as primitives */
+    private float sum() {
+        if (rows.intersects(column.nans)) {
+            return Float.NaN;
+        }
+        //NOVALUE items hold 0 in the column, so they add nothing to the sum
+        CompressedInts compressed = column.compressedItems();
+        if (compressed != null) {
+            //Reads the compressed items in order rather than looking up each row
+            return compressed.sum(rows);
+        }
+        float result = 0;
+        if (type.equals("int")) {
+            for (int i = rows.nextSetBit(0); i >= 0; i = rows.nextSetBit(i + 1)) {
+                result += column.getInt(i);
+            }
+        } else {
+            for (int i = rows.nextSetBit(0); i >= 0; i = rows.nextSetBit(i + 1)) {
+                result += column.getFloat(i);
+            }
+        }
+        return result;
+    }
+
 }
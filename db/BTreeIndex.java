@@ -0,0 +1,471 @@
+package db;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * An ordered index of a column, kept as a B+-tree of the rows of the column in order of
+ * their items and then of their rows. The rows satisfying comparisons of the column to
+ * literals are a single run of the leaves, which are linked in order, so they are found
+ * by searching the tree for the two ends of the run and reading the leaves between
+ * them. Every node counts the rows under it, so the number of rows in a run is known
+ * before reading any of them.
+ *
+ * Items are compared as Conditional compares them: numbers as floats and strings as
+ * strings. Items of int columns are kept as ints, and those of float columns as ints
+ * in the same order (see sortable); as ints convert to floats in order, their runs
+ * are found by comparing them as floats. Rows holding NOVALUE or NaN are not indexed.
+ */
+class BTreeIndex extends Index {
+
+    //The most entries of a leaf, and children of an inner node
+    static final int NODE_SIZE = 64;
+
+    //Whether the items are numbers, kept as ints, or strings
+    private final boolean numeric;
+
+    //The number of rows indexed
+    private int rows;
+
+    private Node root;
+
+    /**
+     * A node of the tree. A leaf keeps the item and row of each of its entries, and is
+     * linked to the next leaf; an inner node keeps its children and the smallest item
+     * under each of them. Arrays have room for one more than NODE_SIZE, so that a node
+     * splits after it overflows.
+     */
+    private static class Node {
+        //The number of entries or children
+        int size;
+
+        //The number of rows under the node
+        int count;
+
+        int[] keys;
+
+        String[] stringKeys;
+
+        int[] rows;
+
+        Node[] children;
+
+        Node next;
+
+        Node(boolean leaf, boolean numeric) {
+            if (numeric) {
+                keys = new int[NODE_SIZE + 1];
+            } else {
+                stringKeys = new String[NODE_SIZE + 1];
+            }
+            if (leaf) {
+                rows = new int[NODE_SIZE + 1];
+            } else {
+                children = new Node[NODE_SIZE + 1];
+            }
+        }
+
+        boolean isLeaf() {
+            return children == null;
+        }
+    }
+
+    /* A range of items, bounded by a literal below and above or unbounded */
+    static class KeyRange {
+        //The bounds, as Floats or Strings; null if unbounded
+        Object lower;
+
+        Object upper;
+
+        boolean lowerInclusive;
+
+        boolean upperInclusive;
+
+        //Whether rows holding NaN are in the range, which the index does not keep
+        boolean nanMatches = true;
+
+        /* Narrows the range to the items comparing to the literal with the given operator */
+        void narrow(String operator, Object literal) {
+            boolean below = operator.startsWith("<");
+            boolean inclusive = !operator.equals("<") && !operator.equals(">");
+            if (!below) {
+                int cmp = lower == null ? 1 : compare(literal, lower);
+                if (cmp > 0 || cmp == 0 && !inclusive) {
+                    lower = literal;
+                    lowerInclusive = inclusive;
+                }
+            }
+            if (below || operator.equals("==")) {
+                int cmp = upper == null ? -1 : compare(literal, upper);
+                if (cmp < 0 || cmp == 0 && !inclusive) {
+                    upper = literal;
+                    upperInclusive = inclusive;
+                }
+            }
+        }
+
+        private static int compare(Object a, Object b) {
+            if (a instanceof Float) {
+                float x = (Float) a;
+                float y = (Float) b;
+                return x < y ? -1 : x == y ? 0 : 1;
+            }
+            return ((String) a).compareTo((String) b);
+        }
+    }
+
+    /* A position among the entries of the leaves, and the number of entries before it */
+    private static class Position {
+        Node leaf;
+
+        int index;
+
+        int rank;
+    }
+
+    BTreeIndex(String name, Column col) {
+        super(name, col);
+        numeric = col.isNumeric();
+        root = new Node(true, numeric);
+        extend(col);
+    }
+
+    @Override
+    synchronized void extend(Column col) {
+        int size = col.size();
+        if (size <= rows) {
+            return;
+        }
+        //Builds the tree again if at least as many rows are added as it has
+        if (size - rows >= rows) {
+            build(col, size);
+            return;
+        }
+        for (int row = rows; row < size; row++) {
+            if (!isSpecial(col, row)) {
+                insert(col, row);
+            }
+        }
+        rows = size;
+    }
+
+    @Override
+    int size() {
+        return rows;
+    }
+
+    /* Counts the indexed rows whose items are in the range */
+    int count(KeyRange range) {
+        return Math.max(end(range).rank - start(range).rank, 0);
+    }
+
+    /* Gets a bitmap of the rows whose items are in the range, read from its run of leaves */
+    BitSet rowsIn(KeyRange range) {
+        Position start = start(range);
+        int count = end(range).rank - start.rank;
+        BitSet matches = new BitSet(rows);
+        Node leaf = start.leaf;
+        int i = start.index;
+        while (count > 0) {
+            if (i == leaf.size) {
+                leaf = leaf.next;
+                i = 0;
+                continue;
+            }
+            matches.set(leaf.rows[i]);
+            i += 1;
+            count -= 1;
+        }
+        return matches;
+    }
+
+    /* Gets the position of the first entry in the range */
+    private Position start(KeyRange range) {
+        if (range.lower == null) {
+            return locate(null, false);
+        }
+        return locate(range.lower, !range.lowerInclusive);
+    }
+
+    /* Gets the position after the last entry in the range */
+    private Position end(KeyRange range) {
+        if (range.upper == null) {
+            return locate(null, true);
+        }
+        return locate(range.upper, range.upperInclusive);
+    }
+
+    /**
+     * Gets the position of the first entry whose item is above the bound, or equal to it
+     * if equal items are not before the position; a null bound is below every item if
+     * equal items are not before the position, and above every item otherwise
+     */
+    private Position locate(Object bound, boolean equalBefore) {
+        Position position = new Position();
+        Node node = root;
+        while (!node.isLeaf()) {
+            //The last child whose smallest item is before the position, or the first
+            int child = firstNotBefore(node, 1, bound, equalBefore) - 1;
+            child = Math.max(child, 0);
+            for (int c = 0; c < child; c++) {
+                position.rank += node.children[c].count;
+            }
+            node = node.children[child];
+        }
+        position.leaf = node;
+        position.index = firstNotBefore(node, 0, bound, equalBefore);
+        position.rank += position.index;
+        return position;
+    }
+
+    /* Searches a node from the given index for the first item not before the position */
+    private int firstNotBefore(Node node, int from, Object bound, boolean equalBefore) {
+        int low = from;
+        int high = node.size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (before(node, mid, bound, equalBefore)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /* Checks if the item at the index of a node is below the bound, or equal to it if asked */
+    private boolean before(Node node, int i, Object bound, boolean equalBefore) {
+        if (bound == null) {
+            return equalBefore;
+        }
+        int cmp;
+        if (numeric) {
+            float item = columnType.equals("int") ? node.keys[i] : unsortable(node.keys[i]);
+            float literal = (Float) bound;
+            cmp = item < literal ? -1 : item == literal ? 0 : 1;
+        } else {
+            cmp = node.stringKeys[i].compareTo((String) bound);
+        }
+        return cmp < 0 || equalBefore && cmp == 0;
+    }
+
+    /* Adds a row after the rows with items no larger than its item */
+    private void insert(Column col, int row) {
+        int key = numeric ? keyAt(col, row) : 0;
+        String stringKey = numeric ? null : col.getString(row);
+        Node split = insert(root, key, stringKey, row);
+        if (split != null) {
+            Node newRoot = new Node(false, numeric);
+            newRoot.size = 2;
+            newRoot.count = root.count + split.count;
+            newRoot.children[0] = root;
+            newRoot.children[1] = split;
+            copyKey(root, 0, newRoot, 0);
+            copyKey(split, 0, newRoot, 1);
+            root = newRoot;
+        }
+    }
+
+    /* Adds a row under the node; gets the node split off from it if it overflowed */
+    private Node insert(Node node, int key, String stringKey, int row) {
+        node.count += 1;
+        //Goes after every item no larger than the row's item
+        int low = node.isLeaf() ? 0 : 1;
+        int high = node.size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareKey(node, mid, key, stringKey) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (node.isLeaf()) {
+            shift(node, low);
+            node.rows[low] = row;
+            if (numeric) {
+                node.keys[low] = key;
+            } else {
+                node.stringKeys[low] = stringKey;
+            }
+        } else {
+            int child = low - 1;
+            Node split = insert(node.children[child], key, stringKey, row);
+            if (split == null) {
+                return null;
+            }
+            shift(node, child + 1);
+            node.children[child + 1] = split;
+            copyKey(split, 0, node, child + 1);
+        }
+        return node.size > NODE_SIZE ? split(node) : null;
+    }
+
+    /* Makes room for an entry or child at the index of the node */
+    private static void shift(Node node, int index) {
+        int moved = node.size - index;
+        if (node.keys != null) {
+            System.arraycopy(node.keys, index, node.keys, index + 1, moved);
+        } else {
+            System.arraycopy(node.stringKeys, index, node.stringKeys, index + 1, moved);
+        }
+        if (node.isLeaf()) {
+            System.arraycopy(node.rows, index, node.rows, index + 1, moved);
+        } else {
+            System.arraycopy(node.children, index, node.children, index + 1, moved);
+        }
+        node.size += 1;
+    }
+
+    /* Moves the upper half of the entries or children of an overflowing node to a new node */
+    private Node split(Node node) {
+        Node right = new Node(node.isLeaf(), numeric);
+        int half = node.size / 2;
+        right.size = node.size - half;
+        if (numeric) {
+            System.arraycopy(node.keys, half, right.keys, 0, right.size);
+        } else {
+            System.arraycopy(node.stringKeys, half, right.stringKeys, 0, right.size);
+            Arrays.fill(node.stringKeys, half, node.size, null);
+        }
+        if (node.isLeaf()) {
+            System.arraycopy(node.rows, half, right.rows, 0, right.size);
+            right.count = right.size;
+            right.next = node.next;
+            node.next = right;
+        } else {
+            System.arraycopy(node.children, half, right.children, 0, right.size);
+            Arrays.fill(node.children, half, node.size, null);
+            for (int c = 0; c < right.size; c++) {
+                right.count += right.children[c].count;
+            }
+        }
+        node.size = half;
+        node.count -= right.count;
+        return right;
+    }
+
+    /* Compares the item at the index of a node with an item kept in the same way */
+    private int compareKey(Node node, int i, int key, String stringKey) {
+        if (numeric) {
+            return Integer.compare(node.keys[i], key);
+        }
+        return node.stringKeys[i].compareTo(stringKey);
+    }
+
+    private void copyKey(Node from, int i, Node to, int j) {
+        if (numeric) {
+            to.keys[j] = from.keys[i];
+        } else {
+            to.stringKeys[j] = from.stringKeys[i];
+        }
+    }
+
+    /**
+     * Builds the tree of the first rows of the column from its leaves up, after sorting
+     * the rows by their items; rows with equal items stay in order
+     */
+    private void build(Column col, int size) {
+        int n = 0;
+        int[] sortedRows;
+        int[] sortedKeys = null;
+        String[] sortedStrings = null;
+        if (numeric) {
+            //Sorts the items with their rows, as longs holding an item above its row
+            long[] entries = new long[size];
+            for (int row = 0; row < size; row++) {
+                if (!isSpecial(col, row)) {
+                    entries[n] = ((long) keyAt(col, row) << 32) | row;
+                    n += 1;
+                }
+            }
+            Arrays.sort(entries, 0, n);
+            sortedRows = new int[n];
+            sortedKeys = new int[n];
+            for (int i = 0; i < n; i++) {
+                sortedKeys[i] = (int) (entries[i] >> 32);
+                sortedRows[i] = (int) entries[i];
+            }
+        } else {
+            Integer[] entries = new Integer[size];
+            for (int row = 0; row < size; row++) {
+                if (!isSpecial(col, row)) {
+                    entries[n] = row;
+                    n += 1;
+                }
+            }
+            //The sort is stable, so rows with equal items stay in order
+            Arrays.sort(entries, 0, n, (a, b) -> col.getString(a).compareTo(col.getString(b)));
+            sortedRows = new int[n];
+            sortedStrings = new String[n];
+            for (int i = 0; i < n; i++) {
+                sortedRows[i] = entries[i];
+                sortedStrings[i] = col.getString(entries[i]);
+            }
+        }
+
+        //Fills the leaves, then each level of inner nodes over the level below it
+        Node[] level = new Node[Math.max((n + NODE_SIZE - 1) / NODE_SIZE, 1)];
+        for (int l = 0; l < level.length; l++) {
+            Node leaf = new Node(true, numeric);
+            int start = l * NODE_SIZE;
+            leaf.size = Math.min(NODE_SIZE, n - start);
+            leaf.count = leaf.size;
+            System.arraycopy(sortedRows, start, leaf.rows, 0, leaf.size);
+            if (numeric) {
+                System.arraycopy(sortedKeys, start, leaf.keys, 0, leaf.size);
+            } else {
+                System.arraycopy(sortedStrings, start, leaf.stringKeys, 0, leaf.size);
+            }
+            if (l > 0) {
+                level[l - 1].next = leaf;
+            }
+            level[l] = leaf;
+        }
+        while (level.length > 1) {
+            Node[] upper = new Node[(level.length + NODE_SIZE - 1) / NODE_SIZE];
+            for (int u = 0; u < upper.length; u++) {
+                Node node = new Node(false, numeric);
+                int start = u * NODE_SIZE;
+                node.size = Math.min(NODE_SIZE, level.length - start);
+                for (int c = 0; c < node.size; c++) {
+                    node.children[c] = level[start + c];
+                    node.count += level[start + c].count;
+                    copyKey(level[start + c], 0, node, c);
+                }
+                upper[u] = node;
+            }
+            level = upper;
+        }
+        root = level[0];
+        rows = size;
+    }
+
+    /* Checks if the row holds NOVALUE or NaN, which are not indexed */
+    private static boolean isSpecial(Column col, int row) {
+        return col.isNoValue(row) || col.isNaN(row)
+                || col.columnType.equals("float") && Float.isNaN(col.getFloat(row));
+    }
+
+    /* Gets the number at the row of the column as it is kept in the tree */
+    private int keyAt(Column col, int row) {
+        if (columnType.equals("int")) {
+            return col.getInt(row);
+        }
+        return sortable(col.getFloat(row));
+    }
+
+    /**
+     * Gets an int for a float that isn't NaN, such that ints are in the same order as
+     * their floats are; -0.0 is kept as 0.0, which is equal to it
+     */
+    static int sortable(float item) {
+        int bits = Float.floatToIntBits(item == 0 ? 0f : item);
+        return bits ^ ((bits >> 31) & 0x7fffffff);
+    }
+
+    /* Gets the float an int from sortable stands for */
+    static float unsortable(int key) {
+        return Float.intBitsToFloat(key ^ ((key >> 31) & 0x7fffffff));
+    }
+}
@@ -0,0 +1,406 @@
+package db;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Stores tables in a binary columnar file, and opens them again. The file starts with
+ * SIGNATURE and a version byte, then a header describing the columns, followed by the
+ * blocks of each column, every block starting at a multiple of eight bytes:
+ *
+ *   data        the item of every row as a little-endian int or float; a string column
+ *               holds the code of each item in its dictionary, and -1 for NOVALUE and NaN.
+ *               The ints of a column may instead be compressed as CompressedInts writes
+ *               them, when that takes at most half as many bytes.
+ *   noValues    the rows holding NOVALUE, as the little-endian longs of a BitSet
+ *   nans        the rows holding NaN, in the same way
+ *   dictionary  for a string column, the number of distinct strings, then the length and
+ *               UTF-8 bytes of each string in the order of their codes; otherwise empty
+ *   zones       the zone map of the column, as ZoneMap writes it (from version 3 on)
+ *
+ * The header is the number of columns and of rows as ints, then for each column its name
+ * and type, each as an int length and UTF-8 bytes, a byte that is 1 if the codes of its
+ * strings are in the order of the strings, a byte that is 1 if its data is compressed
+ * (from version 2 on), and the offset and length of each of its blocks as longs.
+ *
+ * Opening a file maps the data blocks into memory instead of reading them, so the items
+ * of a column are only read from the file as they are used. Compressed data, bitmaps,
+ * dictionaries and zone maps are read when the file is opened, so a filter can skip row
+ * groups of a column without reading them.
+ */
+class BinaryTableFile {
+
+    //The first bytes of every binary table file; a text table never starts with a zero byte
+    private static final byte[] SIGNATURE = {0, 'N', 'D', 'B', 'C', 'O', 'L'};
+
+    //The version of the format written, which follows the signature; earlier versions
+    //are still read
+    private static final byte VERSION = 3;
+
+    //The blocks of a column, by their index in the header
+    private static final int DATA = 0;
+
+    private static final int NO_VALUES = 1;
+
+    private static final int NANS = 2;
+
+    private static final int DICTIONARY = 3;
+
+    private static final int ZONES = 4;
+
+    private static final int NUM_BLOCKS = 5;
+
+    private final FileChannel channel;
+
+    private final ByteBuffer buffer =
+            ByteBuffer.allocate(TableWriter.BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+    //The position in the file of the first byte in the buffer
+    private long position;
+
+    private BinaryTableFile(FileChannel channel, long position) {
+        this.channel = channel;
+        this.position = position;
+    }
+
+    /* Checks if the file starts as a binary table file does */
+    static boolean isBinary(FileChannel channel) throws IOException {
+        ByteBuffer start = ByteBuffer.allocate(SIGNATURE.length);
+        while (start.hasRemaining()) {
+            if (channel.read(start, start.position()) <= 0) {
+                break;
+            }
+        }
+        return !start.hasRemaining() && Arrays.equals(start.array(), SIGNATURE);
+    }
+
+    /* Stores the given rows of the columns in the file, which must be empty */
+    static void write(FileChannel channel, List<Column> columns, BitSet rows) throws IOException {
+        int numRows = rows.cardinality();
+        List<byte[]> names = new ArrayList<>();
+        List<byte[]> types = new ArrayList<>();
+        int headerLength = SIGNATURE.length + 9;
+        for (Column col : columns) {
+            names.add(col.columnName.getBytes(StandardCharsets.UTF_8));
+            types.add(col.columnType.getBytes(StandardCharsets.UTF_8));
+            headerLength += 8 + names.get(names.size() - 1).length
+                    + types.get(types.size() - 1).length + 2 + NUM_BLOCKS * 16;
+        }
+
+        //The blocks are written after the header, which is written last
+        BinaryTableFile file = new BinaryTableFile(channel, headerLength);
+        long[][] blocks = new long[columns.size()][];
+        boolean[] sorted = new boolean[columns.size()];
+        boolean[] compressed = new boolean[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+            Column col = columns.get(i);
+            blocks[i] = new long[NUM_BLOCKS * 2];
+            sorted[i] = col.columnType.equals("string");
+            if (col instanceof DictionaryColumn) {
+                sorted[i] = ((DictionaryColumn) col).isSorted();
+            }
+            compressed[i] = file.writeColumn(col, rows, blocks[i]);
+        }
+        file.flush();
+
+        ByteBuffer header = ByteBuffer.allocate(headerLength).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(SIGNATURE);
+        header.put(VERSION);
+        header.putInt(columns.size());
+        header.putInt(numRows);
+        for (int i = 0; i < columns.size(); i++) {
+            header.putInt(names.get(i).length);
+            header.put(names.get(i));
+            header.putInt(types.get(i).length);
+            header.put(types.get(i));
+            header.put((byte) (sorted[i] ? 1 : 0));
+            header.put((byte) (compressed[i] ? 1 : 0));
+            for (long offsetOrLength : blocks[i]) {
+                header.putLong(offsetOrLength);
+            }
+        }
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    /**
+     * Writes the blocks of the given rows of a column, recording the offset and length of
+     * each in blocks; returns whether its data was compressed
+     */
+    private boolean writeColumn(Column col, BitSet rows, long[] blocks) throws IOException {
+        //The strings of a column that isn't encoded yet are encoded in sorted order
+        List<String> dictionary = new ArrayList<>();
+        Map<String, Integer> codeOf = new HashMap<>();
+        DictionaryColumn encoded = col instanceof DictionaryColumn ? (DictionaryColumn) col : null;
+        if (encoded != null) {
+            for (int code = 0; code < encoded.dictionarySize(); code++) {
+                dictionary.add(encoded.decode(code));
+            }
+        } else if (col.columnType.equals("string")) {
+            TreeSet<String> distinct = new TreeSet<>();
+            for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+                if (!col.isNoValue(row) && !col.isNaN(row)) {
+                    distinct.add(col.getString(row));
+                }
+            }
+            for (String s : distinct) {
+                codeOf.put(s, dictionary.size());
+                dictionary.add(s);
+            }
+        }
+
+        //The special values, by their row in the file, the zone map of the rows, and the
+        //ints of an int or string column, which are compressed if that saves enough bytes
+        BitSet noValues = new BitSet();
+        BitSet nans = new BitSet();
+        ZoneMap zones = new ZoneMap(col.isNumeric());
+        boolean isFloat = col.columnType.equals("float");
+        int[] items = isFloat ? null : new int[rows.cardinality()];
+        startBlock(blocks, DATA);
+        int stored = 0;
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1), stored++) {
+            boolean special = col.isNoValue(row) || col.isNaN(row);
+            if (col.isNoValue(row)) {
+                noValues.set(stored);
+                zones.addNoValue();
+            } else if (col.isNaN(row)) {
+                nans.set(stored);
+                zones.addNaN();
+            } else if (col.isNumeric()) {
+                zones.add(col.getFloat(row));
+            } else {
+                zones.add(col.getString(row));
+            }
+            if (isFloat) {
+                reserve(4);
+                buffer.putFloat(special ? 0 : col.getFloat(row));
+            } else if (col.columnType.equals("int")) {
+                items[stored] = special ? 0 : col.getInt(row);
+            } else if (special) {
+                items[stored] = -1;
+            } else if (encoded != null) {
+                items[stored] = encoded.getCode(row);
+            } else {
+                items[stored] = codeOf.get(col.getString(row));
+            }
+        }
+        CompressedInts compressed = isFloat ? null : CompressedInts.encode(items, items.length);
+        if (compressed != null && compressed.isWorthwhile()) {
+            ByteBuffer bytes = ByteBuffer.allocate(compressed.bytes()).order(ByteOrder.LITTLE_ENDIAN);
+            compressed.write(bytes);
+            putBytes(bytes.array());
+        } else if (!isFloat) {
+            for (int item : items) {
+                reserve(4);
+                buffer.putInt(item);
+            }
+        }
+        endBlock(blocks, DATA);
+
+        writeBitmap(noValues, blocks, NO_VALUES);
+        writeBitmap(nans, blocks, NANS);
+
+        startBlock(blocks, DICTIONARY);
+        if (col.columnType.equals("string")) {
+            reserve(4);
+            buffer.putInt(dictionary.size());
+            for (String s : dictionary) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                reserve(4);
+                buffer.putInt(bytes.length);
+                putBytes(bytes);
+            }
+        }
+        endBlock(blocks, DICTIONARY);
+
+        startBlock(blocks, ZONES);
+        ByteBuffer zoneBytes = ByteBuffer.allocate(zones.bytes()).order(ByteOrder.LITTLE_ENDIAN);
+        zones.write(zoneBytes);
+        putBytes(zoneBytes.array());
+        endBlock(blocks, ZONES);
+        return compressed != null && compressed.isWorthwhile();
+    }
+
+    /* Writes a bitmap as a block of its longs */
+    private void writeBitmap(BitSet bitmap, long[] blocks, int block) throws IOException {
+        startBlock(blocks, block);
+        for (long word : bitmap.toLongArray()) {
+            reserve(8);
+            buffer.putLong(word);
+        }
+        endBlock(blocks, block);
+    }
+
+    /* Pads the file to a multiple of eight bytes, and records the offset of a block there */
+    private void startBlock(long[] blocks, int block) throws IOException {
+        while ((position + buffer.position()) % 8 != 0) {
+            reserve(1);
+            buffer.put((byte) 0);
+        }
+        blocks[block * 2] = position + buffer.position();
+    }
+
+    /* Records the length of a block that has just been written */
+    private void endBlock(long[] blocks, int block) {
+        blocks[block * 2 + 1] = position + buffer.position() - blocks[block * 2];
+    }
+
+    /* Makes sure the buffer has room for n more bytes, for n no larger than the buffer */
+    private void reserve(int n) throws IOException {
+        if (buffer.remaining() < n) {
+            flush();
+        }
+    }
+
+    private void putBytes(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.capacity()) {
+            flush();
+            ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+            while (wrapped.hasRemaining()) {
+                position += channel.write(wrapped, position);
+            }
+            return;
+        }
+        reserve(bytes.length);
+        buffer.put(bytes);
+    }
+
+    /* Writes the bytes in the buffer to the file, and empties the buffer */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        buffer.clear();
+    }
+
+    /* Opens the table in a binary file, mapping its data blocks into memory */
+    static Table read(FileChannel channel, String fileName) throws IOException {
+        long fileSize = channel.size();
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                Math.min(fileSize, Integer.MAX_VALUE));
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            header.position(SIGNATURE.length);
+            byte version = header.get();
+            if (version < 1 || version > VERSION) {
+                throw new RuntimeException("Unsupported version " + version + " of binary table in "
+                        + fileName);
+            }
+            int numColumns = header.getInt();
+            int numRows = header.getInt();
+            if (numColumns < 0 || numRows < 0) {
+                throw malformed(fileName);
+            }
+            List<Column> columns = new ArrayList<>();
+            for (int i = 0; i < numColumns; i++) {
+                String name = getString(header);
+                String type = getString(header);
+                boolean sorted = header.get() != 0;
+                boolean compressed = version >= 2 && header.get() != 0;
+                //Files before version 3 have no zone maps, which are then summarized when used
+                int numBlocks = version >= 3 ? NUM_BLOCKS : ZONES;
+                long[] blocks = new long[NUM_BLOCKS * 2];
+                for (int b = 0; b < numBlocks * 2; b++) {
+                    blocks[b] = header.getLong();
+                }
+                for (int block = 0; block < numBlocks; block++) {
+                    long offset = blocks[block * 2];
+                    long length = blocks[block * 2 + 1];
+                    if (offset < 0 || length < 0 || offset + length > fileSize) {
+                        throw malformed(fileName);
+                    }
+                }
+                if ((!compressed && blocks[DATA * 2 + 1] != numRows * 4L)
+                        || blocks[NO_VALUES * 2 + 1] % 8 != 0
+                        || blocks[NANS * 2 + 1] % 8 != 0) {
+                    throw malformed(fileName);
+                }
+
+                ByteBuffer data = map(channel, blocks, DATA);
+                CompressedInts items = compressed ? CompressedInts.read(data, numRows) : null;
+                Column col;
+                switch (type) {
+                    case "int":
+                        col = compressed ? new IntColumn(name, items)
+                                : new IntColumn(name, data.asIntBuffer(), numRows);
+                        break;
+                    case "float":
+                        if (compressed) {
+                            throw malformed(fileName);
+                        }
+                        col = new FloatColumn(name, data.asFloatBuffer(), numRows);
+                        break;
+                    case "string":
+                        List<String> dictionary = readDictionary(map(channel, blocks, DICTIONARY));
+                        col = compressed ? new DictionaryColumn(name, items, dictionary, sorted)
+                                : new DictionaryColumn(name, data.asIntBuffer(), numRows,
+                                dictionary, sorted);
+                        break;
+                    default:
+                        throw malformed(fileName);
+                }
+                col.noValues = BitSet.valueOf(map(channel, blocks, NO_VALUES).asLongBuffer());
+                col.nans = BitSet.valueOf(map(channel, blocks, NANS).asLongBuffer());
+                if (numBlocks > ZONES) {
+                    col.zones = ZoneMap.read(map(channel, blocks, ZONES), col.isNumeric());
+                    if (col.zones.size() != numRows) {
+                        throw malformed(fileName);
+                    }
+                }
+                columns.add(col);
+            }
+            return new Table(columns);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw malformed(fileName);
+        }
+    }
+
+    /* Maps a block of a column into memory */
+    private static ByteBuffer map(FileChannel channel, long[] blocks, int block) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, blocks[block * 2], blocks[block * 2 + 1])
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /* Reads the strings of a dictionary block */
+    private static List<String> readDictionary(ByteBuffer block) {
+        int count = block.getInt();
+        if (count < 0) {
+            throw new IllegalArgumentException();
+        }
+        List<String> dictionary = new ArrayList<>();
+        for (int code = 0; code < count; code++) {
+            dictionary.add(getString(block));
+        }
+        return dictionary;
+    }
+
+    /* Reads a string written as its length and UTF-8 bytes */
+    private static String getString(ByteBuffer bytes) {
+        int length = bytes.getInt();
+        if (length < 0 || length > bytes.remaining()) {
+            throw new IllegalArgumentException();
+        }
+        byte[] s = new byte[length];
+        bytes.get(s);
+        return new String(s, StandardCharsets.UTF_8);
+    }
+
+    private static RuntimeException malformed(String fileName) {
+        return new RuntimeException("Malformed binary table in " + fileName);
+    }
+}
@@ -0,0 +1,63 @@
+package db;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An index of a column keeping a compressed bitmap (see RoaringBitmap) of the rows
+ * holding each item, meant for columns with few distinct items. The rows satisfying
+ * equalities of several indexed columns to literals are found by intersecting the
+ * bitmaps of the literals, and counted without reading any row. Items are kept as for
+ * a hash index: Integers, Floats with -0.0 as 0.0, or Strings; rows holding NOVALUE
+ * or NaN are not indexed.
+ */
+class BitmapIndex extends Index {
+
+    //The number of rows indexed
+    private int rows;
+
+    private final Map<Object, RoaringBitmap> bitmaps = new HashMap<>();
+
+    BitmapIndex(String name, Column col) {
+        super(name, col);
+        extend(col);
+    }
+
+    @Override
+    synchronized void extend(Column col) {
+        for (int row = rows; row < col.size(); row++) {
+            if (col.isNoValue(row) || col.isNaN(row)) {
+                continue;
+            }
+            Object item;
+            switch (columnType) {
+                case "int":
+                    item = col.getInt(row);
+                    break;
+                case "float":
+                    float f = col.getFloat(row);
+                    item = f == 0 ? 0f : f;
+                    break;
+                default:
+                    item = col.getString(row);
+            }
+            bitmaps.computeIfAbsent(item, i -> new RoaringBitmap()).add(row);
+        }
+        rows = Math.max(rows, col.size());
+    }
+
+    @Override
+    int size() {
+        return rows;
+    }
+
+    /* Gets the bitmap of the rows holding the item, which the caller must not change */
+    RoaringBitmap rowsOf(Object item) {
+        if (item instanceof Float) {
+            float f = (Float) item;
+            item = f == 0 ? 0f : f;
+        }
+        RoaringBitmap matches = bitmaps.get(item);
+        return matches == null ? new RoaringBitmap() : matches;
+    }
+}
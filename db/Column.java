@@ -1,23 +1,50 @@
 package db;
 
-import java.util.List;
-import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Created by Joseph on 2/27/2017.
  */
 
-// Column class; has attributes column name and a list that holds the
-// items in the columns, ie. the rows.
-class Column {
+// Column class; has attributes column name and type, and the items in the column,
+// ie. the rows. The items are kept by the subclass for each column type in a
+// primitive array, and NOVALUE and NaN items are tracked in bitmaps instead of
+// being stored as objects. Copies of a column share its arrays and bitmaps until
+// one of them changes them (copy-on-write).
+abstract class Column implements Cloneable {
+
+    //Starting length of the underlying array of a new column
+    static final int INITIAL_CAPACITY = 16;
+
+    //Number of rows sampled to estimate the number of distinct items of a column
+    static final int DISTINCT_SAMPLE = 1 << 12;
 
     String columnName;
 
     String columnType;
 
-    //A list of each item under the column; implemented with array list for efficiency
-    //in select operations, since array lists have constant run-time get method
-    private List items;
+    //The rows of the column holding NOVALUE and NaN respectively
+    BitSet noValues;
+
+    BitSet nans;
+
+    //The number of items in the column; the underlying array may be longer
+    int size;
+
+    //The summary of the row groups of the column, shared by the columns sharing its
+    //storage; it summarizes rows added since it was last used whenever it is used
+    ZoneMap zones;
+
+    //Counts the columns sharing the arrays and bitmaps of this column
+    private RefCount refCount;
+
+    //The estimated number of distinct items, and the size of the column when it was
+    //estimated; -1 until it is first estimated
+    private int distinctEstimate = -1;
+
+    private int estimatedSize;
 
     Column(String columnName, String type) {
         if (columnName == null) {
@@ -25,88 +52,163 @@ class Column {
             throw new RuntimeException();
         }
         this.columnName = columnName;
+        columnType = type.toLowerCase();
+        noValues = new BitSet();
+        nans = new BitSet();
+        refCount = new RefCount();
+        zones = new ZoneMap(isNumeric());
+    }
+
+    /* Creates an empty column of the given type */
+    static Column create(String columnName, String type) {
         switch (type) {
             case "int":
-                items = new ArrayList<Integer>();
-                break;
+                return new IntColumn(columnName);
             case "float":
-                items = new ArrayList<Float>();
-                break;
+                return new FloatColumn(columnName);
             case "string":
-                items = new ArrayList<String>();
-                break;
+                return new StringColumn(columnName);
             default:
                 //A run-time exception for invalid type
                 throw new RuntimeException();
         }
-        columnType = type.toLowerCase();
     }
 
-    /* Makes a copy of the column */
+    /**
+     * Makes a copy of the column. The copy shares the underlying storage of this column,
+     * so copying is constant time; the storage is only copied once either column changes
+     */
     Column copy() {
-        Column copiedCol = new Column(columnName, columnType);
-        copiedCol.items = new ArrayList(items);
-        return copiedCol;
+        try {
+            Column copiedCol = (Column) clone();
+            refCount.retain();
+            return copiedCol;
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Gives up this column's share of its storage, so that the other columns sharing it
+     * may change it without copying; the column must not be used afterwards
+     */
+    void release() {
+        refCount.release();
+    }
+
+    /* Makes sure no other column shares the storage of this column before changing it */
+    void beforeWrite() {
+        if (refCount.isShared()) {
+            refCount.release();
+            refCount = new RefCount();
+            noValues = (BitSet) noValues.clone();
+            nans = (BitSet) nans.clone();
+            zones = zones.copy();
+            unshare();
+        }
+    }
+
+    /* Replaces the underlying array of the column with a copy of its own */
+    abstract void unshare();
+
+    /**
+     * Makes sure the underlying array can hold at least capacity items, and that it
+     * is not shared; called before any item is added
+     */
+    abstract void reserve(int capacity);
+
+    /* Adds the default item of the column type (0 or the empty string) */
+    abstract void addDefault();
+
+    /* Creates an empty column with the same name and type as this column */
+    abstract Column empty();
+
+    /* Adds the item at the given row of a column of the same type; never called on special values */
+    abstract void appendItem(Column src, int row);
+
+    /* Gets the item at index i as an object; never called on special values */
+    abstract Object getItem(int index);
+
+    /* Adds an item given as an object; never called with special values */
+    abstract void addItem(Object o);
+
+    /* Formats the item at index i; never called on special values */
+    abstract String formatItem(int index);
+
+    /**
+     * Compresses the items of the column if that saves enough memory (see CompressedInts);
+     * they are decompressed again before the column is changed
+     */
+    void compress() {
+    }
+
+    /* Gets the zone map of the column, summarizing every row it has */
+    ZoneMap zoneMap() {
+        zones.extend(this);
+        return zones;
     }
 
-    /* Formats the objects in the column to print out correctly */
-    String format(Object item) {
+    /* Gets the compressed items of the column; null if they are not compressed */
+    CompressedInts compressedItems() {
+        return null;
+    }
+
+    /* Formats the item at index i in the column to print out correctly */
+    String format(int index) {
         //Checks if the item is a special value
-        if (item instanceof SpecialValue) {
-            return item.toString();
-        } else if (columnType.equals("string")) {
-            return "'" + item.toString() + "'";
-        }
-        //Formats float values correctly
-        else if (columnType.equals("float")) {
-            return String.format("%.3f", item);
-        } else if (columnType.equals("int")) {
-            int itemInt = Integer.parseInt(item.toString());
-            return String.valueOf(itemInt);
+        if (noValues.get(index)) {
+            return NoValue.INSTANCE.toString();
+        } else if (nans.get(index)) {
+            return NaN.INSTANCE.toString();
         }
-        throw new RuntimeException("Error in printing out table");
+        return formatItem(index);
     }
 
     /* Formats a given string to the correct type of object */
     Object parseString(String itemString) {
+        Object item = parseItem(itemString);
+        if (item == null) {
+            System.out.println("ERROR: Inserted an item of the wrong type");
+            throw new RuntimeException();
+        }
+        return item;
+    }
+
+    /**
+     * Formats a given string to the correct type of object like parseString, without
+     * printing an error; gets null if the string is an item of another type, and throws
+     * a NumberFormatException if it is a malformed number
+     */
+    Object parseItem(String itemString) {
         //Checks to see if the string is a number and if it is formatted correctly
-        //as a float or integer
-        String testNumFormat = itemString.replaceAll("[*0-9]", "").replace(" ", "");
-        //Removes any signs
-        testNumFormat = testNumFormat.replace("-", "").replace("+", "");
-        //Checks if the item string is empty; if so, it is NOVALUE
+        //as a float or integer: besides numerals, signs, spaces and *s, an integer has
+        //no characters, and a float a single decimal point
+        int others = 0;
+        boolean point = false;
+        for (int i = 0; i < itemString.length(); i++) {
+            char c = itemString.charAt(i);
+            if ((c < '0' || c > '9') && c != '*' && c != ' ' && c != '-' && c != '+') {
+                others += 1;
+                point = c == '.';
+            }
+        }
+        boolean isInt = others == 0;
+        boolean isFloat = others == 1 && point;
         if (itemString.equals("NOVALUE")) {
-            return new NoValue();
+            return NoValue.INSTANCE;
         } else if (itemString.equals("NaN")) {
             //Checks if the item is of type NaN
-            return new NaN();
+            return NaN.INSTANCE;
         } else if (columnType.equals("float")) {
-            //Removed all numerals and whitespace; if correctly formatted, one decimal point
-            //should indicate a float
-            if (testNumFormat.equals(".")) {
-                return Float.parseFloat(itemString);
-            } else {
-                System.out.println("ERROR: Inserted an item of the wrong type");
-                throw new NumberFormatException();
-            }
+            return isFloat ? (Object) Float.parseFloat(itemString) : null;
         } else if (columnType.equals("int")) {
-            //If the integer is formatted correctly, should be empty string
-            if (testNumFormat.equals("")) {
-                return Integer.parseInt(itemString);
-            } else {
-                System.out.println("ERROR: Inserted an item of the wrong type");
-                throw new NumberFormatException();
-            }
-        } else {
-            //Column type is string, checks if it is not a number
-            if (!testNumFormat.equals(".") && !testNumFormat.equals("")) {
-                itemString = itemString.replace("'", "").replace("\"", "");
-                return itemString;
-            } else {
-                System.out.println("ERROR: Inserted an item of the wrong type");
-                throw new RuntimeException();
-            }
+            return isInt ? (Object) Integer.parseInt(itemString) : null;
+        }
+        //Column type is string, checks if it is not a number
+        if (isInt || isFloat) {
+            return null;
         }
+        return itemString.replace("'", "").replace("\"", "");
     }
 
     /**
@@ -114,36 +216,304 @@ class Column {
      * two columns and an alias; evaluates new column type
      */
     Column newColumnBinary(Column otherCol, String alias) {
-        String newColType = columnType;
-        String otherColType = otherCol.columnType;
+        //Creates a new column to be added to selectedCols
+        return create(alias, binaryType(columnType, otherCol.columnType));
+    }
+
+    /* Counts the rows of a bitmap in [from, to), without copying the bitmap */
+    static int countRows(BitSet rows, int from, int to) {
+        if (from <= 0 && to >= rows.length()) {
+            return rows.cardinality();
+        }
+        int count = 0;
+        for (int row = rows.nextSetBit(from); row >= 0 && row < to;
+             row = rows.nextSetBit(row + 1)) {
+            count += 1;
+        }
+        return count;
+    }
+
+    /* Evaluates the type of a binary expression over items of the two given types */
+    static String binaryType(String type1, String type2) {
         //The only case where unequal types are allowed is with ints and floats
-        if (!columnType.equals(otherColType)) {
-            if ((columnType.equals("int") && otherColType.equals("float")) ||
-                    columnType.equals("float") && otherColType.equals("int")) {
-                newColType = "float";
-            }
+        if (type1.equals(type2)) {
+            return type1;
+        } else if ((type1.equals("int") && type2.equals("float")) ||
+                type1.equals("float") && type2.equals("int")) {
+            return "float";
         }
-        //Creates a new column to be added to selectedCols
-        return new Column(alias, newColType);
+        throw new RuntimeException("Cannot combine items of type " + type1 + " and " + type2);
     }
 
     /* Adds an item to the column's items */
     void add(Object o) {
-        items.add(o);
+        if (o instanceof NoValue) {
+            addNoValue();
+        } else if (o instanceof NaN) {
+            addNaN();
+        } else {
+            addItem(o);
+        }
+    }
+
+    /* Adds the first n of the given items, which may be special values, to the end of the column */
+    void addAll(Object[] items, int n) {
+        reserve(size + n);
+        for (int k = 0; k < n; k++) {
+            add(items[k]);
+        }
+    }
+
+    /**
+     * Checks that an item given as an object can be added to the column, and gets it as
+     * parseString would: null stands for NOVALUE, a float NaN for NaN, and otherwise
+     * the item must be an Integer, a Float or Double, or a String for the column type
+     */
+    Object checkItem(Object o) {
+        if (o == null || o instanceof NoValue) {
+            return NoValue.INSTANCE;
+        } else if (o instanceof NaN) {
+            return NaN.INSTANCE;
+        }
+        switch (columnType) {
+            case "int":
+                if (o instanceof Integer) {
+                    return o;
+                }
+                break;
+            case "float":
+                if (o instanceof Float || o instanceof Double) {
+                    float item = ((Number) o).floatValue();
+                    return Float.isNaN(item) ? NaN.INSTANCE : (Object) item;
+                }
+                break;
+            default:
+                if (o instanceof String) {
+                    return o;
+                }
+        }
+        throw new RuntimeException("Cannot add " + o + " to a " + columnType + " column");
+    }
+
+    /* Adds NOVALUE to the end of the column */
+    void addNoValue() {
+        beforeWrite();
+        noValues.set(size);
+        addDefault();
+    }
+
+    /* Adds NaN to the end of the column */
+    void addNaN() {
+        beforeWrite();
+        nans.set(size);
+        addDefault();
     }
 
-    /* Removes the item at index i in the column */
-    Object remove(int index) {
-        return items.remove(index);
+    /* Adds an int to the end of the column */
+    void addInt(int item) {
+        throw new RuntimeException("Cannot add an int to a " + columnType + " column");
+    }
+
+    /* Adds a float to the end of the column */
+    void addFloat(float item) {
+        throw new RuntimeException("Cannot add a float to a " + columnType + " column");
+    }
+
+    /* Adds a string to the end of the column */
+    void addString(String item) {
+        throw new RuntimeException("Cannot add a string to a " + columnType + " column");
+    }
+
+    /* Adds the first n of the given ints to the end of the column */
+    void addInts(int[] items, int n) {
+        for (int k = 0; k < n; k++) {
+            addInt(items[k]);
+        }
+    }
+
+    /* Adds the first n of the given floats to the end of the column */
+    void addFloats(float[] items, int n) {
+        for (int k = 0; k < n; k++) {
+            addFloat(items[k]);
+        }
+    }
+
+    /* Adds the first n of the given strings to the end of the column */
+    void addStrings(String[] items, int n) {
+        for (int k = 0; k < n; k++) {
+            addString(items[k]);
+        }
+    }
+
+    /* Adds the item at the given row of a column of the same type to the end of this column */
+    void append(Column src, int row) {
+        if (src.isNoValue(row)) {
+            addNoValue();
+        } else if (src.isNaN(row)) {
+            addNaN();
+        } else {
+            appendItem(src, row);
+        }
+    }
+
+    /* Adds every item of a column of the same type to the end of this column, in order */
+    void appendAll(Column src) {
+        reserve(size + src.size);
+        for (int row = 0; row < src.size; row++) {
+            append(src, row);
+        }
+    }
+
+    /**
+     * Marks the rows of this column starting at offset holding NOVALUE and NaN as the
+     * rows of the given column do; used when its items are copied there in bulk
+     */
+    void appendSpecials(Column src, int offset) {
+        beforeWrite();
+        for (int row = src.noValues.nextSetBit(0); row >= 0; row = src.noValues.nextSetBit(row + 1)) {
+            noValues.set(offset + row);
+        }
+        for (int row = src.nans.nextSetBit(0); row >= 0; row = src.nans.nextSetBit(row + 1)) {
+            nans.set(offset + row);
+        }
+    }
+
+    /* Creates a new column holding only the given rows of this column, in order */
+    Column gather(BitSet rows) {
+        Column gatheredCol = empty();
+        gatheredCol.reserve(rows.cardinality());
+        for (int i = rows.nextSetBit(0); i >= 0; i = rows.nextSetBit(i + 1)) {
+            gatheredCol.append(this, i);
+        }
+        return gatheredCol;
+    }
+
+    /* Creates a new column holding the items at the given rows of this column, in order */
+    Column gather(int[] rows) {
+        Column gatheredCol = empty();
+        gatheredCol.reserve(rows.length);
+        for (int row : rows) {
+            gatheredCol.append(this, row);
+        }
+        return gatheredCol;
     }
 
     /* Gets the item at index i in the column */
     Object get(int index) {
-        return items.get(index);
+        if (noValues.get(index)) {
+            return NoValue.INSTANCE;
+        } else if (nans.get(index)) {
+            return NaN.INSTANCE;
+        }
+        return getItem(index);
+    }
+
+    /* Gets the int at index i; 0 for special values */
+    int getInt(int index) {
+        throw new RuntimeException("Column " + columnName + " is not of type int");
+    }
+
+    /* Gets the item at index i as a float, for int and float columns; 0 for special values */
+    float getFloat(int index) {
+        throw new RuntimeException("Column " + columnName + " is not numerical");
+    }
+
+    /* Gets the string at index i; the empty string for special values */
+    String getString(int index) {
+        throw new RuntimeException("Column " + columnName + " is not of type string");
+    }
+
+    /* Reads the ints at the first n of the given rows into out, as getInt does */
+    void readInts(int[] rows, int n, int[] out) {
+        for (int k = 0; k < n; k++) {
+            out[k] = getInt(rows[k]);
+        }
+    }
+
+    /* Reads the items at the first n of the given rows into out as floats, as getFloat does */
+    void readFloats(int[] rows, int n, float[] out) {
+        for (int k = 0; k < n; k++) {
+            out[k] = getFloat(rows[k]);
+        }
+    }
+
+    /* Reads the strings at the first n of the given rows into out, as getString does */
+    void readStrings(int[] rows, int n, String[] out) {
+        for (int k = 0; k < n; k++) {
+            out[k] = getString(rows[k]);
+        }
+    }
+
+    /* Checks if the item at index i is NOVALUE */
+    boolean isNoValue(int index) {
+        return noValues.get(index);
+    }
+
+    /* Checks if the item at index i is NaN */
+    boolean isNaN(int index) {
+        return nans.get(index);
+    }
+
+    /**
+     * Checks if the item at index i equals the item at the given row of the other column;
+     * NOVALUE and NaN items never match, and neither do items of different types
+     */
+    boolean matches(int index, Column other, int otherIndex) {
+        if (noValues.get(index) || nans.get(index) || other.isNoValue(otherIndex)
+                || other.isNaN(otherIndex) || !columnType.equals(other.columnType)) {
+            return false;
+        }
+        switch (columnType) {
+            case "int":
+                return getInt(index) == other.getInt(otherIndex);
+            case "float":
+                return getFloat(index) == other.getFloat(otherIndex);
+            default:
+                return getString(index).equals(other.getString(otherIndex));
+        }
+    }
+
+    /**
+     * Estimates the number of distinct items of the column, counting NOVALUE and NaN as
+     * one item each. The estimate is kept until the column grows by a tenth.
+     */
+    int distinctEstimate() {
+        if (distinctEstimate < 0 || size > estimatedSize + estimatedSize / 10) {
+            distinctEstimate = estimateDistinct();
+            estimatedSize = size;
+        }
+        return distinctEstimate;
+    }
+
+    /**
+     * Counts the distinct items in a sample of evenly spaced rows, scaling up the number
+     * of items seen only once in the sample by the square root of the sampling ratio
+     * (the guaranteed-error estimator); exact when every row is sampled
+     */
+    int estimateDistinct() {
+        int sampled = Math.min(size, DISTINCT_SAMPLE);
+        Map<Object, Integer> counts = new HashMap<>();
+        for (int s = 0; s < sampled; s++) {
+            counts.merge(get((int) ((long) s * size / sampled)), 1, Integer::sum);
+        }
+        int once = 0;
+        for (int count : counts.values()) {
+            if (count == 1) {
+                once += 1;
+            }
+        }
+        double estimate = Math.sqrt((double) size / Math.max(sampled, 1)) * once
+                + counts.size() - once;
+        return (int) Math.min(size, Math.round(estimate));
+    }
+
+    /* Checks if the column holds ints or floats */
+    boolean isNumeric() {
+        return !columnType.equals("string");
     }
 
     /* Gets the size of the column */
     int size() {
-        return items.size();
+        return size;
     }
 }
@@ -1,152 +1,143 @@
 package db;
 
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 /**
  * Created by Joseph on 3/4/2017.
  */
 public class ColumnExpression extends BinaryExpression {
 
-    //String representations of valid operators
-    private static final String[] validOperators = new String[]{"+", "-", "*", "/"};
-
     private String alias;
 
-    /* Constructor for column expression */
-    ColumnExpression(String colExpression, String alias) {
-        super(colExpression, validOperators);
+    //The column expression as an expression tree
+    private final Expression expression;
+
+    /**
+     * Constructor for column expression. A column, or an arithmetic operator applied to
+     * a column and a column or literal, is also kept as its operator and the text of its
+     * operands, and evaluated a batch of rows at a time; any other expression is
+     * compiled from its tree.
+     */
+    ColumnExpression(Expression expression, String alias) {
+        super(simpleOperator(expression), simpleOperands(expression));
+        this.expression = expression;
         this.alias = alias;
     }
 
+    /* Gets the operator of an operator applied to a column and a column or literal */
+    private static String simpleOperator(Expression expression) {
+        if (expression instanceof Expression.Name) {
+            return "";
+        } else if (expression instanceof Expression.Binary) {
+            Expression.Binary binary = (Expression.Binary) expression;
+            if (!binary.isComparison() && binary.left instanceof Expression.Name
+                    && (binary.right instanceof Expression.Name
+                    || binary.right instanceof Expression.Literal)) {
+                return binary.operator;
+            }
+        }
+        return null;
+    }
+
+    /* Gets the operands of a column, or of an operator applied to a column and a column or literal */
+    private static String[] simpleOperands(Expression expression) {
+        if (expression instanceof Expression.Name) {
+            return new String[]{((Expression.Name) expression).name};
+        } else if (simpleOperator(expression) == null) {
+            return new String[0];
+        }
+        Expression.Binary binary = (Expression.Binary) expression;
+        Expression right = binary.right;
+        return new String[]{((Expression.Name) binary.left).name, right instanceof Expression.Name
+                ? ((Expression.Name) right).name : ((Expression.Literal) right).text};
+    }
+
     /* Selects the alias */
     String getAlias() {
         return alias;
     }
 
-    /* Evaluates the operator in the column expression */
-    @Override
-    protected String evalOperator(String colExpression, String[] validOperators) {
-        //Checks if colExpression contains one and only one of the valid operators
-        String operator = super.evalOperator(colExpression, validOperators);
-        if (operator.length() > 1) {
-            throw new RuntimeException();
-        }
-        return operator;
+    /* Gets the column expression with its parameter placeholders replaced by the given values */
+    ColumnExpression bind(Object[] parameters) {
+        Expression bound = expression.bind(parameters);
+        return bound == expression ? this : new ColumnExpression(bound, alias);
     }
 
-    /* Evaluates the binary expression */
-    Object evalExpression(Object arg1, Object arg2) {
-        //Checks if expression is unary and trivially returns arg1
-        if (arg2.equals("")) {
-            return arg1;
-        }
-        //Checks if either operand is NaN
-        if (arg1 instanceof NaN || arg2 instanceof NaN) {
-            return new NaN();
-        }
-        //Checks if both operands are NOVALUE
-        if (arg1 instanceof NoValue && arg2 instanceof NoValue) {
-            return new NoValue();
-        }
-
-        //Turns each argument into a string
-        String arg1String = arg1.toString();
-        String arg2String = arg2.toString();
-        //Removes any surrounding quotes
-        arg2String = arg2String.replace("'", "").replace("\"", "");
-
-        //Checks if both argument strings are formatted as floats
-        String arg1TestNum = arg1String.replaceAll("[*0-9]", "").replace(" ", "");
-        String arg2TestNum = arg2String.replaceAll("[*0-9]", "").replace(" ", "");
-        //Removes any signs
-        arg1TestNum = arg1TestNum.replace("-", "").replace("+", "");
-        arg2TestNum = arg2TestNum.replace("-", "").replace("+", "");
-
-        //Checks if dealing with NoValue
-        if(arg1String.equals("NOVALUE")) {
-            arg1TestNum = "";
-        }
-        if (arg2String.equals("NOVALUE")) {
-            arg2TestNum = "";
-        }
+    /* Checks if the expression is just a column, which is selected as it is */
+    boolean isColumn() {
+        return expression instanceof Expression.Name;
+    }
 
-        //If removing all numbers gets empty string, then item is integer
-        if (arg1TestNum.equals("") && arg2TestNum.equals("")) {
-            int item1 = parseInt(arg1String);
-            int item2 = parseInt(arg2String);
-            return evalArithmetic(item1, item2);
-        }
-        //If just one decimal point is left, then it is a float
-        else if (arg1TestNum.equals(".") || arg2TestNum.equals(".")) {
-            float item1 = parseFloat(arg1String);
-            float item2 = parseFloat(arg2String);
-            return evalArithmetic(item1, item2);
-        } else {
-            //Otherwise, the args are string, and we use the string comparators
-            switch (operator) {
-                case "+":
-                    //Treats NOVALUE as empty string
-                    if (arg1String.equals("NOVALUE")) {
-                        arg1String = "";
-                    }
-                    if (arg2String.equals("NOVALUE")) {
-                        arg2String = "";
-                    }
-                    return arg1String + arg2String;
-                default:
-                    throw new RuntimeException(operator + " cannot be applied to string type");
-            }
-        }
+    /* Gets the names the expression uses */
+    Set<String> getNames() {
+        Set<String> names = new LinkedHashSet<>();
+        expression.addNames(names);
+        return names;
     }
 
-    /*Evaluates arithmetic expressions with floats */
-    private Object evalArithmetic(float item1, float item2) {
-        switch (operator) {
-            case "+":
-                return item1 + item2;
-            case "-":
-                return item1 - item2;
-            case "*":
-                return item1 * item2;
-            case "/":
-                if (item2 == 0) {
-                    return new NaN();
-                }
-                return item1 / item2;
-        }
-        throw new RuntimeException();
+    /**
+     * Evaluates the expression for the given rows of the table into a new column named
+     * by the alias
+     */
+    Column evaluate(Table table, BitSet rows) {
+        return evaluate(table, rows, 0, rows.length());
     }
 
-    /*Evaluates arithmetic expressions with integers */
-    private Object evalArithmetic(int item1, int item2) {
-        switch (operator) {
-            case "+":
-                return item1 + item2;
-            case "-":
-                return item1 - item2;
-            case "*":
-                return item1 * item2;
-            case "/":
-                if (item2 == 0) {
-                    return new NaN();
-                }
-                return item1 / item2;
+    /**
+     * Evaluates the expression for the given rows of the table in [from, to) into a new
+     * column named by the alias; the rows of a range are evaluated independently of any
+     * other rows, so ranges may be evaluated at the same time
+     */
+    Column evaluate(Table table, BitSet rows, int from, int to) {
+        if (operator == null) {
+            return expression.compile(table).evaluate(alias, rows, from, to);
         }
-        throw new RuntimeException();
+        Column column1 = table.getColumn(getArg1());
+        if (table.getColumnNames().contains(getArg2())) {
+            //The type of the new column is evaluated from the types of both columns
+            return evalColumns(column1, table.getColumn(getArg2()), rows, from, to);
+        }
+        return evalLiteral(column1, getArg2(), rows, from, to);
     }
 
-    /* Parses string into float, including case where string is no value */
-    float parseFloat(String str) {
-        if (str.equals("NOVALUE")) {
-            return 0;
-        }
-        return Float.parseFloat(str);
+    /**
+     * Evaluates the binary expression over two columns, a batch of rows at a time, into
+     * a new column holding the results for the given rows in [from, to)
+     */
+    private Column evalColumns(Column col1, Column col2, BitSet rows, int from, int to) {
+        //The type of the new column is decided once, from the types of both columns
+        Column newCol = col1.newColumnBinary(col2, alias);
+        newCol.reserve(Column.countRows(rows, from, to));
+        new ExpressionBatch(newCol.columnType, operator.charAt(0))
+                .evaluate(col1, col2, rows, from, to, newCol);
+        return newCol;
     }
 
-    /* Parses string into int, including case where string is no value */
-    int parseInt(String str) {
-        if (str.equals("NOVALUE")) {
-            return 0;
+    /**
+     * Evaluates the binary expression over a column and a literal value, a batch of rows
+     * at a time, into a new column holding the results for the given rows in [from, to)
+     */
+    private Column evalLiteral(Column col1, String literal, BitSet rows, int from, int to) {
+        literal = literal.trim();
+        String literalType;
+        if (literal.startsWith("'") || literal.startsWith("\"")) {
+            literalType = "string";
+            //Removes any surrounding quotes
+            literal = literal.replace("'", "").replace("\"", "");
+        } else if (literal.contains(".")) {
+            literalType = "float";
+        } else {
+            literalType = "int";
         }
-        return Integer.parseInt(str);
+        Column newCol = Column.create(alias, Column.binaryType(col1.columnType, literalType));
+        newCol.reserve(Column.countRows(rows, from, to));
+        ExpressionBatch batch = new ExpressionBatch(newCol.columnType, operator.charAt(0));
+        //Parses the literal once, rather than on every row
+        batch.setLiteral(literal);
+        batch.evaluate(col1, null, rows, from, to, newCol);
+        return newCol;
     }
 
 }
@@ -0,0 +1,337 @@
+package db;
+
+import java.util.BitSet;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * An expression compiled against the columns of a table into closures over row ids.
+ * The type of the expression is decided when it is compiled, and each operator is
+ * compiled into a closure for the types of its operands, so that evaluating a row only
+ * calls the closures of the operands, without looking at types or operators.
+ *
+ * Values follow the rules of column expressions and conditionals:
+ *  - an arithmetic operand that is NaN, or dividing by zero, gives NaN,
+ *  - two NOVALUE operands give NOVALUE, and a single one acts as 0 or the empty string,
+ *  - comparisons with NOVALUE are false, and NaN compares as the largest float.
+ */
+class CompiledExpression {
+
+    //What a row of the expression evaluates to besides an item of its type
+    static final int ITEM = 0;
+
+    static final int NAN = 1;
+
+    static final int NOVALUE = 2;
+
+    /* Evaluates a float expression for a row */
+    interface FloatFunction {
+        float apply(int row);
+    }
+
+    //The type of the expression: int, float, string, or boolean for conditionals
+    final String type;
+
+    //Whether a row evaluates to NaN, NOVALUE or an item; null if always an item
+    final IntUnaryOperator kind;
+
+    //The items of the rows, for the type of the expression; ints are also read as
+    //floats. Rows that are NaN or NOVALUE hold 0 or the empty string.
+    final IntUnaryOperator ints;
+
+    final FloatFunction floats;
+
+    final IntFunction<String> strings;
+
+    //Whether a row satisfies a boolean expression
+    final IntPredicate test;
+
+    private CompiledExpression(String type, IntUnaryOperator kind, IntUnaryOperator ints,
+                               FloatFunction floats, IntFunction<String> strings,
+                               IntPredicate test) {
+        this.type = type;
+        this.kind = kind;
+        this.ints = ints;
+        this.floats = floats;
+        this.strings = strings;
+        this.test = test;
+    }
+
+    /* Compiles a reference to a column */
+    static CompiledExpression column(Column col) {
+        BitSet nans = col.nans;
+        BitSet noValues = col.noValues;
+        IntUnaryOperator kind = null;
+        if (!nans.isEmpty() || !noValues.isEmpty()) {
+            kind = row -> nans.get(row) ? NAN : noValues.get(row) ? NOVALUE : ITEM;
+        }
+        switch (col.columnType) {
+            case "int":
+                return new CompiledExpression("int", kind, col::getInt, col::getFloat, null, null);
+            case "float":
+                return new CompiledExpression("float", kind, null, col::getFloat, null, null);
+            default:
+                return new CompiledExpression("string", kind, null, null, col::getString, null);
+        }
+    }
+
+    /* Compiles an int literal */
+    static CompiledExpression constant(int item) {
+        return new CompiledExpression("int", null, row -> item, row -> item, null, null);
+    }
+
+    /* Compiles a float literal */
+    static CompiledExpression constant(float item) {
+        return new CompiledExpression("float", null, null, row -> item, null, null);
+    }
+
+    /* Compiles a string literal, given without quotes */
+    static CompiledExpression constant(String item) {
+        return new CompiledExpression("string", null, null, null, row -> item, null);
+    }
+
+    /* Compiles the special value with the given name, NaN or NOVALUE */
+    static CompiledExpression special(String name) {
+        int special = name.equals("NaN") ? NAN : NOVALUE;
+        return new CompiledExpression("float", row -> special, null, row -> 0, null, null);
+    }
+
+    /* Compiles an arithmetic operator applied to two expressions */
+    static CompiledExpression arithmetic(char op, CompiledExpression left,
+                                         CompiledExpression right) {
+        checkNotBoolean(left);
+        checkNotBoolean(right);
+        String type = Column.binaryType(left.type, right.type);
+
+        //Rows divided by zero are NaN
+        IntPredicate divByZero = null;
+        if (op == '/') {
+            IntUnaryOperator divisorInts = right.ints;
+            FloatFunction divisorFloats = right.floats;
+            divByZero = type.equals("int")
+                    ? row -> divisorInts.applyAsInt(row) == 0
+                    : row -> divisorFloats.apply(row) == 0;
+        }
+        IntUnaryOperator kind = arithmeticKind(left.kind, right.kind, divByZero);
+
+        switch (type) {
+            case "int":
+                return new CompiledExpression("int", kind, intOperator(op, left.ints, right.ints),
+                        null, null, null).withFloats();
+            case "float":
+                return new CompiledExpression("float", kind, null,
+                        floatOperator(op, left.floats, right.floats), null, null);
+            default:
+                IntFunction<String> leftStrings = left.strings;
+                IntFunction<String> rightStrings = right.strings;
+                if (op != '+') {
+                    return new CompiledExpression("string", kind, null, null, row -> {
+                        throw new RuntimeException(op + " cannot be applied to string type");
+                    }, null);
+                }
+                return new CompiledExpression("string", kind, null, null,
+                        row -> leftStrings.apply(row) + rightStrings.apply(row), null);
+        }
+    }
+
+    /* Adds the reading of the ints of an int expression as floats */
+    private CompiledExpression withFloats() {
+        IntUnaryOperator intItems = ints;
+        return new CompiledExpression(type, kind, ints, row -> intItems.applyAsInt(row),
+                strings, test);
+    }
+
+    /* Compiles whether the rows of an arithmetic expression are NaN or NOVALUE */
+    private static IntUnaryOperator arithmeticKind(IntUnaryOperator leftKind,
+                                                   IntUnaryOperator rightKind,
+                                                   IntPredicate divByZero) {
+        if (leftKind == null && rightKind == null) {
+            if (divByZero == null) {
+                return null;
+            }
+            return row -> divByZero.test(row) ? NAN : ITEM;
+        }
+        IntUnaryOperator leftKinds = leftKind != null ? leftKind : row -> ITEM;
+        IntUnaryOperator rightKinds = rightKind != null ? rightKind : row -> ITEM;
+        IntPredicate zeroDivisor = divByZero != null ? divByZero : row -> false;
+        return row -> {
+            int leftRow = leftKinds.applyAsInt(row);
+            int rightRow = rightKinds.applyAsInt(row);
+            if (leftRow == NAN || rightRow == NAN) {
+                return NAN;
+            } else if (leftRow == NOVALUE && rightRow == NOVALUE) {
+                return NOVALUE;
+            }
+            return zeroDivisor.test(row) ? NAN : ITEM;
+        };
+    }
+
+    /* Compiles an arithmetic operator on ints */
+    private static IntUnaryOperator intOperator(char op, IntUnaryOperator left,
+                                                IntUnaryOperator right) {
+        switch (op) {
+            case '+':
+                return row -> left.applyAsInt(row) + right.applyAsInt(row);
+            case '-':
+                return row -> left.applyAsInt(row) - right.applyAsInt(row);
+            case '*':
+                return row -> left.applyAsInt(row) * right.applyAsInt(row);
+            case '/':
+                return row -> {
+                    int divisor = right.applyAsInt(row);
+                    return divisor == 0 ? 0 : left.applyAsInt(row) / divisor;
+                };
+        }
+        throw new RuntimeException("Invalid operator " + op);
+    }
+
+    /* Compiles an arithmetic operator on floats */
+    private static FloatFunction floatOperator(char op, FloatFunction left, FloatFunction right) {
+        switch (op) {
+            case '+':
+                return row -> left.apply(row) + right.apply(row);
+            case '-':
+                return row -> left.apply(row) - right.apply(row);
+            case '*':
+                return row -> left.apply(row) * right.apply(row);
+            case '/':
+                return row -> {
+                    float divisor = right.apply(row);
+                    return divisor == 0 ? 0 : left.apply(row) / divisor;
+                };
+        }
+        throw new RuntimeException("Invalid operator " + op);
+    }
+
+    /* Compiles a comparison of two expressions */
+    static CompiledExpression comparison(String operator, CompiledExpression left,
+                                         CompiledExpression right) {
+        checkNotBoolean(left);
+        checkNotBoolean(right);
+        int op = Conditional.comparator(operator);
+        IntUnaryOperator leftKinds = left.kind != null ? left.kind : row -> ITEM;
+        IntUnaryOperator rightKinds = right.kind != null ? right.kind : row -> ITEM;
+        boolean leftNumeric = !left.type.equals("string");
+        boolean rightNumeric = !right.type.equals("string");
+
+        IntPredicate test;
+        if (leftNumeric && rightNumeric) {
+            //Since ints are floats we compare using floats, where NaN is the largest
+            FloatFunction leftFloats = left.floats;
+            FloatFunction rightFloats = right.floats;
+            if (left.kind == null && right.kind == null) {
+                test = row -> Conditional.compareFloats(op, leftFloats.apply(row),
+                        rightFloats.apply(row));
+            } else {
+                test = row -> {
+                    int leftRow = leftKinds.applyAsInt(row);
+                    int rightRow = rightKinds.applyAsInt(row);
+                    return leftRow != NOVALUE && rightRow != NOVALUE && Conditional.compareFloats(op,
+                            leftRow == NAN ? Float.POSITIVE_INFINITY : leftFloats.apply(row),
+                            rightRow == NAN ? Float.POSITIVE_INFINITY : rightFloats.apply(row));
+                };
+            }
+        } else if (!leftNumeric && !rightNumeric) {
+            IntFunction<String> leftStrings = left.strings;
+            IntFunction<String> rightStrings = right.strings;
+            test = row -> {
+                int leftRow = leftKinds.applyAsInt(row);
+                int rightRow = rightKinds.applyAsInt(row);
+                return leftRow != NOVALUE && rightRow != NOVALUE && Conditional.compareStringItems(op,
+                        leftRow == NAN ? NaN.INSTANCE.toString() : leftStrings.apply(row),
+                        rightRow == NAN ? NaN.INSTANCE.toString() : rightStrings.apply(row));
+            };
+        } else {
+            //Compares a number and a string by their string forms
+            IntFunction<Object> leftItems = left.boxed();
+            IntFunction<Object> rightItems = right.boxed();
+            test = row -> Conditional.compare(op, leftItems.apply(row), rightItems.apply(row));
+        }
+        return new CompiledExpression("boolean", null, null, null, null, test);
+    }
+
+    /* Compiles "and" or "or" applied to two boolean expressions */
+    static CompiledExpression logical(String operator, CompiledExpression left,
+                                      CompiledExpression right) {
+        if (!left.type.equals("boolean") || !right.type.equals("boolean")) {
+            throw new RuntimeException(operator + " can only be applied to comparisons");
+        }
+        IntPredicate leftTest = left.test;
+        IntPredicate rightTest = right.test;
+        IntPredicate test = operator.equals("and")
+                ? row -> leftTest.test(row) && rightTest.test(row)
+                : row -> leftTest.test(row) || rightTest.test(row);
+        return new CompiledExpression("boolean", null, null, null, null, test);
+    }
+
+    /* Gets the items of the rows as objects, with NaN and NOVALUE as special values */
+    private IntFunction<Object> boxed() {
+        IntUnaryOperator kinds = kind != null ? kind : row -> ITEM;
+        IntFunction<Object> items;
+        switch (type) {
+            case "int":
+                IntUnaryOperator intItems = ints;
+                items = intItems::applyAsInt;
+                break;
+            case "float":
+                FloatFunction floatItems = floats;
+                items = floatItems::apply;
+                break;
+            default:
+                items = strings::apply;
+        }
+        return row -> {
+            int kindOfRow = kinds.applyAsInt(row);
+            if (kindOfRow == NAN) {
+                return NaN.INSTANCE;
+            } else if (kindOfRow == NOVALUE) {
+                return NoValue.INSTANCE;
+            }
+            return items.apply(row);
+        };
+    }
+
+    private static void checkNotBoolean(CompiledExpression expr) {
+        if (expr.type.equals("boolean")) {
+            throw new RuntimeException("A comparison cannot be an operand of arithmetic");
+        }
+    }
+
+    /* Gets a test of whether rows satisfy the expression, which must be boolean */
+    IntPredicate predicate() {
+        if (test == null) {
+            throw new RuntimeException("Conditional expression is not a comparison");
+        }
+        return test;
+    }
+
+    /**
+     * Evaluates the expression for the given rows in [from, to) into a new column with
+     * the given name, holding the results in order
+     */
+    Column evaluate(String alias, BitSet rows, int from, int to) {
+        if (type.equals("boolean")) {
+            throw new RuntimeException("Cannot select a comparison");
+        }
+        Column newCol = Column.create(alias, type);
+        newCol.reserve(Column.countRows(rows, from, to));
+        boolean isInt = type.equals("int");
+        boolean isFloat = type.equals("float");
+        for (int i = rows.nextSetBit(from); i >= 0 && i < to; i = rows.nextSetBit(i + 1)) {
+            int kindOfRow = kind != null ? kind.applyAsInt(i) : ITEM;
+            if (kindOfRow == NAN) {
+                newCol.addNaN();
+            } else if (kindOfRow == NOVALUE) {
+                newCol.addNoValue();
+            } else if (isInt) {
+                newCol.addInt(ints.applyAsInt(i));
+            } else if (isFloat) {
+                newCol.addFloat(floats.apply(i));
+            } else {
+                newCol.addString(strings.apply(i));
+            }
+        }
+        return newCol;
+    }
+}
@@ -0,0 +1,635 @@
+package db;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * An immutable sequence of ints compressed in segments of SEGMENT_ROWS items, each of
+ * which is encoded in whichever of these takes the fewest bytes:
+ *
+ *   run-length          each run of equal items as the item and the end of the run, for
+ *                       sorted or repetitive items
+ *   frame of reference  the smallest item, and how much larger each item is, packed in as
+ *                       few bits as the largest difference needs, for items in a small range
+ *   delta               for items that never decrease, such as ids, how much larger each
+ *                       item is than the one before, packed in the same way, with every
+ *                       DELTA_INTERVAL-th item kept whole so that any item is found quickly
+ *   plain               the items as they are
+ *
+ * Filters and sums read the segments as they are encoded: a filter tests the item of a run
+ * once for the whole run, and other segments are read in order without decompressing them.
+ */
+class CompressedInts {
+
+    //Number of items in a segment; every segment but the last is full
+    static final int SEGMENT_ROWS = 1 << 16;
+
+    private static final int SEGMENT_SHIFT = 16;
+
+    //Number of items of a delta segment between items kept whole
+    static final int DELTA_INTERVAL = 64;
+
+    //Compress columns only if they take at most this fraction of their plain size
+    static final double MAX_COMPRESSED_RATIO = 0.5;
+
+    //The encodings of segments, as written to a file
+    private static final byte PLAIN = 0;
+
+    private static final byte RUN_LENGTH = 1;
+
+    private static final byte FRAME_OF_REFERENCE = 2;
+
+    private static final byte DELTA = 3;
+
+    private final Segment[] segments;
+
+    private final int size;
+
+    private CompressedInts(Segment[] segments, int size) {
+        this.segments = segments;
+        this.size = size;
+    }
+
+    /* Compresses the first size items of the array */
+    static CompressedInts encode(int[] items, int size) {
+        Segment[] segments = new Segment[(size + SEGMENT_ROWS - 1) / SEGMENT_ROWS];
+        for (int s = 0; s < segments.length; s++) {
+            int start = s * SEGMENT_ROWS;
+            segments[s] = Segment.encode(items, start, Math.min(SEGMENT_ROWS, size - start));
+        }
+        return new CompressedInts(segments, size);
+    }
+
+    /* Gets the number of items */
+    int size() {
+        return size;
+    }
+
+    /* Checks if the items take few enough bytes compressed to be kept compressed */
+    boolean isWorthwhile() {
+        return bytes() <= MAX_COMPRESSED_RATIO * 4 * size;
+    }
+
+    /* Gets the number of bytes the compressed items take when written */
+    int bytes() {
+        int bytes = 4;
+        for (Segment segment : segments) {
+            bytes += segment.bytes();
+        }
+        return bytes;
+    }
+
+    /* Gets the item at index i */
+    int get(int index) {
+        return segments[index >>> SEGMENT_SHIFT].get(index & (SEGMENT_ROWS - 1));
+    }
+
+    /* Decompresses every item into the given array, starting at offset */
+    void decode(int[] out, int offset) {
+        for (int s = 0; s < segments.length; s++) {
+            segments[s].decode(out, offset + s * SEGMENT_ROWS);
+        }
+    }
+
+    /**
+     * Gets a bitmap of the given rows whose items satisfy the test; it may also hold rows
+     * that were not given, so the caller intersects it with them. Segments without any
+     * of the rows are skipped.
+     */
+    BitSet match(IntPredicate itemMatches, BitSet rows) {
+        BitSet matches = new BitSet(size);
+        for (int s = 0; s < segments.length; s++) {
+            int base = s * SEGMENT_ROWS;
+            int first = rows.nextSetBit(base);
+            if (first >= 0 && first < base + segments[s].length) {
+                segments[s].match(itemMatches, base, rows, matches);
+            }
+        }
+        return matches;
+    }
+
+    /* Sums the items of the given rows as floats, adding them in order */
+    float sum(BitSet rows) {
+        float result = 0;
+        for (int s = 0; s < segments.length; s++) {
+            result = segments[s].sum(s * SEGMENT_ROWS, rows, result);
+        }
+        return result;
+    }
+
+    /* Writes the compressed items, which take bytes() bytes */
+    void write(ByteBuffer out) {
+        out.putInt(segments.length);
+        for (Segment segment : segments) {
+            segment.write(out);
+        }
+    }
+
+    /**
+     * Reads compressed items written by write, which must hold the given number of
+     * items; throws an IllegalArgumentException if they are malformed
+     */
+    static CompressedInts read(ByteBuffer in, int size) {
+        int numSegments = in.getInt();
+        if (numSegments != (size + SEGMENT_ROWS - 1) / SEGMENT_ROWS) {
+            throw new IllegalArgumentException();
+        }
+        Segment[] segments = new Segment[numSegments];
+        for (int s = 0; s < numSegments; s++) {
+            segments[s] = Segment.read(in);
+            if (segments[s].length != Math.min(SEGMENT_ROWS, size - s * SEGMENT_ROWS)) {
+                throw new IllegalArgumentException();
+            }
+        }
+        return new CompressedInts(segments, size);
+    }
+
+    /* The items of a segment in one of the encodings */
+    abstract static class Segment {
+
+        final int length;
+
+        Segment(int length) {
+            this.length = length;
+        }
+
+        /* Encodes the given items in the encoding that takes the fewest bytes */
+        static Segment encode(int[] items, int start, int length) {
+            long min = items[start];
+            long max = items[start];
+            int runs = 1;
+            boolean increasing = true;
+            long minDelta = Long.MAX_VALUE;
+            long maxDelta = 0;
+            for (int i = start + 1; i < start + length; i++) {
+                min = Math.min(min, items[i]);
+                max = Math.max(max, items[i]);
+                if (items[i] != items[i - 1]) {
+                    runs += 1;
+                }
+                long delta = (long) items[i] - items[i - 1];
+                increasing &= delta >= 0;
+                minDelta = Math.min(minDelta, delta);
+                maxDelta = Math.max(maxDelta, delta);
+            }
+            if (length == 1) {
+                minDelta = 0;
+            }
+
+            //Of encodings taking as few bytes, filters read run-length segments fastest,
+            //then frame of reference segments
+            Segment best = null;
+            int bestBytes = Plain.bytes(length);
+            if (increasing && Delta.bytes(length, bits(maxDelta - minDelta)) < bestBytes) {
+                best = Delta.encode(items, start, length, minDelta, bits(maxDelta - minDelta));
+                bestBytes = best.bytes();
+            }
+            if (FrameOfReference.bytes(length, bits(max - min)) <= bestBytes) {
+                best = FrameOfReference.encode(items, start, length, (int) min, bits(max - min));
+                bestBytes = best.bytes();
+            }
+            if (RunLength.bytes(runs) <= bestBytes) {
+                best = RunLength.encode(items, start, length, runs);
+            }
+            if (best == null) {
+                best = new Plain(Arrays.copyOfRange(items, start, start + length));
+            }
+            return best;
+        }
+
+        /* Reads a segment written by write */
+        static Segment read(ByteBuffer in) {
+            byte encoding = in.get();
+            int length = in.getInt();
+            if (length <= 0 || length > SEGMENT_ROWS) {
+                throw new IllegalArgumentException();
+            }
+            switch (encoding) {
+                case PLAIN:
+                    return Plain.read(in, length);
+                case RUN_LENGTH:
+                    return RunLength.read(in, length);
+                case FRAME_OF_REFERENCE:
+                    return FrameOfReference.read(in, length);
+                case DELTA:
+                    return Delta.read(in, length);
+                default:
+                    throw new IllegalArgumentException();
+            }
+        }
+
+        /* Gets the item at index i of the segment */
+        abstract int get(int index);
+
+        /**
+         * Gets a reader of the items of the segment, for indices that never decrease; it
+         * may find each item more quickly from the one read before it than get does
+         */
+        IntUnaryOperator reader() {
+            return this::get;
+        }
+
+        /* Decompresses every item into the given array, starting at offset */
+        void decode(int[] out, int offset) {
+            IntUnaryOperator items = reader();
+            for (int i = 0; i < length; i++) {
+                out[offset + i] = items.applyAsInt(i);
+            }
+        }
+
+        /* Marks in matches the given rows of the segment, from base on, whose items satisfy the test */
+        void match(IntPredicate itemMatches, int base, BitSet rows, BitSet matches) {
+            IntUnaryOperator items = reader();
+            int end = base + length;
+            for (int row = rows.nextSetBit(base); row >= 0 && row < end;
+                 row = rows.nextSetBit(row + 1)) {
+                if (itemMatches.test(items.applyAsInt(row - base))) {
+                    matches.set(row);
+                }
+            }
+        }
+
+        /* Adds the items of the given rows of the segment, starting at base, to result in order */
+        float sum(int base, BitSet rows, float result) {
+            IntUnaryOperator items = reader();
+            int end = base + length;
+            for (int row = rows.nextSetBit(base); row >= 0 && row < end;
+                 row = rows.nextSetBit(row + 1)) {
+                result += items.applyAsInt(row - base);
+            }
+            return result;
+        }
+
+        /* Gets the number of bytes the segment takes when written */
+        abstract int bytes();
+
+        /* Writes the segment, with its encoding and length first */
+        abstract void write(ByteBuffer out);
+    }
+
+    /* A segment of items as they are */
+    private static class Plain extends Segment {
+
+        private final int[] items;
+
+        Plain(int[] items) {
+            super(items.length);
+            this.items = items;
+        }
+
+        static Plain read(ByteBuffer in, int length) {
+            int[] items = new int[length];
+            in.asIntBuffer().get(items);
+            in.position(in.position() + 4 * length);
+            return new Plain(items);
+        }
+
+        @Override
+        int get(int index) {
+            return items[index];
+        }
+
+        @Override
+        void decode(int[] out, int offset) {
+            System.arraycopy(items, 0, out, offset, length);
+        }
+
+        static int bytes(int length) {
+            return 5 + 4 * length;
+        }
+
+        @Override
+        int bytes() {
+            return bytes(length);
+        }
+
+        @Override
+        void write(ByteBuffer out) {
+            out.put(PLAIN);
+            out.putInt(length);
+            for (int item : items) {
+                out.putInt(item);
+            }
+        }
+    }
+
+    /* A segment of runs of equal items */
+    private static class RunLength extends Segment {
+
+        //The item of each run, and the index after its last item
+        private final int[] items;
+
+        private final int[] ends;
+
+        RunLength(int length, int[] items, int[] ends) {
+            super(length);
+            this.items = items;
+            this.ends = ends;
+        }
+
+        static int bytes(int runs) {
+            return 9 + 8 * runs;
+        }
+
+        static RunLength encode(int[] values, int start, int length, int runs) {
+            int[] items = new int[runs];
+            int[] ends = new int[runs];
+            int run = 0;
+            for (int i = 1; i <= length; i++) {
+                if (i == length || values[start + i] != values[start + i - 1]) {
+                    items[run] = values[start + i - 1];
+                    ends[run] = i;
+                    run += 1;
+                }
+            }
+            return new RunLength(length, items, ends);
+        }
+
+        static RunLength read(ByteBuffer in, int length) {
+            int runs = in.getInt();
+            if (runs <= 0 || runs > length) {
+                throw new IllegalArgumentException();
+            }
+            int[] items = new int[runs];
+            int[] ends = new int[runs];
+            for (int run = 0; run < runs; run++) {
+                items[run] = in.getInt();
+            }
+            for (int run = 0; run < runs; run++) {
+                ends[run] = in.getInt();
+                if (ends[run] <= (run > 0 ? ends[run - 1] : 0)) {
+                    throw new IllegalArgumentException();
+                }
+            }
+            if (ends[runs - 1] != length) {
+                throw new IllegalArgumentException();
+            }
+            return new RunLength(length, items, ends);
+        }
+
+        @Override
+        int get(int index) {
+            //The run of the item is the first to end after it
+            int run = Arrays.binarySearch(ends, index + 1);
+            return items[run >= 0 ? run : -run - 1];
+        }
+
+        @Override
+        IntUnaryOperator reader() {
+            int[] run = new int[1];
+            return index -> {
+                while (ends[run[0]] <= index) {
+                    run[0] += 1;
+                }
+                return items[run[0]];
+            };
+        }
+
+        @Override
+        void match(IntPredicate itemMatches, int base, BitSet rows, BitSet matches) {
+            //Every row of a matching run matches, selected or not
+            int start = 0;
+            for (int run = 0; run < items.length; run++) {
+                if (itemMatches.test(items[run])) {
+                    matches.set(base + start, base + ends[run]);
+                }
+                start = ends[run];
+            }
+        }
+
+        @Override
+        int bytes() {
+            return bytes(items.length);
+        }
+
+        @Override
+        void write(ByteBuffer out) {
+            out.put(RUN_LENGTH);
+            out.putInt(length);
+            out.putInt(items.length);
+            for (int item : items) {
+                out.putInt(item);
+            }
+            for (int end : ends) {
+                out.putInt(end);
+            }
+        }
+    }
+
+    /* A segment of items stored as how much larger they are than the smallest of them */
+    private static class FrameOfReference extends Segment {
+
+        private final int min;
+
+        private final Packed offsets;
+
+        FrameOfReference(int length, int min, Packed offsets) {
+            super(length);
+            this.min = min;
+            this.offsets = offsets;
+        }
+
+        static int bytes(int length, int width) {
+            return 9 + Packed.bytes(length, width);
+        }
+
+        static FrameOfReference encode(int[] items, int start, int length, int min, int width) {
+            Packed offsets = new Packed(length, width);
+            for (int i = 0; i < length; i++) {
+                offsets.set(i, (long) items[start + i] - min);
+            }
+            return new FrameOfReference(length, min, offsets);
+        }
+
+        static FrameOfReference read(ByteBuffer in, int length) {
+            int min = in.getInt();
+            return new FrameOfReference(length, min, Packed.read(in, length));
+        }
+
+        @Override
+        int get(int index) {
+            return (int) (min + offsets.get(index));
+        }
+
+        @Override
+        int bytes() {
+            return bytes(length, offsets.width);
+        }
+
+        @Override
+        void write(ByteBuffer out) {
+            out.put(FRAME_OF_REFERENCE);
+            out.putInt(length);
+            out.putInt(min);
+            offsets.write(out);
+        }
+    }
+
+    /* A segment of items that never decrease, stored as how much each exceeds the one before */
+    private static class Delta extends Segment {
+
+        //Every DELTA_INTERVAL-th item
+        private final int[] whole;
+
+        //The smallest difference between consecutive items
+        private final long minDelta;
+
+        //How much more than minDelta each item is than the one before; 0 for the first
+        private final Packed deltas;
+
+        Delta(int length, int[] whole, long minDelta, Packed deltas) {
+            super(length);
+            this.whole = whole;
+            this.minDelta = minDelta;
+            this.deltas = deltas;
+        }
+
+        static int bytes(int length, int width) {
+            return 13 + 4 * ((length + DELTA_INTERVAL - 1) / DELTA_INTERVAL)
+                    + Packed.bytes(length, width);
+        }
+
+        static Delta encode(int[] items, int start, int length, long minDelta, int width) {
+            int[] whole = new int[(length + DELTA_INTERVAL - 1) / DELTA_INTERVAL];
+            Packed deltas = new Packed(length, width);
+            for (int i = 0; i < length; i++) {
+                if (i % DELTA_INTERVAL == 0) {
+                    whole[i / DELTA_INTERVAL] = items[start + i];
+                }
+                if (i > 0) {
+                    deltas.set(i, (long) items[start + i] - items[start + i - 1] - minDelta);
+                }
+            }
+            return new Delta(length, whole, minDelta, deltas);
+        }
+
+        static Delta read(ByteBuffer in, int length) {
+            long minDelta = in.getLong();
+            if (minDelta < 0) {
+                throw new IllegalArgumentException();
+            }
+            int[] whole = new int[(length + DELTA_INTERVAL - 1) / DELTA_INTERVAL];
+            for (int i = 0; i < whole.length; i++) {
+                whole[i] = in.getInt();
+            }
+            return new Delta(length, whole, minDelta, Packed.read(in, length));
+        }
+
+        @Override
+        int get(int index) {
+            int i = index / DELTA_INTERVAL * DELTA_INTERVAL;
+            long item = whole[index / DELTA_INTERVAL];
+            while (i < index) {
+                i += 1;
+                item += minDelta + deltas.get(i);
+            }
+            return (int) item;
+        }
+
+        @Override
+        IntUnaryOperator reader() {
+            //The index and item read last, which the next item is found from
+            int[] last = new int[]{-1};
+            long[] lastItem = new long[1];
+            return index -> {
+                if (last[0] < 0 || last[0] / DELTA_INTERVAL != index / DELTA_INTERVAL) {
+                    last[0] = index / DELTA_INTERVAL * DELTA_INTERVAL;
+                    lastItem[0] = whole[index / DELTA_INTERVAL];
+                }
+                while (last[0] < index) {
+                    last[0] += 1;
+                    lastItem[0] += minDelta + deltas.get(last[0]);
+                }
+                return (int) lastItem[0];
+            };
+        }
+
+        @Override
+        int bytes() {
+            return bytes(length, deltas.width);
+        }
+
+        @Override
+        void write(ByteBuffer out) {
+            out.put(DELTA);
+            out.putInt(length);
+            out.putLong(minDelta);
+            for (int item : whole) {
+                out.putInt(item);
+            }
+            deltas.write(out);
+        }
+    }
+
+    /* Numbers of at most 32 bits that aren't negative, packed in width bits each */
+    private static class Packed {
+
+        final int width;
+
+        private final long[] words;
+
+        Packed(int length, int width) {
+            this.width = width;
+            words = new long[(int) (((long) length * width + 63) / 64)];
+        }
+
+        static int bytes(int length, int width) {
+            return 1 + (int) (((long) length * width + 63) / 64) * 8;
+        }
+
+        static Packed read(ByteBuffer in, int length) {
+            int width = in.get();
+            if (width < 0 || width > 32) {
+                throw new IllegalArgumentException();
+            }
+            Packed packed = new Packed(length, width);
+            for (int w = 0; w < packed.words.length; w++) {
+                packed.words[w] = in.getLong();
+            }
+            return packed;
+        }
+
+        long get(int index) {
+            if (width == 0) {
+                return 0;
+            }
+            long bit = (long) index * width;
+            int word = (int) (bit >>> 6);
+            int shift = (int) (bit & 63);
+            long value = words[word] >>> shift;
+            if (shift + width > 64) {
+                value |= words[word + 1] << (64 - shift);
+            }
+            return value & ((1L << width) - 1);
+        }
+
+        /* Sets the number at index i, which must not have been set yet */
+        void set(int index, long value) {
+            if (width == 0) {
+                return;
+            }
+            long bit = (long) index * width;
+            int word = (int) (bit >>> 6);
+            int shift = (int) (bit & 63);
+            words[word] |= value << shift;
+            if (shift + width > 64) {
+                words[word + 1] |= value >>> (64 - shift);
+            }
+        }
+
+        void write(ByteBuffer out) {
+            out.put((byte) width);
+            for (long word : words) {
+                out.putLong(word);
+            }
+        }
+    }
+
+    /* Gets the number of bits needed to write a number that isn't negative */
+    private static int bits(long value) {
+        return 64 - Long.numberOfLeadingZeros(value);
+    }
+}
@@ -1,34 +1,99 @@
 package db;
 
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
 /**
  * Created by Joseph on 2/27/2017.
  */
 public class Conditional extends BinaryExpression {
 
-    //String representations of comparison operations
-    private static final String[] validComparators = new String[]{"==", "<", ">", "<=", ">=", "!="};
+    //Codes of the comparison operations, which compiled conditionals switch on
+    private static final int EQ = 0;
+    private static final int LT = 1;
+    private static final int GT = 2;
+    private static final int LE = 3;
+    private static final int GE = 4;
+    private static final int NE = 5;
+
+    //The conditional as an expression tree
+    private final Expression expression;
+
+    /**
+     * Creates a conditional from an expression tree. A comparison of a column to another
+     * column or to a literal is also kept as its operator and the text of its operands,
+     * and compiled with tests specialized for the types of the columns; any other
+     * expression is compiled from its tree.
+     */
+    Conditional(Expression expression) {
+        super(simpleOperator(expression), simpleOperands(expression));
+        this.expression = expression;
+    }
+
+    /* Gets the operator of a comparison of a column to a column or literal; null otherwise */
+    private static String simpleOperator(Expression expression) {
+        if (expression instanceof Expression.Binary) {
+            Expression.Binary binary = (Expression.Binary) expression;
+            if (binary.isComparison() && binary.left instanceof Expression.Name
+                    && (binary.right instanceof Expression.Name
+                    || binary.right instanceof Expression.Literal)) {
+                return binary.operator;
+            }
+        }
+        return null;
+    }
+
+    /* Gets the operands of a comparison of a column to a column or literal, as written */
+    private static String[] simpleOperands(Expression expression) {
+        if (simpleOperator(expression) == null) {
+            return new String[0];
+        }
+        Expression.Binary binary = (Expression.Binary) expression;
+        Expression right = binary.right;
+        return new String[]{((Expression.Name) binary.left).name, right instanceof Expression.Name
+                ? ((Expression.Name) right).name : ((Expression.Literal) right).text};
+    }
+
+    /* Checks if the conditional compares a column to a column or to a literal */
+    boolean isSimple() {
+        return operator != null;
+    }
 
-    /* Conditional constructor */
-    Conditional(String cond) {
-        super(cond, validComparators);
+    /* Gets the names the conditional uses */
+    Set<String> getNames() {
+        Set<String> names = new LinkedHashSet<>();
+        expression.addNames(names);
+        return names;
     }
 
-    //Returns the conditional used to compare
-    @Override
-    protected String evalOperator(String cond, String[] validComparators) {
-        //Checks if cond contains one and only one of the comparators
-        String compareOp = super.evalOperator(cond, validComparators);
-        //Removes possible repetitions
-        compareOp = compareOp.replace("<<", "<");
-        compareOp = compareOp.replace(">>", ">");
-        if (compareOp.length() > 2) {
-            throw new RuntimeException();
+    /* Gets the code of the given comparison operator */
+    static int comparator(String operator) {
+        switch (operator) {
+            case "==":
+                return EQ;
+            case "<":
+                return LT;
+            case ">":
+                return GT;
+            case "<=":
+                return LE;
+            case ">=":
+                return GE;
+            default:
+                return NE;
         }
-        return compareOp;
     }
 
-    /* Comparison method of conditional */
+    /* Comparison method of conditional, for items of differing types */
     boolean compare(Object arg1, Object arg2) {
+        return compare(comparator(operator), arg1, arg2);
+    }
+
+    /* Compares two items of any types with the operator of the given code */
+    static boolean compare(int op, Object arg1, Object arg2) {
         //Checks if either argument is NOVALUE
         if (arg1 instanceof NoValue || arg2 instanceof NoValue) {
             return false;
@@ -39,43 +104,424 @@ public class Conditional extends BinaryExpression {
         arg2String = arg2String.replace("'", "").replace("\"", "");
         try {
             //Since ints are floats we compare using floats
-            float item1 = parseFloat(arg1String);
-            float item2 = parseFloat(arg2String);
-            switch (operator) {
-                case "==":
-                    return item1 == item2;
-                case "<=":
-                    return item1 <= item2;
-                case "<":
-                    return item1 < item2;
-                case ">=":
-                    return item1 >= item2;
-                case ">":
-                    return item1 > item2;
-                default:
-                    return item1 != item2;
-            }
+            return compareFloats(op, parseFloat(arg1String), parseFloat(arg2String));
         } catch (NumberFormatException e) {
             //Otherwise, the args are string, and we use the string comparators
-            switch (operator) {
-                case "==":
-                    return arg1String.equals(arg2String);
-                case "<=":
-                    return arg1String.compareTo(arg2String) <= 0;
-                case "<":
-                    return arg1String.compareTo(arg2String) < 0;
-                case ">=":
-                    return arg1String.compareTo(arg2String) >= 0;
-                case ">":
-                    return arg1String.compareTo(arg2String) > 0;
-                default:
-                    return !arg1String.equals(arg2String);
+            return compareStrings(op, arg1String, arg2String);
+        }
+    }
+
+    /**
+     * Compiles the conditional against the columns of the given table into a test of
+     * whether a row satisfies it. The types of the columns and the literal are looked
+     * at once, and the literal parsed once, so that testing a row only reads its items:
+     *  - numbers are compared as floats, with NaN as the largest float,
+     *  - strings are compared as strings, by their codes for dictionary columns,
+     *  - NOVALUE never satisfies a conditional,
+     *  - other combinations of types compare as their string forms, like compare.
+     */
+    IntPredicate compile(Table table) {
+        if (!isSimple()) {
+            return expression.compile(table).predicate();
+        }
+        int op = comparator(operator);
+        Column col = table.getColumn(getArg1().trim());
+        String arg2 = getArg2();
+
+        if (table.getColumnNames().contains(arg2)) {
+            return compileColumns(op, col, table.getColumn(arg2.trim()));
+        }
+
+        //Every NaN row compares the same way to the literal
+        boolean nanMatches = compare(NaN.INSTANCE, arg2);
+        BitSet noValues = col.noValues;
+        BitSet nans = col.nans;
+        IntPredicate itemMatches;
+        Float number = parseLiteral();
+        if (col.isNumeric() && number != null) {
+            float literal = number;
+            itemMatches = row -> compareFloats(op, col.getFloat(row), literal);
+        } else if (col instanceof DictionaryColumn && number == null) {
+            //Compares the codes of the rows rather than their strings
+            DictionaryColumn dictCol = (DictionaryColumn) col;
+            boolean[] codeMatches = compareDictionary(dictCol, getLiteral());
+            itemMatches = row -> codeMatches[dictCol.getCode(row)];
+        } else if (!col.isNumeric() && number == null) {
+            String literal = getLiteral();
+            itemMatches = row -> compareStrings(op, col.getString(row), literal);
+        } else {
+            //Compares a number to a string literal, or a string to a number literal
+            itemMatches = row -> compare(col.getItem(row), arg2);
+        }
+
+        if (noValues.isEmpty() && nans.isEmpty()) {
+            return itemMatches;
+        }
+        return row -> !noValues.get(row)
+                && (nans.get(row) ? nanMatches : itemMatches.test(row));
+    }
+
+    /**
+     * Clears from the given rows the rows of every row group of the column (see ZoneMap)
+     * whose summary shows that none of its rows satisfies a comparison of the column to
+     * a literal; other conditionals leave the rows as they are
+     */
+    void skipRowGroups(Table table, BitSet rows) {
+        if (!isSimple() || table.getColumnNames().contains(getArg2())) {
+            return;
+        }
+        Column col = table.getColumn(getArg1().trim());
+        Float number = parseLiteral();
+        //A number compared to a string literal, or a string to a number, is not in the map
+        if (col.isNumeric() != (number != null)) {
+            return;
+        }
+        int op = comparator(operator);
+        String literal = getLiteral();
+        boolean nanMatches = compare(NaN.INSTANCE, getArg2());
+        ZoneMap zones = col.zoneMap();
+        int group = rows.isEmpty() ? zones.numGroups() : rows.nextSetBit(0) / ZoneMap.GROUP_ROWS;
+        while (group < zones.numGroups()) {
+            boolean mayMatch = (nanMatches && zones.nanCount(group) > 0)
+                    || (zones.itemCount(group) > 0 && (number != null
+                    ? rangeMayMatch(op, zones.min(group), zones.max(group), number)
+                    : rangeMayMatch(op, zones.minString(group), zones.maxString(group), literal)));
+            int start = group * ZoneMap.GROUP_ROWS;
+            if (!mayMatch) {
+                rows.clear(start, start + ZoneMap.GROUP_ROWS);
+            }
+            //Goes on to the next group with any of the rows
+            int next = rows.nextSetBit(start + ZoneMap.GROUP_ROWS);
+            group = next < 0 ? zones.numGroups() : next / ZoneMap.GROUP_ROWS;
+        }
+    }
+
+    /* Checks if any float from min to max compares to the literal with the given operator */
+    private static boolean rangeMayMatch(int op, float min, float max, float literal) {
+        switch (op) {
+            case EQ:
+                return min <= literal && literal <= max;
+            case NE:
+                return min != literal || max != literal;
+            case LT:
+            case LE:
+                return compareFloats(op, min, literal);
+            default:
+                return compareFloats(op, max, literal);
+        }
+    }
+
+    /* Checks if any string from min to max compares to the literal with the given operator */
+    private static boolean rangeMayMatch(int op, String min, String max, String literal) {
+        switch (op) {
+            case EQ:
+                return min.compareTo(literal) <= 0 && literal.compareTo(max) <= 0;
+            case NE:
+                return !min.equals(literal) || !max.equals(literal);
+            case LT:
+            case LE:
+                return compareStrings(op, min, literal);
+            default:
+                return compareStrings(op, max, literal);
+        }
+    }
+
+    /**
+     * Gets the given rows that satisfy a comparison of a compressed column to a literal,
+     * testing the compressed items of the column (see CompressedInts) rather than every
+     * row, so that a run of equal items is tested once; null for any other conditional.
+     * The rows match exactly as they do for the test compile gives.
+     */
+    BitSet matchCompressed(Table table, BitSet rows) {
+        if (!isSimple() || table.getColumnNames().contains(getArg2())) {
+            return null;
+        }
+        Column col = table.getColumn(getArg1().trim());
+        CompressedInts items = col.compressedItems();
+        if (items == null) {
+            return null;
+        }
+        int op = comparator(operator);
+        Float number = parseLiteral();
+        IntPredicate itemMatches;
+        if (col.isNumeric() && number != null) {
+            float literal = number;
+            itemMatches = item -> compareFloats(op, item, literal);
+        } else if (col instanceof DictionaryColumn && number == null) {
+            boolean[] codeMatches = compareDictionary((DictionaryColumn) col, getLiteral());
+            itemMatches = code -> code >= 0 && codeMatches[code];
+        } else {
+            return null;
+        }
+
+        BitSet matches = items.match(itemMatches, rows);
+        //Rows holding special values are compared as compile compares them
+        if (compare(NaN.INSTANCE, getArg2())) {
+            matches.or(col.nans);
+        } else {
+            matches.andNot(col.nans);
+        }
+        matches.andNot(col.noValues);
+        matches.and(rows);
+        return matches;
+    }
+
+    /**
+     * Gets the given rows where an indexed column equals a literal, looking them up in
+     * the index of the column (see HashIndex) rather than testing every row; null for
+     * any other conditional (see equalItem). The rows match exactly as they do for the
+     * test compile gives.
+     */
+    BitSet matchIndex(Table table, BitSet rows) {
+        if (!isEquality(table)) {
+            return null;
+        }
+        String colName = getArg1().trim();
+        HashIndex index = table.hashIndex(colName);
+        Column col = table.getColumn(colName);
+        Object item = index == null ? null : equalItem(col);
+        if (item == null) {
+            return null;
+        }
+        BitSet matches = index.rowsOf(item);
+        //NaN rows are not indexed, but equal a literal NaN
+        if (compare(NaN.INSTANCE, getArg2())) {
+            matches.or(col.nans);
+        }
+        matches.and(rows);
+        return matches;
+    }
+
+    /**
+     * Gets the bitmap of the rows where a column with a bitmap index (see BitmapIndex)
+     * equals a literal, which the caller must not change; null for any other conditional,
+     * and for a literal that NaN equals, as NaN rows are not in the index
+     */
+    RoaringBitmap matchBitmap(Table table) {
+        if (!isEquality(table) || compare(NaN.INSTANCE, getArg2())) {
+            return null;
+        }
+        String colName = getArg1().trim();
+        BitmapIndex index = table.bitmapIndex(colName);
+        Object item = index == null ? null : equalItem(table.getColumn(colName));
+        return item == null ? null : index.rowsOf(item);
+    }
+
+    /* Checks if the conditional is an equality of a column to a literal */
+    private boolean isEquality(Table table) {
+        return isSimple() && comparator(operator) == EQ
+                && !table.getColumnNames().contains(getArg2());
+    }
+
+    /**
+     * Gets the item that the rows of the column equal to the literal hold, as indexes keep
+     * it: an Integer, a Float or a String. An int column compared to a literal with a
+     * fraction gets the Float, which no row holds. Gets null if the rows are not those
+     * holding a single item: for a number compared to a string or a string to a number,
+     * and for an int column compared to a float too large for a single int to equal it:
+     * from 2^24 on, several ints round to the same float.
+     */
+    private Object equalItem(Column col) {
+        Float number = parseLiteral();
+        if (col.columnType.equals("int") && number != null) {
+            float literal = number;
+            if (Math.abs(literal) >= 1 << 24) {
+                return null;
             }
+            return literal == (int) literal ? (Object) (int) literal : number;
+        } else if (col.columnType.equals("float") && number != null) {
+            return number;
+        } else if (!col.isNumeric() && number == null) {
+            return getLiteral();
+        }
+        return null;
+    }
+
+    /**
+     * Gets the name of the column whose ordered index (see BTreeIndex) answers the
+     * conditional: a column compared to a number, if it is numerical, or to a string
+     * otherwise, by any operator but !=; null for any other conditional
+     */
+    String rangeColumn(Table table) {
+        if (!isSimple() || comparator(operator) == NE
+                || table.getColumnNames().contains(getArg2())) {
+            return null;
+        }
+        String colName = getArg1().trim();
+        if (table.orderedIndex(colName) == null
+                || table.getColumn(colName).isNumeric() != (parseLiteral() != null)) {
+            return null;
+        }
+        return colName;
+    }
+
+    /**
+     * Narrows a range of the items of the column that rangeColumn gives to the items
+     * satisfying the conditional; rows holding NaN stay in it only if NaN satisfies it
+     */
+    void narrowRange(BTreeIndex.KeyRange range) {
+        Float number = parseLiteral();
+        range.narrow(operator, number != null ? number : getLiteral());
+        range.nanMatches &= compare(NaN.INSTANCE, getArg2());
+    }
+
+    /* Compiles a comparison between the items in the same row of two columns */
+    private IntPredicate compileColumns(int op, Column col1, Column col2) {
+        if (col1.isNumeric() && col2.isNumeric()) {
+            //Since ints are floats we compare using floats
+            if (col1.nans.isEmpty() && col2.nans.isEmpty()
+                    && col1.noValues.isEmpty() && col2.noValues.isEmpty()) {
+                return row -> compareFloats(op, col1.getFloat(row), col2.getFloat(row));
+            }
+            return row -> !col1.isNoValue(row) && !col2.isNoValue(row)
+                    && compareFloats(op, floatAt(col1, row), floatAt(col2, row));
+        } else if (!col1.isNumeric() && !col2.isNumeric()) {
+            return row -> !col1.isNoValue(row) && !col2.isNoValue(row)
+                    && compareStringItems(op, stringAt(col1, row), stringAt(col2, row));
+        }
+        return row -> compare(col1.get(row), col2.get(row));
+    }
+
+    /**
+     * Evaluates the comparison with the literal once for each string in the dictionary of
+     * the column; a row then satisfies the conditional when its code maps to true
+     */
+    boolean[] compareDictionary(DictionaryColumn col, String literal) {
+        int n = col.dictionarySize();
+        boolean[] matches = new boolean[n];
+        int literalCode = col.codeOf(literal);
+        switch (operator) {
+            case "==":
+                //Equality only holds for the code of the literal
+                if (literalCode >= 0) {
+                    matches[literalCode] = true;
+                }
+                return matches;
+            case "!=":
+                Arrays.fill(matches, true);
+                if (literalCode >= 0) {
+                    matches[literalCode] = false;
+                }
+                return matches;
+            default:
+                if (col.isSorted()) {
+                    //Codes are ordered like their strings, so the matching codes are
+                    //those on one side of the position of the literal
+                    int pos = col.searchCode(literal);
+                    boolean found = literalCode >= 0;
+                    switch (operator) {
+                        case "<":
+                            Arrays.fill(matches, 0, pos, true);
+                            break;
+                        case "<=":
+                            Arrays.fill(matches, 0, found ? pos + 1 : pos, true);
+                            break;
+                        case ">":
+                            Arrays.fill(matches, found ? pos + 1 : pos, n, true);
+                            break;
+                        default:
+                            Arrays.fill(matches, pos, n, true);
+                    }
+                } else {
+                    for (int code = 0; code < n; code++) {
+                        matches[code] = compareStrings(comparator(operator), col.decode(code),
+                                literal);
+                    }
+                }
+                return matches;
+        }
+    }
+
+    /* Gets the second argument as a literal with its surrounding quotes removed */
+    private String getLiteral() {
+        return getArg2().replace("'", "").replace("\"", "");
+    }
+
+    /* Parses the literal second argument as a float; null if it is not a number */
+    private Float parseLiteral() {
+        try {
+            return parseFloat(getLiteral());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /* Gets the item at the given row of a numerical column, where NaN is the largest float */
+    private static float floatAt(Column col, int row) {
+        if (col.isNaN(row)) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return col.getFloat(row);
+    }
+
+    /* Gets the item at the given row of a string column */
+    private static String stringAt(Column col, int row) {
+        if (col.isNaN(row)) {
+            return NaN.INSTANCE.toString();
+        }
+        return col.getString(row);
+    }
+
+    /**
+     * Compares two strings of string columns; strings that are both numbers, such as
+     * 'NaN' and 'Infinity', compare as floats like they do in compare
+     */
+    static boolean compareStringItems(int op, String item1, String item2) {
+        if (mayBeNumber(item1) && mayBeNumber(item2)) {
+            return compare(op, item1, item2);
+        }
+        return compareStrings(op, item1, item2);
+    }
+
+    /* Checks if a string starts like a number does, so that it may parse as a float */
+    private static boolean mayBeNumber(String str) {
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c > ' ') {
+                return "+-.0123456789NI".indexOf(c) >= 0;
+            }
+        }
+        return false;
+    }
+
+    /* Compares two floats with the operator of the given code */
+    static boolean compareFloats(int op, float item1, float item2) {
+        switch (op) {
+            case EQ:
+                return item1 == item2;
+            case LE:
+                return item1 <= item2;
+            case LT:
+                return item1 < item2;
+            case GE:
+                return item1 >= item2;
+            case GT:
+                return item1 > item2;
+            default:
+                return item1 != item2;
+        }
+    }
+
+    /* Compares two strings with the operator of the given code */
+    private static boolean compareStrings(int op, String arg1String, String arg2String) {
+        switch (op) {
+            case EQ:
+                return arg1String.equals(arg2String);
+            case LE:
+                return arg1String.compareTo(arg2String) <= 0;
+            case LT:
+                return arg1String.compareTo(arg2String) < 0;
+            case GE:
+                return arg1String.compareTo(arg2String) >= 0;
+            case GT:
+                return arg1String.compareTo(arg2String) > 0;
+            default:
+                return !arg1String.equals(arg2String);
         }
     }
 
     /* Parses string into float, including case of NaN */
-    private float parseFloat(String str) {
+    private static float parseFloat(String str) {
         if (str.equals("NaN")) {
             return Float.POSITIVE_INFINITY;
         }
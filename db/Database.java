@@ -1,17 +1,14 @@
 package db;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.FileNotFoundException;
-import java.io.PrintWriter;
 import java.io.IOException;
+import java.nio.file.NoSuchFileException;
 
 import java.util.Map;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
 
 public class Database {
 
@@ -19,92 +16,72 @@ public class Database {
     //is its name as a string
     private Map<String, Table> tables;
 
+    //The pool of threads that large queries are run in parallel on
+    private ForkJoinPool pool;
+
+    //The statements of recent queries, which are run again without parsing them again
+    private StatementCache statements;
+
+    private static final String ERROR = "ERROR: There was an error in executing your command.";
+
     /**
-     * Public constructor for database
+     * Public constructor for database; runs queries on as many threads as there are
+     * available processors
      */
     public Database() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Public constructor for database that runs queries on at most the given number
+     * of threads
+     */
+    public Database(int parallelism) {
         tables = new HashMap<>();
+        pool = new ForkJoinPool(Math.max(parallelism, 1));
+        statements = new StatementCache(StatementCache.DEFAULT_CAPACITY);
     }
 
     public String transact(String query) {
         try {
-            //The list returned from evaluating query using Parser class
-            List<String> stringArgs = Parser.eval(query);
-            //Gets the command
-            String command = stringArgs.get(0);
-            //Gets table name
-            String tableName = stringArgs.get(1);
-            //Checks that the table name starts with a letter
-            char firstChar = tableName.charAt(0);
-            if (!Character.isLetter(firstChar)) {
-                return "ERROR: Invalid name; make sure names begin with a letter";
-            }
-
-            switch (command) {
-                case "create new table":
-                    List<String> colInfo = new LinkedList<>();
-                    //Gets length of the list string args from query
-                    int stringArgsLength = stringArgs.size();
-                    //Starts at 2nd index of stringArgs in order to iterate
-                    // through the column data
-                    for (int i = 2; i < stringArgsLength; i++) {
-                        String[] colSplit = stringArgs.get(i).split(" ");
-                        //If formatted correctly, first and last items should be
-                        // column name and type,
-                        //ignore whitespace in the middle
-                        colInfo.add(colSplit[0]);
-                        colInfo.add(colSplit[colSplit.length - 1]);
-                    }
-                    return createNewTable(tableName, colInfo);
-
-                case "create selected table":
-                    //Uses select table to create this selected table
-                    Table selectedCreateTable = selectedTable(stringArgs);
-                    //Puts resulting table into database
-                    tables.put(tableName, selectedCreateTable);
-                    return "";
-
-                case "select":
-                    //Puts selected columns into a table
-                    Table selectedTable = selectedTable(stringArgs);
-                    return selectedTable.print();
-
-                case "insert":
-                    List<String> rowVals = new LinkedList<>();
-                    //Gets length of the list string args from query
-                    int lengthStringArgs = stringArgs.size();
-                    for (int i = 2; i < lengthStringArgs; i++) {
-                        rowVals.add(stringArgs.get(i).trim());
-                    }
-                    return insertRow(tableName, rowVals);
-
-                case "store":
-                    if (tables.containsKey(tableName)) {
-                        return store(tableName);
-                    } else {
-                        return "ERROR: No table " + tableName + " found in database";
-                    }
-
-                case "load":
-                    return load(tableName);
-
-                case "print":
-                    //Prints the table
-                    return printTable(tableName);
-
-                case "drop":
-                    return dropTable(tableName);
-
-                case "tables":
-                    return printSchemas();
+            //The statement parsed from the query, or parsed before and cached
+            Statement statement = statements.get(query);
+            return run(statement, new Object[0]);
+        } catch (RuntimeException e) {
+            return ERROR;
+        }
+    }
 
-                default:
-                    return "ERROR: Malformed command";
+    /**
+     * Parses a statement once, to run any number of times with the parameters its "?"
+     * placeholders stand for; throws a RuntimeException if it is malformed
+     */
+    public PreparedStatement prepare(String query) {
+        return new PreparedStatement(this, statements.get(query));
+    }
 
-            }
+    /* Runs a parsed statement with the given parameters */
+    String execute(Statement statement, Object[] parameters) {
+        try {
+            return run(statement, parameters);
         } catch (RuntimeException e) {
-            return "ERROR: There was an error in executing your command.";
+            return ERROR;
+        }
+    }
+
+    private String run(Statement statement, Object[] parameters) {
+        if (parameters.length != statement.parameterCount) {
+            return "ERROR: Expected " + statement.parameterCount + " parameters but was given "
+                    + parameters.length;
+        } else if (parameters.length > 0) {
+            statement = statement.bind(parameters);
+        }
+        //Checks that the table name starts with a letter
+        String tableName = statement.tableName;
+        if (tableName != null && !Character.isLetter(tableName.charAt(0))) {
+            return "ERROR: Invalid name; make sure names begin with a letter";
         }
+        return statement.execute(this);
     }
 
     /**
@@ -113,7 +90,7 @@ public class Database {
      * ordered such that even-indexed items are the column names, and odd-indexed
      * items are the corresponding column types.
      */
-    private String createNewTable(String tableName, List<String> columnInfo) {
+    String createNewTable(String tableName, List<String> columnInfo) {
         if (columnInfo.isEmpty()) {
             return "ERROR: table must have at least one column";
         }
@@ -126,100 +103,86 @@ public class Database {
         return "";
     }
 
-    /**
-     * Extracts column and table data from a select clause and puts it into a table; performs join
-     * and evaluates column expressions
-     */
-    private Table selectedTable(List<String> stringArgs) {
-        //Gets table names in a string
-        String tableNameString = stringArgs.get(3).trim();
-        //Splits by commas to get individual table names
-        String[] tableNames = tableNameString.split(",");
-        //Checks if table names are in database
-        for (int i = 0; i < tableNames.length; i++) {
-            tableNames[i] = tableNames[i].trim();
-            String name = tableNames[i];
-            if (!tables.containsKey(name)) {
-                System.out.println("No table " + name + " found in database");
-            }
+    /* Creates a table of the rows and columns a select statement selects */
+    String createSelectedTable(String tableName, Statement.Select select) {
+        //Puts resulting table into database, keeping only its selected rows
+        Table selectedTable = selectedTable(select);
+        Table createdTable = selectedTable.materialize();
+        if (createdTable != selectedTable) {
+            selectedTable.release();
         }
-
-        String firstTableName = tableNames[0];
-        //Uses copies of the tables to join
-        Table selectedTable = tables.get(firstTableName).copy();
-        for (int i = 1; i < tableNames.length; i++) {
-            selectedTable = selectedTable.join(tables.get(tableNames[i]).copy());
-        }
-        //Gets the column expressions, removes whitespace
-        String columnExpressionsString = stringArgs.get(2).trim();
-        String[] colExpressionsArr = columnExpressionsString.split(",");
-
-        // If there is an aggregation, evaluate it
-        if (colExpressionsArr[0].matches("[a-z]+\\((([a-z]+)|\\*)\\)")) {
-            // Get aggregation info
-            String[] agg_expr = colExpressionsArr[0].split("\\(");
-            String agg_func = agg_expr[0];
-            String agg_colname = agg_expr[1].replace(")", "");
-            //First, filter out any rows
-            selectedTable = filter(stringArgs, selectedTable);
-            return selectedTable.aggregate(agg_func, agg_colname);
+        //The table it replaces gives up its shares of the storage of other tables
+        Table replacedTable = tables.put(tableName, createdTable);
+        if (replacedTable != null) {
+            replacedTable.dropIndexes();
+            replacedTable.release();
         }
+        return "";
+    }
 
-        // If specific columns are selected, applies the column expressions to the table and
-        // stores the resulting table; otherwise select all
-        if (colExpressionsArr.length > 1 || !colExpressionsArr[0].equals("*")) {
-            selectedTable = selectedTable.selectColumns(colExpressionsArr);
-        } else {
-            selectedTable = selectedTable.copy();
-        }
+    /* Prints the rows and columns a select statement selects */
+    String select(Statement.Select select) {
+        Table selectedTable = selectedTable(select);
+        String printedTable = selectedTable.print();
+        selectedTable.release();
+        return printedTable;
+    }
 
-        selectedTable = filter(stringArgs, selectedTable);
-        return selectedTable;
+    /**
+     * Puts the columns a select statement selects into a table; plans where to filter
+     * and which columns to keep, then performs join and evaluates column expressions
+     */
+    private Table selectedTable(Statement.Select select) {
+        SelectPlan plan = new SelectPlan(tables, select);
+        return plan.execute(tables, pool);
     }
 
-    private Table filter(List<String> stringArgs, Table tb) {
-        //Gets the conditional expressions, separates by " and "
-        String conditionalExprsString = stringArgs.get(4);
-        if (conditionalExprsString == null) {
-            return tb;
+    /**
+     * Creates an index of the given kind and name of a column of the table, a hash,
+     * btree or bitmap index; names of indexes are unique across the tables of the database
+     */
+    String createIndex(String indexName, String tableName, String colName, String kind) {
+        if (!tables.containsKey(tableName)) {
+            return "ERROR: No table " + tableName + " in database";
         }
-        conditionalExprsString = conditionalExprsString.trim();
-        String[] condExprs = conditionalExprsString.split("and");
-
-        //Adds each conditional to a list
-        List<Conditional> conditionals = new ArrayList<>();
-        for (String cond : condExprs) {
-            conditionals.add(new Conditional(cond));
+        for (Table table : tables.values()) {
+            if (table.indexNames().contains(indexName)) {
+                return "ERROR: Already an index " + indexName + " in database";
+            }
         }
-        //Tests conditions on selected table and gets indices of rows to remove
-        tb.removeRowsConditions(conditionals);
-
-        return tb;
+        if (!tables.get(tableName).getColumnNames().contains(colName)) {
+            return "ERROR: No column " + colName + " in table " + tableName;
+        }
+        if (!kind.equals("hash") && !kind.equals("btree") && !kind.equals("bitmap")) {
+            return "ERROR: Unknown kind of index " + kind;
+        }
+        tables.get(tableName).createIndex(indexName, colName, kind);
+        return "";
     }
 
-
     /**
-     * Drops the table by removing its key from tables
+     * Drops the table by removing its key from tables, along with its indexes
      */
-    private String dropTable(String tableName) {
+    String dropTable(String tableName) {
         if (tables.containsKey(tableName)) {
-            tables.remove(tableName);
+            Table droppedTable = tables.remove(tableName);
+            droppedTable.dropIndexes();
+            droppedTable.release();
             return "";
         }
         return "ERROR: No table " + tableName + " in database";
     }
 
     /**
-     * Stores the contents of the table into the file <table name>.tbl
+     * Stores the contents of the table into the file <table name>.tbl, streaming its
+     * rows to the file as text, or as binary columns (see TableWriter)
      */
-    private String store(String tableName) {
+    String store(String tableName, boolean binary) {
+        if (!tables.containsKey(tableName)) {
+            return "ERROR: No table " + tableName + " found in database";
+        }
         try {
-            PrintWriter writer = new PrintWriter(tableName + ".tbl", "UTF-8");
-            String printedTable = printTable(tableName);
-            for (String s : printedTable.split("\n")) {
-                writer.println(s);
-            }
-            writer.close();
+            tables.get(tableName).store(tableName + ".tbl", binary);
         } catch (IOException e) {
             System.out.println("ERROR: There was an error in storing this table");
             throw new RuntimeException();
@@ -229,42 +192,26 @@ public class Database {
 
     /**
      * Loads the contents of <table name>.tbl file into memory as a table with
-     * name <table name>. Takes string of
+     * name <table name>, parsing large files in parallel (see TableLoader)
      */
-    private String load(String tableName) {
-        try (BufferedReader br = new BufferedReader(new FileReader(tableName + ".tbl"))) {
-
-            //This string contains column information
-            String line = br.readLine();
-            String[] colInfoString = line.split(",");
-            List<String> colInfoList = new ArrayList<>();
-            for (String colInfo : colInfoString) {
-                String[] colInfoSplit = colInfo.trim().split(" ");
-                colInfoList.add(colInfoSplit[0]);
-                colInfoList.add(colInfoSplit[colInfoSplit.length - 1]);
-            }
-            //Creates a new table in database with table name and column info given in colInfoList
-            Table loadedTable = Table.getColumnInfo(colInfoList);
-
-            //Read next lines, which are the rows
-            line = br.readLine();
-            while (line != null) {
-                if (line.equals("") && colInfoList.size() > 2) {
-                    throw new RuntimeException();
-                }
-                String[] rowInfoString = line.split(",");
-                List<String> rowInfo = new ArrayList<>();
-                Collections.addAll(rowInfo, rowInfoString);
-                loadedTable.addRow(rowInfo);
-                line = br.readLine();
-            }
+    String load(String tableName) {
+        try {
+            Table loadedTable = TableLoader.load(tableName + ".tbl", pool);
+            //Dictionary encodes string columns with repetitive items
+            loadedTable.encodeStrings();
+            //Compresses int columns and codes, unless they were read compressed or are mapped
+            loadedTable.compress();
             tableName = tableName.trim();
             String[] path = tableName.split("/");
             //The table name in database should be the last in this path
             tableName = path[path.length - 1];
-            tables.put(tableName, loadedTable);
+            Table replacedTable = tables.put(tableName, loadedTable);
+            if (replacedTable != null) {
+                replacedTable.dropIndexes();
+                replacedTable.release();
+            }
             return "";
-        } catch (FileNotFoundException e) {
+        } catch (FileNotFoundException | NoSuchFileException e) {
             System.out.println("ERROR: No table " + tableName + " found");
             throw new RuntimeException();
         } catch (IOException e) {
@@ -274,7 +221,7 @@ public class Database {
     }
 
     /* Prints the table */
-    private String printTable(String tableName) {
+    String printTable(String tableName) {
         if (!tables.containsKey(tableName)) {
             return "ERROR: No table " + tableName + " found in database";
         }
@@ -283,18 +230,36 @@ public class Database {
         return t.print();
     }
 
-    /* Inserts a row into the table */
-    private String insertRow(String tableName, List<String> rowInfo) {
+    /* Inserts rows into the table; no row is inserted if any is malformed */
+    String insertRows(String tableName, List<List<String>> rows) {
         if (tables.containsKey(tableName)) {
             Table table = tables.get(tableName);
-            table.addRow(rowInfo);
+            table.addRows(rows);
             return "";
         }
         return "ERROR: No table " + tableName + " in database";
     }
 
+    /**
+     * Inserts rows into the table, given as arrays with an item for each column: an
+     * Integer, Float (or Double) or String for the column type, or null for NOVALUE.
+     * The rows are checked and added in batches, a column at a time, without parsing
+     * any item. If an item is of the wrong type, the rows of earlier batches stay added.
+     */
+    public String bulkInsert(String tableName, Iterator<Object[]> rows) {
+        if (!tables.containsKey(tableName)) {
+            return "ERROR: No table " + tableName + " in database";
+        }
+        try {
+            tables.get(tableName).addRows(rows);
+            return "";
+        } catch (RuntimeException e) {
+            return ERROR;
+        }
+    }
+
     /* Prints all table schemas in the database */
-    private String printSchemas() {
+    String printSchemas() {
         StringBuilder stringBuilder = new StringBuilder();
         for (String tableName : tables.keySet()) {
             Table table = tables.get(tableName);
@@ -0,0 +1,381 @@
+package db;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A dictionary-encoded column of strings. Each distinct string is kept once in the
+ * dictionary, and every row holds the int code of its string in the dictionary.
+ * Rows holding NOVALUE or NaN keep the code -1.
+ *
+ * A column encoded from existing strings has its dictionary sorted, so codes compare
+ * in the same order as their strings. Strings added afterwards that are not yet in
+ * the dictionary are appended to its end, after which the codes are no longer ordered.
+ *
+ * Like the items of an IntColumn, the codes of a column that isn't changed may be kept
+ * compressed, or read from the file the column was opened from.
+ *
+ * The columns copied or gathered from a column share its dictionary, which is only
+ * copied once a column adds a string that is not in it yet (copy-on-write, see
+ * RefCount); each column holds its share of the dictionary until it is released.
+ */
+class DictionaryColumn extends Column {
+
+    //Encode string columns with at most this fraction of distinct items
+    static final double MAX_DISTINCT_RATIO = 0.5;
+
+    //The code of each row; only the first size slots are in use
+    private int[] codes;
+
+    //The codes of a column opened from a binary file, read from the file as they are
+    //used; null otherwise. They are copied into codes before the column is changed.
+    private IntBuffer mapped;
+
+    //The codes of a column that has been compressed; null otherwise
+    private CompressedInts compressed;
+
+    //The distinct strings of the column, indexed by code
+    private List<String> dictionary;
+
+    //The code of each string in the dictionary
+    private Map<String, Integer> codeOf;
+
+    //Counts the columns sharing the dictionary and the codes of its strings
+    private RefCount dictionaryRefCount = new RefCount();
+
+    //Whether the codes are in the same order as their strings
+    private boolean sorted;
+
+    DictionaryColumn(String columnName) {
+        super(columnName, "string");
+        codes = new int[INITIAL_CAPACITY];
+        dictionary = new ArrayList<>();
+        codeOf = new HashMap<>();
+        sorted = true;
+    }
+
+    /* Creates a column of the given number of rows with the given dictionary, read from a binary file */
+    DictionaryColumn(String columnName, IntBuffer mapped, int size, List<String> dictionary,
+                     boolean sorted) {
+        this(columnName, size, dictionary, sorted);
+        this.mapped = mapped;
+    }
+
+    /* Creates a column of compressed codes with the given dictionary */
+    DictionaryColumn(String columnName, CompressedInts compressed, List<String> dictionary,
+                     boolean sorted) {
+        this(columnName, compressed.size(), dictionary, sorted);
+        this.compressed = compressed;
+    }
+
+    private DictionaryColumn(String columnName, int size, List<String> dictionary,
+                             boolean sorted) {
+        super(columnName, "string");
+        this.size = size;
+        this.dictionary = dictionary;
+        codeOf = new HashMap<>();
+        for (int code = 0; code < dictionary.size(); code++) {
+            codeOf.put(dictionary.get(code), code);
+        }
+        this.sorted = sorted;
+    }
+
+    /**
+     * Encodes the given string column if it has few enough distinct items; otherwise
+     * returns the column as it is.
+     */
+    static Column encode(Column col) {
+        if (col instanceof DictionaryColumn || col.isNumeric()) {
+            return col;
+        }
+        int rows = col.size();
+        TreeSet<String> distinct = new TreeSet<>();
+        for (int i = 0; i < rows; i++) {
+            if (!col.isNoValue(i) && !col.isNaN(i)) {
+                distinct.add(col.getString(i));
+            }
+        }
+        if (rows == 0 || distinct.size() > rows * MAX_DISTINCT_RATIO) {
+            return col;
+        }
+        //Adds the distinct strings in sorted order, so that codes are ordered
+        DictionaryColumn encodedCol = new DictionaryColumn(col.columnName);
+        for (String s : distinct) {
+            encodedCol.codeOf.put(s, encodedCol.dictionary.size());
+            encodedCol.dictionary.add(s);
+        }
+        encodedCol.reserve(rows);
+        for (int i = 0; i < rows; i++) {
+            if (col.isNoValue(i)) {
+                encodedCol.addNoValue();
+            } else if (col.isNaN(i)) {
+                encodedCol.addNaN();
+            } else {
+                encodedCol.addString(col.getString(i));
+            }
+        }
+        return encodedCol;
+    }
+
+    @Override
+    Column empty() {
+        //Shares the dictionary, so that the codes of the new column stay ordered and
+        //codes are copied between the columns as they are
+        DictionaryColumn emptyCol = new DictionaryColumn(columnName);
+        dictionaryRefCount.retain();
+        emptyCol.dictionary = dictionary;
+        emptyCol.codeOf = codeOf;
+        emptyCol.dictionaryRefCount = dictionaryRefCount;
+        emptyCol.sorted = sorted;
+        return emptyCol;
+    }
+
+    @Override
+    void appendItem(Column src, int row) {
+        addString(src.getString(row));
+    }
+
+    @Override
+    void appendAll(Column src) {
+        DictionaryColumn srcCol = src instanceof DictionaryColumn ? (DictionaryColumn) src : null;
+        if (srcCol == null || srcCol.dictionary != dictionary) {
+            super.appendAll(src);
+            return;
+        }
+        //The columns share the dictionary, so the codes are copied as they are
+        int offset = size;
+        reserve(size + src.size);
+        for (int row = 0; row < src.size; row++) {
+            codes[offset + row] = srcCol.getCode(row);
+        }
+        size += src.size;
+        sorted &= srcCol.sorted;
+        appendSpecials(src, offset);
+    }
+
+    @Override
+    Column gather(BitSet rows) {
+        //The gathered column keeps the dictionary, so codes are copied directly
+        DictionaryColumn gatheredCol = (DictionaryColumn) empty();
+        gatheredCol.reserve(rows.cardinality());
+        for (int i = rows.nextSetBit(0); i >= 0; i = rows.nextSetBit(i + 1)) {
+            if (isNoValue(i)) {
+                gatheredCol.addNoValue();
+            } else if (isNaN(i)) {
+                gatheredCol.addNaN();
+            } else {
+                gatheredCol.addCode(getCode(i));
+            }
+        }
+        return gatheredCol;
+    }
+
+    @Override
+    void unshare() {
+        if (codes != null) {
+            codes = Arrays.copyOf(codes, codes.length);
+        }
+    }
+
+    @Override
+    Column copy() {
+        //The copy shares the dictionary along with the storage
+        dictionaryRefCount.retain();
+        return super.copy();
+    }
+
+    @Override
+    void release() {
+        super.release();
+        dictionaryRefCount.release();
+    }
+
+    @Override
+    Column gather(int[] rows) {
+        DictionaryColumn gatheredCol = (DictionaryColumn) empty();
+        gatheredCol.reserve(rows.length);
+        for (int row : rows) {
+            if (isNoValue(row)) {
+                gatheredCol.addNoValue();
+            } else if (isNaN(row)) {
+                gatheredCol.addNaN();
+            } else {
+                gatheredCol.addCode(getCode(row));
+            }
+        }
+        return gatheredCol;
+    }
+
+    @Override
+    void reserve(int capacity) {
+        beforeWrite();
+        if (codes == null) {
+            //Copies the codes out of the file, or decompresses them, before the column changes
+            codes = new int[Math.max(capacity, size)];
+            if (mapped != null) {
+                mapped.duplicate().get(codes, 0, size);
+            } else {
+                compressed.decode(codes, 0);
+            }
+            mapped = null;
+            compressed = null;
+        } else if (capacity > codes.length) {
+            codes = Arrays.copyOf(codes, Math.max(capacity, codes.length * 2));
+        }
+    }
+
+    @Override
+    void addDefault() {
+        addCode(-1);
+    }
+
+    @Override
+    void addString(String item) {
+        //Makes sure the dictionary isn't shared before adding to it
+        reserve(size + 1);
+        Integer code = codeOf.get(item);
+        if (code == null) {
+            if (dictionaryRefCount.isShared()) {
+                dictionaryRefCount.release();
+                dictionaryRefCount = new RefCount();
+                dictionary = new ArrayList<>(dictionary);
+                codeOf = new HashMap<>(codeOf);
+            }
+            code = dictionary.size();
+            //A new string goes at the end of the dictionary, so codes may lose their order
+            if (code > 0 && dictionary.get(code - 1).compareTo(item) > 0) {
+                sorted = false;
+            }
+            codeOf.put(item, code);
+            dictionary.add(item);
+        }
+        addCode(code);
+    }
+
+    /* Adds a row holding the given code */
+    private void addCode(int code) {
+        reserve(size + 1);
+        codes[size] = code;
+        size += 1;
+    }
+
+    @Override
+    Object getItem(int index) {
+        return dictionary.get(getCode(index));
+    }
+
+    @Override
+    void addItem(Object o) {
+        addString((String) o);
+    }
+
+    @Override
+    String formatItem(int index) {
+        return "'" + dictionary.get(getCode(index)) + "'";
+    }
+
+    @Override
+    String getString(int index) {
+        int code = getCode(index);
+        if (code < 0) {
+            return "";
+        }
+        return dictionary.get(code);
+    }
+
+    /* Gets the code of the item at index i; -1 for special values */
+    int getCode(int index) {
+        if (codes != null) {
+            return codes[index];
+        }
+        return mapped != null ? mapped.get(index) : compressed.get(index);
+    }
+
+    @Override
+    void compress() {
+        if (codes == null) {
+            return;
+        }
+        CompressedInts compressedCodes = CompressedInts.encode(codes, size);
+        if (compressedCodes.isWorthwhile()) {
+            compressed = compressedCodes;
+            codes = null;
+        }
+    }
+
+    @Override
+    CompressedInts compressedItems() {
+        return compressed;
+    }
+
+    /* Gets the code of the given string; -1 if the string is not in the dictionary */
+    int codeOf(String item) {
+        Integer code = codeOf.get(item);
+        if (code == null) {
+            return -1;
+        }
+        return code;
+    }
+
+    /* Checks whether codes compare in the same order as their strings */
+    boolean isSorted() {
+        return sorted;
+    }
+
+    /**
+     * Gets the position at which the given string is or would be in the sorted
+     * dictionary; only meaningful while the codes are sorted
+     */
+    int searchCode(String item) {
+        int low = 0;
+        int high = dictionary.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = dictionary.get(mid).compareTo(item);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return low;
+    }
+
+    /* Gets the number of distinct strings in the column */
+    int dictionarySize() {
+        return dictionary.size();
+    }
+
+    @Override
+    int distinctEstimate() {
+        //Every string in the dictionary was added to the column, so the count is exact
+        //unless rows were dropped since, as when gathering
+        return Math.min(size, dictionarySize() + (noValues.isEmpty() ? 0 : 1)
+                + (nans.isEmpty() ? 0 : 1));
+    }
+
+    /* Gets the string with the given code */
+    String decode(int code) {
+        return dictionary.get(code);
+    }
+
+    /**
+     * Maps each code of the other column's dictionary to the code of the same string
+     * in this column's dictionary, or -1 if this column doesn't have the string
+     */
+    int[] translate(DictionaryColumn other) {
+        int[] translation = new int[other.dictionary.size()];
+        for (int code = 0; code < translation.length; code++) {
+            translation[code] = codeOf(other.dictionary.get(code));
+        }
+        return translation;
+    }
+}
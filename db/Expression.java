@@ -0,0 +1,212 @@
+package db;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An expression tree over the columns of a table: names of columns, literals, and
+ * arithmetic, comparison and logical operators applied to other expressions. A tree
+ * is compiled against the columns of a table into closures evaluating it for a row.
+ */
+abstract class Expression {
+
+    /* Adds the names used by the expression to the given set */
+    abstract void addNames(Set<String> names);
+
+    /* Compiles the expression against the columns of the table */
+    abstract CompiledExpression compile(Table table);
+
+    /* Gets the expression with its parameter placeholders replaced by the given values */
+    Expression bind(Object[] parameters) {
+        return this;
+    }
+
+    /* Splits the expression into the expressions joined by its outermost "and"s */
+    List<Expression> conjuncts() {
+        List<Expression> conjuncts = new ArrayList<>();
+        conjuncts.add(this);
+        return conjuncts;
+    }
+
+    /* Checks if a name stands for a special value, when no column has the name */
+    static boolean isSpecialValue(String name) {
+        return name.equals("NaN") || name.equals("NOVALUE");
+    }
+
+    /* The name of a column */
+    static class Name extends Expression {
+        final String name;
+
+        Name(String name) {
+            this.name = name;
+        }
+
+        @Override
+        void addNames(Set<String> names) {
+            names.add(name);
+        }
+
+        @Override
+        CompiledExpression compile(Table table) {
+            if (!table.getColumnNames().contains(name) && isSpecialValue(name)) {
+                return CompiledExpression.special(name);
+            }
+            return CompiledExpression.column(table.getColumn(name));
+        }
+    }
+
+    /* A number or a quoted string, kept as written */
+    static class Literal extends Expression {
+        final String text;
+
+        Literal(String text) {
+            this.text = text;
+        }
+
+        @Override
+        void addNames(Set<String> names) {
+        }
+
+        @Override
+        CompiledExpression compile(Table table) {
+            //Quoted literals are strings, and numbers with a decimal point floats
+            if (text.startsWith("'") || text.startsWith("\"")) {
+                return CompiledExpression.constant(text.replace("'", "").replace("\"", ""));
+            } else if (text.contains(".")) {
+                return CompiledExpression.constant(Float.parseFloat(text));
+            }
+            return CompiledExpression.constant(Integer.parseInt(text));
+        }
+    }
+
+    /**
+     * A placeholder for the parameter with the given index, which is replaced by the
+     * value of the parameter before the expression is compiled
+     */
+    static class Parameter extends Expression {
+        final int index;
+
+        Parameter(int index) {
+            this.index = index;
+        }
+
+        /**
+         * Gets the item a value stands for, as it would be written in a statement: null
+         * stands for NOVALUE, and strings are quoted
+         */
+        static String itemText(Object value) {
+            if (value == null) {
+                return "NOVALUE";
+            } else if (value instanceof String) {
+                String s = (String) value;
+                if (s.contains("'") || s.contains("\"")) {
+                    throw new RuntimeException("Strings cannot contain quotes: " + s);
+                }
+                return "'" + s + "'";
+            } else if (value instanceof Float || value instanceof Double) {
+                double d = ((Number) value).doubleValue();
+                if (Double.isNaN(d)) {
+                    return "NaN";
+                } else if (Double.isInfinite(d)) {
+                    throw new RuntimeException("Floats must be finite: " + d);
+                }
+                //Written with a decimal point and without an exponent, which marks it a float
+                String text = new BigDecimal(Float.toString((float) d)).toPlainString();
+                return text.contains(".") ? text : text + ".0";
+            } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                return value.toString();
+            }
+            throw new RuntimeException("Parameters must be ints, floats or strings: " + value);
+        }
+
+        @Override
+        Expression bind(Object[] parameters) {
+            String text = itemText(parameters[index]);
+            return isSpecialValue(text) ? new Name(text) : new Literal(text);
+        }
+
+        @Override
+        void addNames(Set<String> names) {
+        }
+
+        @Override
+        CompiledExpression compile(Table table) {
+            throw new RuntimeException("No value bound to parameter " + (index + 1));
+        }
+    }
+
+    /* An operator applied to two expressions */
+    static class Binary extends Expression {
+        final String operator;
+        final Expression left;
+        final Expression right;
+
+        Binary(String operator, Expression left, Expression right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        /* Checks if the operator is one of the comparison operators */
+        boolean isComparison() {
+            switch (operator) {
+                case "==":
+                case "!=":
+                case "<":
+                case ">":
+                case "<=":
+                case ">=":
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        @Override
+        void addNames(Set<String> names) {
+            left.addNames(names);
+            right.addNames(names);
+        }
+
+        @Override
+        Expression bind(Object[] parameters) {
+            Expression boundLeft = left.bind(parameters);
+            Expression boundRight = right.bind(parameters);
+            if (boundLeft == left && boundRight == right) {
+                return this;
+            }
+            return new Binary(operator, boundLeft, boundRight);
+        }
+
+        @Override
+        List<Expression> conjuncts() {
+            if (!operator.equals("and")) {
+                return super.conjuncts();
+            }
+            List<Expression> conjuncts = left.conjuncts();
+            conjuncts.addAll(right.conjuncts());
+            return conjuncts;
+        }
+
+        @Override
+        CompiledExpression compile(Table table) {
+            CompiledExpression compiledLeft = left.compile(table);
+            CompiledExpression compiledRight = right.compile(table);
+            switch (operator) {
+                case "and":
+                case "or":
+                    return CompiledExpression.logical(operator, compiledLeft, compiledRight);
+                case "+":
+                case "-":
+                case "*":
+                case "/":
+                    return CompiledExpression.arithmetic(operator.charAt(0),
+                            compiledLeft, compiledRight);
+                default:
+                    return CompiledExpression.comparison(operator, compiledLeft, compiledRight);
+            }
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package db;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Evaluates a binary column expression over a batch of rows at a time. The operands of
+ * the rows of a batch are read into primitive arrays, the operator is applied to them
+ * in a tight loop for the result type, which is decided before any row is evaluated,
+ * and the results are added to the new column together.
+ *
+ * As when evaluating row by row:
+ *  - a NaN operand gives NaN, and so does dividing by zero,
+ *  - two NOVALUE operands give NOVALUE, and a single one acts as 0 or the empty string.
+ */
+class ExpressionBatch {
+
+    //Number of rows evaluated together
+    static final int SIZE = 1024;
+
+    //What each row of the batch evaluates to besides an item
+    private static final byte ITEM = 0;
+
+    private static final byte NAN = 1;
+
+    private static final byte NOVALUE = 2;
+
+    //The type of the result, and the operator applied
+    private final String type;
+
+    private final char op;
+
+    //The ids of the rows of the batch; only the first size are in use
+    private final int[] rows = new int[SIZE];
+
+    private int size;
+
+    //Whether each row of the batch is NaN, NOVALUE or an item, and whether any isn't an item
+    private final byte[] specials = new byte[SIZE];
+
+    private boolean hasSpecials;
+
+    //The operands and results of the rows of the batch, for the result type only
+    private int[] ints1;
+    private int[] ints2;
+    private int[] intResults;
+
+    private float[] floats1;
+    private float[] floats2;
+    private float[] floatResults;
+
+    private String[] strings1;
+    private String[] strings2;
+    private String[] stringResults;
+
+    //Whether the second operand is a literal, which is read once rather than per batch
+    private boolean literal;
+
+    ExpressionBatch(String type, char op) {
+        this.type = type;
+        this.op = op;
+        switch (type) {
+            case "int":
+                ints1 = new int[SIZE];
+                ints2 = new int[SIZE];
+                intResults = new int[SIZE];
+                break;
+            case "float":
+                floats1 = new float[SIZE];
+                floats2 = new float[SIZE];
+                floatResults = new float[SIZE];
+                break;
+            default:
+                strings1 = new String[SIZE];
+                strings2 = new String[SIZE];
+                stringResults = new String[SIZE];
+        }
+    }
+
+    /* Makes the second operand of every row the given literal, parsed for the result type */
+    void setLiteral(String item) {
+        literal = true;
+        switch (type) {
+            case "int":
+                Arrays.fill(ints2, Integer.parseInt(item));
+                break;
+            case "float":
+                Arrays.fill(floats2, Float.parseFloat(item));
+                break;
+            default:
+                Arrays.fill(strings2, item);
+        }
+    }
+
+    /**
+     * Evaluates the expression over the given rows of the operand columns in [from, to),
+     * adding the results to the new column in order; col2 is ignored if the operand is
+     * a literal
+     */
+    void evaluate(Column col1, Column col2, BitSet selected, int from, int to, Column newCol) {
+        int next = selected.nextSetBit(from);
+        while (next >= 0 && next < to) {
+            size = 0;
+            while (next >= 0 && next < to && size < SIZE) {
+                rows[size] = next;
+                size += 1;
+                next = selected.nextSetBit(next + 1);
+            }
+            findSpecials(col1, col2);
+            read(col1, col2);
+            apply();
+            addResults(newCol);
+        }
+    }
+
+    /* Finds the rows of the batch that evaluate to NaN or NOVALUE whatever the operator */
+    private void findSpecials(Column col1, Column col2) {
+        boolean noSpecials = col1.nans.isEmpty() && col1.noValues.isEmpty()
+                && (literal || col2.nans.isEmpty() && col2.noValues.isEmpty());
+        Arrays.fill(specials, 0, size, ITEM);
+        hasSpecials = false;
+        if (noSpecials) {
+            return;
+        }
+        for (int k = 0; k < size; k++) {
+            int row = rows[k];
+            if (col1.isNaN(row) || !literal && col2.isNaN(row)) {
+                specials[k] = NAN;
+                hasSpecials = true;
+            } else if (!literal && col1.isNoValue(row) && col2.isNoValue(row)) {
+                specials[k] = NOVALUE;
+                hasSpecials = true;
+            }
+        }
+    }
+
+    /* Reads the operands of the rows of the batch */
+    private void read(Column col1, Column col2) {
+        switch (type) {
+            case "int":
+                col1.readInts(rows, size, ints1);
+                if (!literal) {
+                    col2.readInts(rows, size, ints2);
+                }
+                break;
+            case "float":
+                col1.readFloats(rows, size, floats1);
+                if (!literal) {
+                    col2.readFloats(rows, size, floats2);
+                }
+                break;
+            default:
+                col1.readStrings(rows, size, strings1);
+                if (!literal) {
+                    col2.readStrings(rows, size, strings2);
+                }
+        }
+    }
+
+    /* Applies the operator to the operands of every row of the batch */
+    private void apply() {
+        switch (type) {
+            case "int":
+                applyInts();
+                return;
+            case "float":
+                applyFloats();
+                return;
+            default:
+                applyStrings();
+        }
+    }
+
+    /* Evaluates arithmetic expressions with integers */
+    private void applyInts() {
+        int n = size;
+        switch (op) {
+            case '+':
+                for (int k = 0; k < n; k++) {
+                    intResults[k] = ints1[k] + ints2[k];
+                }
+                return;
+            case '-':
+                for (int k = 0; k < n; k++) {
+                    intResults[k] = ints1[k] - ints2[k];
+                }
+                return;
+            case '*':
+                for (int k = 0; k < n; k++) {
+                    intResults[k] = ints1[k] * ints2[k];
+                }
+                return;
+            case '/':
+                for (int k = 0; k < n; k++) {
+                    if (ints2[k] == 0) {
+                        intResults[k] = 0;
+                        divideByZero(k);
+                    } else {
+                        intResults[k] = ints1[k] / ints2[k];
+                    }
+                }
+                return;
+        }
+        throw new RuntimeException();
+    }
+
+    /* Evaluates arithmetic expressions with floats */
+    private void applyFloats() {
+        int n = size;
+        switch (op) {
+            case '+':
+                for (int k = 0; k < n; k++) {
+                    floatResults[k] = floats1[k] + floats2[k];
+                }
+                return;
+            case '-':
+                for (int k = 0; k < n; k++) {
+                    floatResults[k] = floats1[k] - floats2[k];
+                }
+                return;
+            case '*':
+                for (int k = 0; k < n; k++) {
+                    floatResults[k] = floats1[k] * floats2[k];
+                }
+                return;
+            case '/':
+                for (int k = 0; k < n; k++) {
+                    if (floats2[k] == 0) {
+                        floatResults[k] = 0;
+                        divideByZero(k);
+                    } else {
+                        floatResults[k] = floats1[k] / floats2[k];
+                    }
+                }
+                return;
+        }
+        throw new RuntimeException();
+    }
+
+    /* Evaluates string expressions, where NOVALUE acts as the empty string */
+    private void applyStrings() {
+        for (int k = 0; k < size; k++) {
+            if (specials[k] != ITEM) {
+                stringResults[k] = "";
+            } else if (op != '+') {
+                throw new RuntimeException(op + " cannot be applied to string type");
+            } else {
+                stringResults[k] = strings1[k] + strings2[k];
+            }
+        }
+    }
+
+    /* Makes a row divided by zero NaN, unless it is already NaN or NOVALUE */
+    private void divideByZero(int k) {
+        if (specials[k] == ITEM) {
+            specials[k] = NAN;
+            hasSpecials = true;
+        }
+    }
+
+    /* Adds the results of the rows of the batch to the new column */
+    private void addResults(Column newCol) {
+        if (!hasSpecials) {
+            switch (type) {
+                case "int":
+                    newCol.addInts(intResults, size);
+                    return;
+                case "float":
+                    newCol.addFloats(floatResults, size);
+                    return;
+                default:
+                    newCol.addStrings(stringResults, size);
+                    return;
+            }
+        }
+        for (int k = 0; k < size; k++) {
+            if (specials[k] == NAN) {
+                newCol.addNaN();
+            } else if (specials[k] == NOVALUE) {
+                newCol.addNoValue();
+            } else if (type.equals("int")) {
+                newCol.addInt(intResults[k]);
+            } else if (type.equals("float")) {
+                newCol.addFloat(floatResults[k]);
+            } else {
+                newCol.addString(stringResults[k]);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package db;
+
+/**
+ * Parses expressions into expression trees by recursive descent. From the loosest to
+ * the tightest binding, the grammar is
+ *
+ *   or         := and ("or" and)*
+ *   and        := comparison ("and" comparison)*
+ *   comparison := sum (("==" | "!=" | "<" | ">" | "<=" | ">=") sum)?
+ *   sum        := product (("+" | "-") product)*
+ *   product    := unary (("*" | "/") unary)*
+ *   unary      := "-" unary | primary
+ *   primary    := name | number | string | "?" | "(" or ")"
+ *
+ * where "?" is a placeholder for a parameter bound when the statement is run.
+ */
+class ExpressionParser {
+
+    private static final String[] COMPARATORS = new String[]{"==", "!=", "<=", ">=", "<", ">"};
+
+    private final Lexer lexer;
+
+    ExpressionParser(Lexer lexer) {
+        this.lexer = lexer;
+    }
+
+    /* Parses an expression starting at the next token of the lexer */
+    Expression parseExpression() {
+        Expression expr = parseAnd();
+        while (lexer.accept("or")) {
+            expr = new Expression.Binary("or", expr, parseAnd());
+        }
+        return expr;
+    }
+
+    private Expression parseAnd() {
+        Expression expr = parseComparison();
+        while (lexer.accept("and")) {
+            expr = new Expression.Binary("and", expr, parseComparison());
+        }
+        return expr;
+    }
+
+    private Expression parseComparison() {
+        Expression expr = parseSum();
+        for (String comparator : COMPARATORS) {
+            if (lexer.accept(comparator)) {
+                return new Expression.Binary(comparator, expr, parseSum());
+            }
+        }
+        return expr;
+    }
+
+    private Expression parseSum() {
+        Expression expr = parseProduct();
+        while (true) {
+            if (lexer.accept("+")) {
+                expr = new Expression.Binary("+", expr, parseProduct());
+            } else if (lexer.accept("-")) {
+                expr = new Expression.Binary("-", expr, parseProduct());
+            } else {
+                return expr;
+            }
+        }
+    }
+
+    private Expression parseProduct() {
+        Expression expr = parseUnary();
+        while (true) {
+            if (lexer.accept("*")) {
+                expr = new Expression.Binary("*", expr, parseUnary());
+            } else if (lexer.accept("/")) {
+                expr = new Expression.Binary("/", expr, parseUnary());
+            } else {
+                return expr;
+            }
+        }
+    }
+
+    private Expression parseUnary() {
+        if (lexer.accept("-")) {
+            //A negative number is a literal; other negations subtract from zero
+            if (lexer.peek().kind.equals(Lexer.NUMBER)) {
+                return new Expression.Literal("-" + lexer.next().text);
+            }
+            return new Expression.Binary("-", new Expression.Literal("0"), parseUnary());
+        }
+        return parsePrimary();
+    }
+
+    private Expression parsePrimary() {
+        Lexer.Token token = lexer.peek();
+        switch (token.kind) {
+            case Lexer.NAME:
+                if (token.is("and") || token.is("or")) {
+                    throw lexer.error("Expected an operand");
+                }
+                return new Expression.Name(lexer.next().text);
+            case Lexer.NUMBER:
+            case Lexer.STRING:
+                return new Expression.Literal(lexer.next().text);
+            default:
+                if (lexer.accept("?")) {
+                    return new Expression.Parameter(lexer.nextParameter());
+                }
+                lexer.expect("(");
+                Expression expr = parseExpression();
+                lexer.expect(")");
+                return expr;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package db;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * A column of floats, backed by a growable float array. Rows holding NOVALUE or NaN
+ * keep 0 in their slot of the array.
+ */
+class FloatColumn extends Column {
+
+    //The items of the column; only the first size slots are in use
+    private float[] values;
+
+    //The items of a column opened from a binary file, read from the file as they are
+    //used; null otherwise. They are copied into values before the column is changed.
+    private FloatBuffer mapped;
+
+    FloatColumn(String columnName) {
+        super(columnName, "float");
+        values = new float[INITIAL_CAPACITY];
+    }
+
+    /* Creates a column of the given number of items, read from a binary file */
+    FloatColumn(String columnName, FloatBuffer mapped, int size) {
+        super(columnName, "float");
+        this.mapped = mapped;
+        this.size = size;
+    }
+
+    @Override
+    Column empty() {
+        return new FloatColumn(columnName);
+    }
+
+    @Override
+    void appendItem(Column src, int row) {
+        addFloat(src.getFloat(row));
+    }
+
+    @Override
+    void unshare() {
+        if (values != null) {
+            values = Arrays.copyOf(values, values.length);
+        }
+    }
+
+    @Override
+    void reserve(int capacity) {
+        beforeWrite();
+        if (mapped != null) {
+            //Copies the items out of the file before the column changes
+            values = new float[Math.max(capacity, size)];
+            copyItems(values, 0);
+            mapped = null;
+        } else if (capacity > values.length) {
+            values = Arrays.copyOf(values, Math.max(capacity, values.length * 2));
+        }
+    }
+
+    @Override
+    void addDefault() {
+        addFloat(0);
+    }
+
+    @Override
+    void addFloat(float item) {
+        reserve(size + 1);
+        values[size] = item;
+        size += 1;
+    }
+
+    @Override
+    void addFloats(float[] items, int n) {
+        reserve(size + n);
+        System.arraycopy(items, 0, values, size, n);
+        size += n;
+    }
+
+    @Override
+    void addAll(Object[] items, int n) {
+        reserve(size + n);
+        for (int k = 0; k < n; k++) {
+            Object o = items[k];
+            if (o instanceof Float) {
+                values[size] = (Float) o;
+                size += 1;
+            } else {
+                add(o);
+            }
+        }
+    }
+
+    @Override
+    void appendAll(Column src) {
+        if (!(src instanceof FloatColumn)) {
+            super.appendAll(src);
+            return;
+        }
+        int offset = size;
+        reserve(size + src.size);
+        ((FloatColumn) src).copyItems(values, offset);
+        size += src.size;
+        appendSpecials(src, offset);
+    }
+
+    @Override
+    Object getItem(int index) {
+        return item(index);
+    }
+
+    @Override
+    void addItem(Object o) {
+        addFloat((Float) o);
+    }
+
+    @Override
+    String formatItem(int index) {
+        //Formats float values correctly
+        return String.format("%.3f", item(index));
+    }
+
+    @Override
+    float getFloat(int index) {
+        return item(index);
+    }
+
+    @Override
+    void readFloats(int[] rows, int n, float[] out) {
+        if (mapped != null) {
+            for (int k = 0; k < n; k++) {
+                out[k] = mapped.get(rows[k]);
+            }
+            return;
+        }
+        for (int k = 0; k < n; k++) {
+            out[k] = values[rows[k]];
+        }
+    }
+
+    /* Gets the item at index i, from the file if the column was opened from one */
+    private float item(int index) {
+        return mapped != null ? mapped.get(index) : values[index];
+    }
+
+    /* Copies the items of the column to the given array, starting at offset */
+    private void copyItems(float[] dst, int offset) {
+        if (mapped != null) {
+            mapped.duplicate().get(dst, offset, size);
+        } else {
+            System.arraycopy(values, 0, dst, offset, size);
+        }
+    }
+}
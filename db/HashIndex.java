@@ -0,0 +1,202 @@
+package db;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A secondary index of a column, mapping each item of the column to the rows holding
+ * it, so that the rows equal to an item are found without scanning the column. Items
+ * of int columns are kept in an open addressing table of ints; those of float and
+ * string columns in a hash map. Rows holding NOVALUE or NaN are not indexed, since
+ * they are never equal to anything.
+ *
+ * The rows holding each item are kept as a chain in ascending order, linked by the
+ * next row holding the same item.
+ */
+class HashIndex extends Index {
+
+    //The number of rows indexed
+    private int rows;
+
+    //The number of distinct items indexed, and the first and last row holding each
+    private int numItems;
+
+    private int[] firstRows = new int[16];
+
+    private int[] lastRows = new int[16];
+
+    //The next row holding the same item as each row, or -1 if it is the last
+    private int[] nextRows = new int[0];
+
+    //The open addressing table of int items: the item of each slot and its number,
+    //or -1 for an empty slot
+    private int[] slotItems;
+
+    private int[] slotNumbers;
+
+    //The numbers of float and string items; float items are kept with -0.0 as 0.0
+    private Map<Object, Integer> itemNumbers;
+
+    HashIndex(String name, Column col) {
+        super(name, col);
+        if (columnType.equals("int")) {
+            slotItems = new int[32];
+            slotNumbers = new int[32];
+            Arrays.fill(slotNumbers, -1);
+        } else {
+            itemNumbers = new HashMap<>();
+        }
+        extend(col);
+    }
+
+    @Override
+    synchronized void extend(Column col) {
+        int size = col.size();
+        if (size <= rows) {
+            return;
+        }
+        if (size > nextRows.length) {
+            nextRows = Arrays.copyOf(nextRows, Math.max(size, nextRows.length * 3 / 2));
+        }
+        for (int row = rows; row < size; row++) {
+            nextRows[row] = -1;
+            if (col.isNoValue(row) || col.isNaN(row)) {
+                continue;
+            }
+            int number = columnType.equals("int") ? numberOf(col.getInt(row), true)
+                    : numberOf(keyAt(col, row), true);
+            if (firstRows[number] < 0) {
+                firstRows[number] = row;
+            } else {
+                nextRows[lastRows[number]] = row;
+            }
+            lastRows[number] = row;
+        }
+        rows = size;
+    }
+
+    @Override
+    int size() {
+        return rows;
+    }
+
+    /**
+     * Gets the first row holding the item at the given row of a column of the same type,
+     * or -1 if no row holds it; later rows follow from nextRow
+     */
+    int firstRow(Column col, int row) {
+        int number = columnType.equals("int") ? numberOf(col.getInt(row), false)
+                : numberOf(keyAt(col, row), false);
+        return number < 0 ? -1 : firstRows[number];
+    }
+
+    /* Gets the next row holding the same item as the given row, or -1 if there is none */
+    int nextRow(int row) {
+        return nextRows[row];
+    }
+
+    /**
+     * Gets a bitmap of the rows holding the given item: an Integer for an int column, a
+     * Float for a float column and a String for a string column; no row of an int column
+     * holds a Float
+     */
+    BitSet rowsOf(Object item) {
+        int number;
+        if (columnType.equals("int")) {
+            number = item instanceof Integer ? numberOf(((Integer) item).intValue(), false) : -1;
+        } else {
+            number = numberOf(item instanceof Float ? normalize((Float) item) : item, false);
+        }
+        BitSet matches = new BitSet(rows);
+        if (number >= 0) {
+            for (int row = firstRows[number]; row >= 0; row = nextRows[row]) {
+                matches.set(row);
+            }
+        }
+        return matches;
+    }
+
+    /* Gets the float or string at the row of a column, as it is kept in the map */
+    private Object keyAt(Column col, int row) {
+        if (columnType.equals("float")) {
+            return normalize(col.getFloat(row));
+        }
+        return col.getString(row);
+    }
+
+    /* Gets 0.0 for -0.0, which is equal to it, and the float itself otherwise */
+    private static Float normalize(float item) {
+        return item == 0 ? 0f : item;
+    }
+
+    /* Gets the number of an int item, adding it if asked to; -1 if it is not indexed */
+    private int numberOf(int item, boolean add) {
+        int mask = slotItems.length - 1;
+        int slot = mix(item) & mask;
+        while (slotNumbers[slot] >= 0 && slotItems[slot] != item) {
+            slot = (slot + 1) & mask;
+        }
+        if (slotNumbers[slot] >= 0 || !add) {
+            return slotNumbers[slot];
+        }
+        slotItems[slot] = item;
+        slotNumbers[slot] = newNumber();
+        //Keeps the table at most half full, so that probes stay short
+        if (numItems * 2 > slotItems.length) {
+            rehash();
+        }
+        return numItems - 1;
+    }
+
+    /* Gets the number of a float or string item, adding it if asked to */
+    private int numberOf(Object item, boolean add) {
+        Integer number = itemNumbers.get(item);
+        if (number != null || !add) {
+            return number == null ? -1 : number;
+        }
+        itemNumbers.put(item, newNumber());
+        return numItems - 1;
+    }
+
+    /* Numbers a new item, which no row holds yet */
+    private int newNumber() {
+        if (numItems == firstRows.length) {
+            firstRows = Arrays.copyOf(firstRows, numItems * 2);
+            lastRows = Arrays.copyOf(lastRows, numItems * 2);
+        }
+        firstRows[numItems] = -1;
+        numItems += 1;
+        return numItems - 1;
+    }
+
+    /* Doubles the open addressing table, putting every item in its new slot */
+    private void rehash() {
+        int[] oldItems = slotItems;
+        int[] oldNumbers = slotNumbers;
+        slotItems = new int[oldItems.length * 2];
+        slotNumbers = new int[oldItems.length * 2];
+        Arrays.fill(slotNumbers, -1);
+        int mask = slotItems.length - 1;
+        for (int s = 0; s < oldItems.length; s++) {
+            if (oldNumbers[s] >= 0) {
+                int slot = mix(oldItems[s]) & mask;
+                while (slotNumbers[slot] >= 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slotItems[slot] = oldItems[s];
+                slotNumbers[slot] = oldNumbers[s];
+            }
+        }
+    }
+
+    /* Mixes the bits of an int, so that the low bits used for slots depend on all of them */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,218 @@
+package db;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Joins the rows of two tables whose shared columns hold equal items. A hash table of
+ * the rows of the smaller input is built on its shared columns, then probed with each
+ * row of the larger input, so joining takes time linear in the sizes of the inputs
+ * and the result rather than in their product. An index of a shared column of either
+ * input serves as the hash table, if there is one, so that input is not read to build it.
+ *
+ * The result is the pairs of ids of matching rows, in order of left row and then of
+ * right row, the same order as comparing every pair of rows would give.
+ */
+class HashJoin {
+
+    //Joins of fewer rows in total than this are done on the calling thread
+    static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    //The shared columns of the left and right tables, in the same order
+    final Column[] leftKeys;
+
+    final Column[] rightKeys;
+
+    //For shared columns that are both dictionary encoded, maps codes of the right
+    //column to codes of the left column; null for other columns
+    private final int[][] translations;
+
+    HashJoin(Column[] leftKeys, Column[] rightKeys) {
+        this.leftKeys = leftKeys;
+        this.rightKeys = rightKeys;
+        translations = new int[leftKeys.length][];
+        for (int k = 0; k < leftKeys.length; k++) {
+            if (leftKeys[k] instanceof DictionaryColumn && rightKeys[k] instanceof DictionaryColumn) {
+                translations[k] = ((DictionaryColumn) leftKeys[k])
+                        .translate((DictionaryColumn) rightKeys[k]);
+            }
+        }
+    }
+
+    /**
+     * Joins the given rows of the left and right tables, partitioning the join across
+     * the threads of the pool if the inputs are large enough to be worth it
+     */
+    int[][] join(BitSet leftRows, BitSet rightRows, ForkJoinPool pool) {
+        if (pool != null && pool.getParallelism() > 1
+                && leftRows.cardinality() + rightRows.cardinality() >= PARALLEL_THRESHOLD) {
+            return new PartitionedHashJoin(this, pool).join(leftRows, rightRows);
+        }
+        return join(leftRows, rightRows);
+    }
+
+    /**
+     * Joins the given rows of the left and right tables. Returns an array of two
+     * arrays, holding the left and the right row id of each matching pair
+     */
+    int[][] join(BitSet leftRows, BitSet rightRows) {
+        //Builds on the smaller input
+        boolean buildLeft = leftRows.cardinality() < rightRows.cardinality();
+        Column[] buildKeys = buildLeft ? leftKeys : rightKeys;
+        Column[] probeKeys = buildLeft ? rightKeys : leftKeys;
+        BitSet buildRows = buildLeft ? leftRows : rightRows;
+        BitSet probeRows = buildLeft ? rightRows : leftRows;
+
+        //Buckets of the hash table hold the first row of a chain of rows, linked by next
+        int buildSize = buildRows.cardinality();
+        int numBuckets = Integer.highestOneBit(Math.max(buildSize, 1)) << 1;
+        int mask = numBuckets - 1;
+        int[] buckets = new int[numBuckets];
+        Arrays.fill(buckets, -1);
+        int[] next = new int[buildRows.length()];
+
+        //Adds rows in descending order, so that every chain lists its rows in ascending order
+        for (int r = buildRows.length() - 1; r >= 0; r = buildRows.previousSetBit(r - 1)) {
+            if (!hasSpecialKey(buildKeys, r)) {
+                int bucket = hash(buildKeys, r) & mask;
+                next[r] = buckets[bucket];
+                buckets[bucket] = r;
+            }
+        }
+
+        IntList leftIds = new IntList();
+        IntList rightIds = new IntList();
+        for (int p = probeRows.nextSetBit(0); p >= 0; p = probeRows.nextSetBit(p + 1)) {
+            if (hasSpecialKey(probeKeys, p)) {
+                continue;
+            }
+            for (int r = buckets[hash(probeKeys, p) & mask]; r >= 0; r = next[r]) {
+                int left = buildLeft ? r : p;
+                int right = buildLeft ? p : r;
+                if (keysMatch(left, right)) {
+                    leftIds.add(left);
+                    rightIds.add(right);
+                }
+            }
+        }
+        if (buildLeft) {
+            //Pairs are in order of right row; puts them in order of left row
+            return sortByLeft(leftIds, rightIds, leftRows.length());
+        }
+        return new int[][]{leftIds.toArray(), rightIds.toArray()};
+    }
+
+    /**
+     * Joins the given rows of the left and right tables using an index of their k-th
+     * shared column in the left or the right table in place of a hash table: each row
+     * of the other table is probed in the index, whose rows are kept if they are given
+     */
+    int[][] join(BitSet leftRows, BitSet rightRows, HashIndex index, int k, boolean indexLeft) {
+        Column[] buildKeys = indexLeft ? leftKeys : rightKeys;
+        Column[] probeKeys = indexLeft ? rightKeys : leftKeys;
+        BitSet buildRows = indexLeft ? leftRows : rightRows;
+        BitSet probeRows = indexLeft ? rightRows : leftRows;
+
+        IntList leftIds = new IntList();
+        IntList rightIds = new IntList();
+        for (int p = probeRows.nextSetBit(0); p >= 0; p = probeRows.nextSetBit(p + 1)) {
+            if (hasSpecialKey(probeKeys, p)) {
+                continue;
+            }
+            for (int r = index.firstRow(probeKeys[k], p); r >= 0; r = index.nextRow(r)) {
+                if (!buildRows.get(r) || hasSpecialKey(buildKeys, r)) {
+                    continue;
+                }
+                int left = indexLeft ? r : p;
+                int right = indexLeft ? p : r;
+                if (keysMatch(left, right)) {
+                    leftIds.add(left);
+                    rightIds.add(right);
+                }
+            }
+        }
+        if (indexLeft) {
+            return sortByLeft(leftIds, rightIds, leftRows.length());
+        }
+        return new int[][]{leftIds.toArray(), rightIds.toArray()};
+    }
+
+    /* Checks if any shared column holds NOVALUE or NaN at the row; such rows never match */
+    static boolean hasSpecialKey(Column[] keys, int row) {
+        for (Column key : keys) {
+            if (key.isNoValue(row) || key.isNaN(row)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Hashes the items of the shared columns at the row; equal items hash equally */
+    static int hash(Column[] keys, int row) {
+        int h = 0;
+        for (Column key : keys) {
+            int itemHash;
+            switch (key.columnType) {
+                case "int":
+                    itemHash = key.getInt(row);
+                    break;
+                case "float":
+                    //0.0 and -0.0 are equal, so must hash equally
+                    float f = key.getFloat(row);
+                    itemHash = f == 0 ? 0 : Float.floatToIntBits(f);
+                    break;
+                default:
+                    itemHash = key.getString(row).hashCode();
+            }
+            h = 31 * h + itemHash;
+        }
+        //Mixes the bits, so both the low bits used for buckets and the high bits used for
+        //partitions depend on every bit of the items
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    /* Checks if the items of every shared column are equal at the given rows */
+    boolean keysMatch(int left, int right) {
+        for (int k = 0; k < leftKeys.length; k++) {
+            if (translations[k] != null) {
+                //Dictionary encoded columns are matched by codes
+                int code = ((DictionaryColumn) rightKeys[k]).getCode(right);
+                if (translations[k][code] < 0
+                        || ((DictionaryColumn) leftKeys[k]).getCode(left) != translations[k][code]) {
+                    return false;
+                }
+            } else if (!leftKeys[k].matches(left, rightKeys[k], right)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Puts the pairs in order of left row with a counting sort; pairs with the same
+     * left row keep their order, so remain in order of right row
+     */
+    private static int[][] sortByLeft(IntList leftIds, IntList rightIds, int numLeftRows) {
+        int n = leftIds.size();
+        int[] starts = new int[numLeftRows + 1];
+        for (int i = 0; i < n; i++) {
+            starts[leftIds.get(i) + 1] += 1;
+        }
+        for (int r = 0; r < numLeftRows; r++) {
+            starts[r + 1] += starts[r];
+        }
+        int[] sortedLeft = new int[n];
+        int[] sortedRight = new int[n];
+        for (int i = 0; i < n; i++) {
+            int pos = starts[leftIds.get(i)]++;
+            sortedLeft[pos] = leftIds.get(i);
+            sortedRight[pos] = rightIds.get(i);
+        }
+        return new int[][]{sortedLeft, sortedRight};
+    }
+}
@@ -0,0 +1,28 @@
+package db;
+
+/**
+ * An index of a column of a table, created by a create index statement. An index is kept
+ * up to date with the rows of its column as they are added; since the rows of a column
+ * never change once added, it only needs to add the rows added since it was last used.
+ */
+abstract class Index {
+
+    //The name the index was created with, and the name and type of its column
+    final String name;
+
+    final String columnName;
+
+    final String columnType;
+
+    Index(String name, Column col) {
+        this.name = name;
+        columnName = col.columnName;
+        columnType = col.columnType;
+    }
+
+    /* Indexes the rows of the column that were added since it was last indexed */
+    abstract void extend(Column col);
+
+    /* Gets the number of rows indexed */
+    abstract int size();
+}
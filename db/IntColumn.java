@@ -0,0 +1,226 @@
+package db;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * A column of ints, backed by a growable int array. Rows holding NOVALUE or NaN
+ * keep 0 in their slot of the array. A column that isn't changed may instead keep
+ * its items compressed, or read them from the file it was opened from.
+ */
+class IntColumn extends Column {
+
+    //The items of the column; only the first size slots are in use
+    private int[] values;
+
+    //The items of a column opened from a binary file, read from the file as they are
+    //used; null otherwise. They are copied into values before the column is changed.
+    private IntBuffer mapped;
+
+    //The items of a column that has been compressed; null otherwise. They are also
+    //decompressed into values before the column is changed.
+    private CompressedInts compressed;
+
+    IntColumn(String columnName) {
+        super(columnName, "int");
+        values = new int[INITIAL_CAPACITY];
+    }
+
+    /* Creates a column of the given number of items, read from a binary file */
+    IntColumn(String columnName, IntBuffer mapped, int size) {
+        super(columnName, "int");
+        this.mapped = mapped;
+        this.size = size;
+    }
+
+    /* Creates a column of compressed items */
+    IntColumn(String columnName, CompressedInts compressed) {
+        super(columnName, "int");
+        this.compressed = compressed;
+        this.size = compressed.size();
+    }
+
+    @Override
+    Column empty() {
+        return new IntColumn(columnName);
+    }
+
+    @Override
+    void appendItem(Column src, int row) {
+        addInt(src.getInt(row));
+    }
+
+    @Override
+    void unshare() {
+        if (values != null) {
+            values = Arrays.copyOf(values, values.length);
+        }
+    }
+
+    @Override
+    void reserve(int capacity) {
+        beforeWrite();
+        if (values == null) {
+            //Copies the items out of the file, or decompresses them, before the column changes
+            values = new int[Math.max(capacity, size)];
+            copyItems(values, 0);
+            mapped = null;
+            compressed = null;
+        } else if (capacity > values.length) {
+            values = Arrays.copyOf(values, Math.max(capacity, values.length * 2));
+        }
+    }
+
+    @Override
+    void addDefault() {
+        addInt(0);
+    }
+
+    @Override
+    void addInt(int item) {
+        reserve(size + 1);
+        values[size] = item;
+        size += 1;
+    }
+
+    @Override
+    void addInts(int[] items, int n) {
+        reserve(size + n);
+        System.arraycopy(items, 0, values, size, n);
+        size += n;
+    }
+
+    @Override
+    void addAll(Object[] items, int n) {
+        reserve(size + n);
+        for (int k = 0; k < n; k++) {
+            Object o = items[k];
+            if (o instanceof Integer) {
+                values[size] = (Integer) o;
+                size += 1;
+            } else {
+                add(o);
+            }
+        }
+    }
+
+    @Override
+    void appendAll(Column src) {
+        if (!(src instanceof IntColumn)) {
+            super.appendAll(src);
+            return;
+        }
+        int offset = size;
+        reserve(size + src.size);
+        ((IntColumn) src).copyItems(values, offset);
+        size += src.size;
+        appendSpecials(src, offset);
+    }
+
+    @Override
+    Column gather(int[] rows) {
+        //Reads the items straight into the array of the gathered column
+        IntColumn gatheredCol = new IntColumn(columnName);
+        gatheredCol.reserve(rows.length);
+        boolean hasSpecials = !noValues.isEmpty() || !nans.isEmpty();
+        for (int k = 0; k < rows.length; k++) {
+            int row = rows[k];
+            if (hasSpecials && isNoValue(row)) {
+                gatheredCol.noValues.set(k);
+            } else if (hasSpecials && isNaN(row)) {
+                gatheredCol.nans.set(k);
+            } else {
+                gatheredCol.values[k] = item(row);
+            }
+        }
+        gatheredCol.size = rows.length;
+        return gatheredCol;
+    }
+
+    @Override
+    Object getItem(int index) {
+        return item(index);
+    }
+
+    @Override
+    void addItem(Object o) {
+        addInt((Integer) o);
+    }
+
+    @Override
+    String formatItem(int index) {
+        return String.valueOf(item(index));
+    }
+
+    @Override
+    int getInt(int index) {
+        return item(index);
+    }
+
+    @Override
+    float getFloat(int index) {
+        return item(index);
+    }
+
+    @Override
+    void readInts(int[] rows, int n, int[] out) {
+        if (values == null) {
+            for (int k = 0; k < n; k++) {
+                out[k] = item(rows[k]);
+            }
+            return;
+        }
+        for (int k = 0; k < n; k++) {
+            out[k] = values[rows[k]];
+        }
+    }
+
+    @Override
+    void readFloats(int[] rows, int n, float[] out) {
+        if (values == null) {
+            for (int k = 0; k < n; k++) {
+                out[k] = item(rows[k]);
+            }
+            return;
+        }
+        for (int k = 0; k < n; k++) {
+            out[k] = values[rows[k]];
+        }
+    }
+
+    @Override
+    void compress() {
+        if (values == null) {
+            return;
+        }
+        CompressedInts items = CompressedInts.encode(values, size);
+        if (items.isWorthwhile()) {
+            compressed = items;
+            values = null;
+        }
+    }
+
+    @Override
+    CompressedInts compressedItems() {
+        return compressed;
+    }
+
+    /* Gets the item at index i, wherever the items of the column are kept */
+    private int item(int index) {
+        if (values != null) {
+            return values[index];
+        }
+        return mapped != null ? mapped.get(index) : compressed.get(index);
+    }
+
+    /* Copies the items of the column to the given array, starting at offset */
+    private void copyItems(int[] dst, int offset) {
+        if (mapped != null) {
+            mapped.duplicate().get(dst, offset, size);
+        } else if (compressed != null) {
+            compressed.decode(dst, offset);
+        } else {
+            System.arraycopy(values, 0, dst, offset, size);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package db;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of ints, backed by an int array so that row ids are not boxed.
+ */
+class IntList {
+
+    //The items of the list; only the first size slots are in use
+    private int[] items;
+
+    private int size;
+
+    IntList() {
+        this(16);
+    }
+
+    IntList(int capacity) {
+        items = new int[Math.max(capacity, 1)];
+    }
+
+    /* Adds an item to the end of the list */
+    void add(int item) {
+        if (size == items.length) {
+            items = Arrays.copyOf(items, size * 2);
+        }
+        items[size] = item;
+        size += 1;
+    }
+
+    /* Gets the item at index i */
+    int get(int index) {
+        return items[index];
+    }
+
+    /* Gets the number of items in the list */
+    int size() {
+        return size;
+    }
+
+    /* Gets the underlying array, which may be longer than the list */
+    int[] items() {
+        return items;
+    }
+
+    /* Gets the items of the list in an array of their own */
+    int[] toArray() {
+        return Arrays.copyOf(items, size);
+    }
+}
@@ -0,0 +1,391 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Chooses the order in which to join the tables of a select statement, and joins them.
+ *
+ * The natural join gives the same rows whatever the order the tables are joined in, but
+ * the size of the tables joined along the way can differ by orders of magnitude. The
+ * size of the join of each set of tables is estimated from the number of rows of the
+ * tables and the number of distinct items in the columns they are joined on, and the
+ * order joining the fewest rows in total is found by dynamic programming over the sets
+ * of tables, or greedily if there are too many tables for that.
+ *
+ * The columns and rows of the result are in the same order as joining the tables from
+ * left to right would give: when the tables are joined in another order, each table is
+ * given a column of its row ids, by which the rows are sorted at the end.
+ */
+class JoinOrder {
+
+    //Orders of at most this many tables are found by dynamic programming
+    static final int MAX_DP_TABLES = 10;
+
+    //Prefix of the names of the row id columns; not a valid column name in a query
+    private static final String ROW_ID_PREFIX = "#";
+
+    //The tables to join, in the order they are given in the statement
+    private final List<Table> inputs;
+
+    //The pairs of names of columns of different tables compared for equality
+    private final List<String[]> joinPairs;
+
+    //The tables of each set of columns whose items are equal in joined rows, and the
+    //estimated number of distinct items of the column in each of those tables
+    private final List<int[]> classTables = new ArrayList<>();
+
+    private final List<double[]> classDistincts = new ArrayList<>();
+
+    //The number of selected rows of each table
+    private final int[] numRows;
+
+    //The tables joined from the inputs along the way, including the result
+    private final List<Table> joinedTables = new ArrayList<>();
+
+    /**
+     * Prepares to join the given tables, also on the given pairs of names of columns of
+     * different tables. Each table is a copy of the table of the database at the same
+     * index of sources, whose columns keep their estimates of distinct items across
+     * statements.
+     */
+    JoinOrder(List<Table> inputs, List<Table> sources, List<String[]> joinPairs) {
+        this.inputs = inputs;
+        this.joinPairs = joinPairs;
+        numRows = new int[inputs.size()];
+        for (int i = 0; i < inputs.size(); i++) {
+            numRows[i] = inputs.get(i).numRows();
+        }
+
+        //Columns with the same name in several tables are joined on, and so are pairs
+        List<String> sharedNames = new ArrayList<>();
+        for (Table input : inputs) {
+            for (String name : input.getColumnNames()) {
+                if (!sharedNames.contains(name) && tablesWith(name).size() > 1) {
+                    sharedNames.add(name);
+                }
+            }
+        }
+        for (String name : sharedNames) {
+            addClass(new String[]{name}, sources);
+        }
+        for (String[] pair : joinPairs) {
+            addClass(pair, sources);
+        }
+    }
+
+    /* Adds the set of the columns with the given names in every table */
+    private void addClass(String[] names, List<Table> sources) {
+        List<Integer> tables = new ArrayList<>();
+        for (String name : names) {
+            tables.addAll(tablesWith(name));
+        }
+        int[] tableArr = new int[tables.size()];
+        double[] distinctArr = new double[tables.size()];
+        int k = 0;
+        for (String name : names) {
+            for (int i : tablesWith(name)) {
+                //A filtered table has at most as many distinct items as it has rows
+                int distinct = sources.get(i).getColumn(name).distinctEstimate();
+                tableArr[k] = i;
+                distinctArr[k] = Math.max(1, Math.min(distinct, numRows[i]));
+                k += 1;
+            }
+        }
+        classTables.add(tableArr);
+        classDistincts.add(distinctArr);
+    }
+
+    /* Gets the indices of the tables having a column with the given name */
+    private List<Integer> tablesWith(String name) {
+        List<Integer> indices = new ArrayList<>();
+        for (int i = 0; i < inputs.size(); i++) {
+            if (inputs.get(i).getColumnNames().contains(name)) {
+                indices.add(i);
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * Estimates the number of rows of the join of the given set of tables. Assuming
+     * the items of joined columns are independent and uniformly distributed, each set of
+     * columns with equal items in joined rows keeps one in every d2 * ... * dm of the
+     * rows, where d1 <= d2 <= ... <= dm are the distinct counts of its columns in the set.
+     */
+    double estimateRows(long tableSet) {
+        double rows = 1;
+        for (int i = 0; i < inputs.size(); i++) {
+            if ((tableSet & (1L << i)) != 0) {
+                rows *= numRows[i];
+            }
+        }
+        for (int k = 0; k < classTables.size(); k++) {
+            int[] tables = classTables.get(k);
+            double[] inSet = new double[tables.length];
+            int numInSet = 0;
+            for (int m = 0; m < tables.length; m++) {
+                if ((tableSet & (1L << tables[m])) != 0) {
+                    inSet[numInSet] = classDistincts.get(k)[m];
+                    numInSet += 1;
+                }
+            }
+            Arrays.sort(inSet, 0, numInSet);
+            for (int m = 1; m < numInSet; m++) {
+                rows /= inSet[m];
+            }
+        }
+        return rows;
+    }
+
+    /* A join of two sets of tables, or a single table if left and right are null */
+    private static final class Plan {
+        final long tables;
+        final int table;
+        final Plan left;
+        final Plan right;
+        final double cost;
+
+        Plan(int table) {
+            this.tables = 1L << table;
+            this.table = table;
+            this.left = null;
+            this.right = null;
+            this.cost = 0;
+        }
+
+        Plan(Plan left, Plan right, double rows) {
+            this.tables = left.tables | right.tables;
+            this.table = -1;
+            this.left = left;
+            this.right = right;
+            //The cost of a plan is the number of rows of the tables it joins
+            this.cost = left.cost + right.cost + rows;
+        }
+
+        /* Checks if the plan joins the tables from left to right */
+        boolean isLeftToRight() {
+            if (left == null) {
+                return true;
+            }
+            //Every join is of the first few tables with the next one
+            return Long.bitCount(left.tables + 1) == 1 && right.left == null
+                    && right.table == Long.bitCount(left.tables) && left.isLeftToRight();
+        }
+    }
+
+    /**
+     * Joins the tables in the order estimated to join the fewest rows, giving the same
+     * table as joining them from left to right
+     */
+    Table join(ForkJoinPool pool) {
+        int n = inputs.size();
+        Plan leftToRight = new Plan(0);
+        for (int i = 1; i < n; i++) {
+            Plan next = new Plan(i);
+            leftToRight = new Plan(leftToRight, next, estimateRows(leftToRight.tables | next.tables));
+        }
+        //Two tables are joined the same way in either order, and tables sharing columns
+        //of different types may give a different schema in another order
+        if (n <= 2 || n > Long.SIZE - 1 || hasMixedTypes()) {
+            return execute(leftToRight, pool);
+        }
+
+        Plan best = n <= MAX_DP_TABLES ? bestPlan() : greedyPlan();
+        //Reordering pays off only if it saves more rows than sorting the result takes
+        if (best.isLeftToRight()
+                || best.cost + estimateRows(best.tables) >= leftToRight.cost) {
+            return execute(leftToRight, pool);
+        }
+
+        List<String> columnOrder = leftToRightColumns();
+        for (int i = 0; i < n; i++) {
+            inputs.get(i).addColumn(rowIds(i));
+        }
+        Table joined = execute(best, pool);
+        return restoreOrder(joined, columnOrder);
+    }
+
+    /* Finds the plan of least cost by dynamic programming over the sets of tables */
+    private Plan bestPlan() {
+        int n = inputs.size();
+        Plan[] best = new Plan[1 << n];
+        for (int i = 0; i < n; i++) {
+            best[1 << i] = new Plan(i);
+        }
+        for (int set = 1; set < best.length; set++) {
+            if (Integer.bitCount(set) < 2) {
+                continue;
+            }
+            double rows = estimateRows(set);
+            //Splits the set in two every way, with the lowest table in the left half
+            int lowest = Integer.lowestOneBit(set);
+            for (int left = (set - 1) & set; left > 0; left = (left - 1) & set) {
+                if ((left & lowest) == 0) {
+                    continue;
+                }
+                Plan plan = new Plan(best[left], best[set ^ left], rows);
+                if (best[set] == null || plan.cost < best[set].cost) {
+                    best[set] = plan;
+                }
+            }
+        }
+        return best[best.length - 1];
+    }
+
+    /* Finds a plan by repeatedly joining the two plans whose join is the smallest */
+    private Plan greedyPlan() {
+        List<Plan> plans = new ArrayList<>();
+        for (int i = 0; i < inputs.size(); i++) {
+            plans.add(new Plan(i));
+        }
+        while (plans.size() > 1) {
+            int bestLeft = 0;
+            int bestRight = 1;
+            double bestRows = Double.POSITIVE_INFINITY;
+            for (int l = 0; l < plans.size(); l++) {
+                for (int r = l + 1; r < plans.size(); r++) {
+                    double rows = estimateRows(plans.get(l).tables | plans.get(r).tables);
+                    if (rows < bestRows) {
+                        bestLeft = l;
+                        bestRight = r;
+                        bestRows = rows;
+                    }
+                }
+            }
+            Plan joined = new Plan(plans.get(bestLeft), plans.get(bestRight), bestRows);
+            plans.remove(bestRight);
+            plans.set(bestLeft, joined);
+        }
+        return plans.get(0);
+    }
+
+    /* Checks if columns with the same name have different types in different tables */
+    private boolean hasMixedTypes() {
+        for (int i = 0; i < inputs.size(); i++) {
+            for (String name : inputs.get(i).getColumnNames()) {
+                String type = inputs.get(i).getColumn(name).columnType;
+                for (int j = i + 1; j < inputs.size(); j++) {
+                    if (inputs.get(j).getColumnNames().contains(name)
+                            && !inputs.get(j).getColumn(name).columnType.equals(type)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /* Joins the tables as the plan says, on their shared columns and the join pairs */
+    private Table execute(Plan plan, ForkJoinPool pool) {
+        if (plan.left == null) {
+            return inputs.get(plan.table);
+        }
+        Table left = execute(plan.left, pool);
+        Table right = execute(plan.right, pool);
+        //A pair is joined on where its columns first meet
+        List<String[]> keyPairs = new ArrayList<>();
+        for (String[] pair : joinPairs) {
+            if (left.getColumnNames().contains(pair[0]) && right.getColumnNames().contains(pair[1])
+                    && !left.getColumnNames().contains(pair[1])
+                    && !right.getColumnNames().contains(pair[0])) {
+                keyPairs.add(pair);
+            } else if (left.getColumnNames().contains(pair[1])
+                    && right.getColumnNames().contains(pair[0])
+                    && !left.getColumnNames().contains(pair[0])
+                    && !right.getColumnNames().contains(pair[1])) {
+                keyPairs.add(new String[]{pair[1], pair[0]});
+            }
+        }
+        Table joined = left.join(right, keyPairs, pool);
+        joinedTables.add(joined);
+        return joined;
+    }
+
+    /**
+     * Releases the tables joined along the way, whose gathered columns share the
+     * dictionaries of the inputs; none of them may be used afterwards
+     */
+    void release() {
+        for (Table joined : joinedTables) {
+            joined.release();
+        }
+    }
+
+    /**
+     * Gets the names of the columns of the tables joined from left to right, in order:
+     * each join has the shared columns first, then the rest of the left and of the right
+     */
+    private List<String> leftToRightColumns() {
+        List<String> columns = new ArrayList<>(inputs.get(0).getColumnNames());
+        for (int i = 1; i < inputs.size(); i++) {
+            List<String> shared = new ArrayList<>();
+            List<String> rest = new ArrayList<>();
+            for (String name : columns) {
+                if (inputs.get(i).getColumnNames().contains(name)) {
+                    shared.add(name);
+                } else {
+                    rest.add(name);
+                }
+            }
+            for (String name : inputs.get(i).getColumnNames()) {
+                if (!shared.contains(name)) {
+                    rest.add(name);
+                }
+            }
+            shared.addAll(rest);
+            columns = shared;
+        }
+        return columns;
+    }
+
+    /* Creates a column holding the id of each row of the i-th table */
+    private Column rowIds(int i) {
+        int rows = inputs.get(i).getColumn(
+                inputs.get(i).getColumnNames().iterator().next()).size();
+        Column ids = new IntColumn(ROW_ID_PREFIX + i);
+        ids.reserve(rows);
+        for (int row = 0; row < rows; row++) {
+            ids.addInt(row);
+        }
+        return ids;
+    }
+
+    /**
+     * Sorts the rows of the joined table by the row ids of the first table, then of the
+     * second and so on, which is the order joining from left to right gives; sorts by
+     * the row ids of the last table first, and then stably by those of each table before
+     */
+    private Table restoreOrder(Table joined, List<String> columnOrder) {
+        int numRows = joined.numRows();
+        int[] order = new int[numRows];
+        for (int row = 0; row < numRows; row++) {
+            order[row] = row;
+        }
+        int[] sorted = new int[numRows];
+        for (int i = inputs.size() - 1; i >= 0; i--) {
+            Column ids = joined.getColumn(ROW_ID_PREFIX + i);
+            //Counting sort on the row ids, which are less than the size of the table
+            int[] starts = new int[inputs.get(i).getColumn(ROW_ID_PREFIX + i).size() + 1];
+            for (int row : order) {
+                starts[ids.getInt(row) + 1] += 1;
+            }
+            for (int id = 1; id < starts.length; id++) {
+                starts[id] += starts[id - 1];
+            }
+            for (int row : order) {
+                sorted[starts[ids.getInt(row)]++] = row;
+            }
+            int[] swap = order;
+            order = sorted;
+            sorted = swap;
+        }
+
+        //The columns are gathered in the restored order only once they are read
+        Table restored = joined.gatherRows(columnOrder, order);
+        joinedTables.add(restored);
+        return restored;
+    }
+}
@@ -0,0 +1,196 @@
+package db;
+
+/**
+ * Splits a string into tokens: names, numbers, quoted strings and symbols. Whitespace
+ * only separates tokens. Names include keywords such as "and", which the parser tells
+ * apart by their text. Tokens are scanned one at a time as the parser asks for them,
+ * so a single pass over the input both splits and parses it.
+ */
+class Lexer {
+
+    //The kinds of tokens
+    static final String NAME = "name";
+    static final String NUMBER = "number";
+    static final String STRING = "string";
+    static final String SYMBOL = "symbol";
+    static final String END = "end";
+
+    //Symbols of two characters, which are matched before those of one character
+    private static final String[] TWO_CHAR_SYMBOLS = new String[]{"==", "!=", "<=", ">="};
+
+    private static final String ONE_CHAR_SYMBOLS = "+-*/(),<>=!;?";
+
+    /* A token, with its kind, its text as written, and where it starts in the input */
+    static class Token {
+        final String kind;
+        final String text;
+        final int start;
+
+        Token(String kind, String text, int start) {
+            this.kind = kind;
+            this.text = text;
+            this.start = start;
+        }
+
+        /* Checks if the token is the given symbol or name */
+        boolean is(String symbolOrName) {
+            return !kind.equals(STRING) && text.equals(symbolOrName);
+        }
+
+        /* Gets the index in the input just past the token */
+        int end() {
+            return start + text.length();
+        }
+
+        @Override
+        public String toString() {
+            return kind.equals(END) ? "end of input" : text;
+        }
+    }
+
+    private final String input;
+
+    //The index in the input of the first character not yet scanned
+    private int position;
+
+    //The next token, if it has been scanned but not consumed
+    private Token next;
+
+    //The number of parameter placeholders parsed so far
+    private int parameters;
+
+    Lexer(String input) {
+        this.input = input;
+    }
+
+    /* Scans the token starting at the position, or an end token if none is left */
+    private Token scan() {
+        int i = position;
+        while (i < input.length() && Character.isWhitespace(input.charAt(i))) {
+            i += 1;
+        }
+        int start = i;
+        Token token;
+        if (i == input.length()) {
+            token = new Token(END, "", start);
+        } else {
+            char c = input.charAt(i);
+            if (Character.isLetter(c) || c == '_') {
+                while (i < input.length()
+                        && (Character.isLetterOrDigit(input.charAt(i)) || input.charAt(i) == '_')) {
+                    i += 1;
+                }
+                token = new Token(NAME, input.substring(start, i), start);
+            } else if (Character.isDigit(c) || c == '.' && i + 1 < input.length()
+                    && Character.isDigit(input.charAt(i + 1))) {
+                boolean point = false;
+                while (i < input.length() && (Character.isDigit(input.charAt(i))
+                        || input.charAt(i) == '.' && !point)) {
+                    point |= input.charAt(i) == '.';
+                    i += 1;
+                }
+                token = new Token(NUMBER, input.substring(start, i), start);
+            } else if (c == '\'' || c == '"') {
+                int end = input.indexOf(c, i + 1);
+                if (end < 0) {
+                    throw new RuntimeException("Unterminated string: " + input.substring(start));
+                }
+                token = new Token(STRING, input.substring(start, end + 1), start);
+            } else {
+                String symbol = null;
+                for (String s : TWO_CHAR_SYMBOLS) {
+                    if (input.startsWith(s, i)) {
+                        symbol = s;
+                    }
+                }
+                if (symbol == null && ONE_CHAR_SYMBOLS.indexOf(c) >= 0) {
+                    symbol = String.valueOf(c);
+                }
+                if (symbol == null) {
+                    throw new RuntimeException("Unexpected character " + c + " in " + input);
+                }
+                token = new Token(SYMBOL, symbol, start);
+            }
+        }
+        position = token.end();
+        return token;
+    }
+
+    /* Gets the next token without consuming it */
+    Token peek() {
+        if (next == null) {
+            next = scan();
+        }
+        return next;
+    }
+
+    /* Consumes and returns the next token; the end token is never consumed */
+    Token next() {
+        Token token = peek();
+        if (!token.kind.equals(END)) {
+            next = null;
+        }
+        return token;
+    }
+
+    /**
+     * Consumes the rest of the input as it is written, without splitting it into tokens,
+     * and returns it without surrounding whitespace
+     */
+    String rest() {
+        int start = next != null ? next.start : position;
+        next = null;
+        position = input.length();
+        return input.substring(start).trim();
+    }
+
+    /* Gets the input as written from the given index up to the next token */
+    String textFrom(int start) {
+        return input.substring(start, peek().start).trim();
+    }
+
+    /* Consumes the next token if it is the given symbol or name */
+    boolean accept(String symbolOrName) {
+        if (peek().is(symbolOrName)) {
+            next();
+            return true;
+        }
+        return false;
+    }
+
+    /* Consumes the next token, which must be the given symbol or name */
+    void expect(String symbolOrName) {
+        if (!accept(symbolOrName)) {
+            throw error("Expected " + symbolOrName);
+        }
+    }
+
+    /* Consumes the next token, which must be a name, and returns its text */
+    String expectName() {
+        if (!peek().kind.equals(NAME)) {
+            throw error("Expected a name");
+        }
+        return next().text;
+    }
+
+    /* Gets the index of the next parameter placeholder, numbering them in order */
+    int nextParameter() {
+        parameters += 1;
+        return parameters - 1;
+    }
+
+    /* Gets the number of parameter placeholders parsed so far */
+    int parameterCount() {
+        return parameters;
+    }
+
+    /* Checks if every token has been consumed */
+    boolean atEnd() {
+        return peek().kind.equals(END);
+    }
+
+    /* Creates an error for an unexpected next token */
+    RuntimeException error(String message) {
+        return new RuntimeException(message + " but found " + peek() + " in: " + input);
+    }
+}
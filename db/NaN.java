@@ -4,6 +4,10 @@ package db;
  * Created by gilbertlin on 3/4/17.
  */
 public class NaN extends SpecialValue {
+
+    //The single NaN item shared by every column
+    static final NaN INSTANCE = new NaN();
+
     private String repr = "NaN";
 
     private float NumRepr = Float.POSITIVE_INFINITY;
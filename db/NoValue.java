@@ -9,6 +9,9 @@ public class NoValue extends SpecialValue {
 
     private static final String repr = "NOVALUE";
 
+    //The single NOVALUE item shared by every column
+    static final NoValue INSTANCE = new NoValue();
+
     @Override
     public String toString() {
         return repr;
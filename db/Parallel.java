@@ -0,0 +1,60 @@
+package db;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs loops over ranges of indices on a fork-join pool. The range is split in halves
+ * until each piece is a single index, so that idle threads steal the remaining pieces.
+ */
+class Parallel {
+
+    /* Runs the body for every index in [0, n) on the pool, and waits for all of them */
+    static void forEach(ForkJoinPool pool, int n, IntConsumer body) {
+        if (pool == null || pool.getParallelism() <= 1 || n <= 1) {
+            for (int i = 0; i < n; i++) {
+                body.accept(i);
+            }
+            return;
+        }
+        pool.invoke(new RangeAction(0, n, body));
+    }
+
+    /* Splits the range [0, n) into the given number of chunks; gets the start of each chunk */
+    static int[] chunkStarts(int n, int numChunks) {
+        int[] starts = new int[numChunks + 1];
+        for (int c = 0; c <= numChunks; c++) {
+            starts[c] = (int) ((long) n * c / numChunks);
+        }
+        return starts;
+    }
+
+    /* Runs the body for every index in the range [start, end) */
+    private static class RangeAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+
+        private final int end;
+
+        private final IntConsumer body;
+
+        RangeAction(int start, int end, IntConsumer body) {
+            this.start = start;
+            this.end = end;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start == 1) {
+                body.accept(start);
+                return;
+            }
+            int mid = (start + end) >>> 1;
+            invokeAll(new RangeAction(start, mid, body), new RangeAction(mid, end, body));
+        }
+    }
+}
@@ -1,41 +1,31 @@
 package db;
 
 import java.util.ArrayList;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
 import java.util.List;
-import java.util.LinkedList;
 
 /**
  * Created by Joseph on 3/1/2017.
+ *
+ * Parses statements by recursive descent over the tokens of a lexer, in a single pass
+ * over the statement. The grammar is
+ *
+ *   statement := "create" "table" name ("(" column ("," column)* ")" | "as" select)
+ *              | "create" "index" name "on" name "(" name ")" ("using" ("hash" | "btree" | "bitmap"))?
+ *              | "load" rest | "store" name ("as" "binary")? | "drop" "table" rest
+ *              | "print" rest
+ *              | "insert" "into" name "values" (row | "(" row ")" ("," "(" row ")")*)
+ *              | "select" select | "tables"
+ *   column    := name type
+ *   row       := (item | "?") ("," (item | "?"))*
+ *   select    := ("*" | name "(" (name | "*") ")" | colExpr ("," colExpr)*)
+ *                "from" name ("," name)* ("where" expression)?
+ *   colExpr   := expression ("as" name)?
+ *
+ * where expressions are parsed by ExpressionParser, rest is the rest of the statement as
+ * written, an item is the text as written up to the next comma, and "?" is a placeholder
+ * for a parameter bound when the statement is run.
  */
 public class Parser {
-    // Various common constructs, simplifies parsing.
-    private static final String REST  = "\\s*(.*)\\s*",
-            COMMA = "\\s*,\\s*",
-            AND   = "\\s+and\\s+";
-
-    // Stage 1 syntax, contains the command name.
-    private static final Pattern CREATE_CMD = Pattern.compile("create table " + REST),
-            LOAD_CMD   = Pattern.compile("load " + REST),
-            STORE_CMD  = Pattern.compile("store " + REST),
-            DROP_CMD   = Pattern.compile("drop table " + REST),
-            INSERT_CMD = Pattern.compile("insert into " + REST),
-            PRINT_CMD  = Pattern.compile("print " + REST),
-            SELECT_CMD = Pattern.compile("select " + REST),
-            TABLES_CMD = Pattern.compile("tables");
-
-    // Stage 2 syntax, contains the clauses of commands.
-    private static final Pattern CREATE_NEW  = Pattern.compile("(\\S+)\\s+\\((\\S+\\s+\\S+\\s*" +
-            "(?:,\\s*\\S+\\s+\\S+\\s*)*)\\)"),
-            SELECT_CLS  = Pattern.compile("([^,]+?(?:,[^,]+?)*)\\s+from\\s+" +
-                    "(\\S+\\s*(?:,\\s*\\S+\\s*)*)(?:\\s+where\\s+" +
-                    "([\\w\\s+\\-*/'<>=!]+?(?:\\s+and\\s+" +
-                    "[\\w\\s+\\-*/'<>=!]+?)*))?"),
-            CREATE_SEL  = Pattern.compile("(\\S+)\\s+as select\\s+" +
-                    SELECT_CLS.pattern()),
-            INSERT_CLS  = Pattern.compile("(\\S+)\\s+values\\s+(.+?" +
-                    "\\s*(?:,\\s*.+?\\s*)*)");
 
     public static void main(String[] args) {
         /* if (args.length != 1) {
@@ -45,151 +35,183 @@ public class Parser {
         String s = "";
         for (int i = 0; i < args.length; i++)
             s += args[i] + " ";
-        eval(s);
+        parse(s);
     }
 
-    static List<String> eval(String query) {
-        Matcher m;
-        if ((m = CREATE_CMD.matcher(query)).matches()) {
-            return createTable(m.group(1));
-        } else if ((m = LOAD_CMD.matcher(query)).matches()) {
-            return loadTable(m.group(1));
-        } else if ((m = STORE_CMD.matcher(query)).matches()) {
-            return storeTable(m.group(1));
-        } else if ((m = DROP_CMD.matcher(query)).matches()) {
-            return dropTable(m.group(1));
-        } else if ((m = INSERT_CMD.matcher(query)).matches()) {
-            return insertRow(m.group(1));
-        } else if ((m = PRINT_CMD.matcher(query)).matches()) {
-            return printTable(m.group(1));
-        } else if ((m = SELECT_CMD.matcher(query)).matches()) {
-            return select(m.group(1));
-        } else if (TABLES_CMD.matcher(query).matches()) {
-            List<String> tables = new LinkedList<>();
-            tables.add("tables");
-            tables.add("dummy");
-            return tables;
-        }
-        else {
+    /* Parses a statement; throws a RuntimeException if it is malformed */
+    static Statement parse(String query) {
+        Lexer lexer = new Lexer(query);
+        try {
+            Statement statement = parseStatement(lexer);
+            if (!lexer.atEnd()) {
+                throw lexer.error("Expected the end of the statement");
+            }
+            return statement;
+        } catch (RuntimeException e) {
             System.err.printf("Malformed query: %s\n", query);
+            throw e;
         }
-        return null;
     }
 
-    /* Checks the method of creating a table. Returns a list of strings where 0-th item is
-     * the command and 1st is the table name
-     */
-    private static List<String> createTable(String expr) {
-        Matcher m;
-        //A list of the arguments to create the table
-        List<String> stringArgs = new LinkedList<>();
-        if ((m = CREATE_NEW.matcher(expr)).matches()) {
-            stringArgs.add("create new table");
-            //Group 1 is the name of the new table
-            stringArgs.add(m.group(1));
-            //Group 2 is an array of strings of the columns
-            String[] cols = m.group(2).split(COMMA);
-            for (String col : cols) {
-                if (col.matches("^.*[^a-zA-Z0-9 ].*$")) {
-                    System.err.printf("Invalid column name: %s\n", col);
-                    throw new RuntimeException();
+    private static Statement parseStatement(Lexer lexer) {
+        Lexer.Token command = lexer.next();
+        switch (command.kind.equals(Lexer.NAME) ? command.text : "") {
+            case "create":
+                if (lexer.accept("index")) {
+                    return createIndex(lexer);
                 }
-                stringArgs.add(col);
-            }
-            return stringArgs;
-        } else if ((m = CREATE_SEL.matcher(expr)).matches()) {
-            //TODO: Implement splitting of strings into individual data
-            stringArgs.add("create selected table");
-            //Group 1 is the name of the table
-            stringArgs.add(m.group(1));
-            //Group 2 is the string of column expressions
-            stringArgs.add(m.group(2));
-            //Group 3 is the string of table name/s to get from
-            stringArgs.add(m.group(3));
-            //Group 4 is the string of the conditional expressions
-            stringArgs.add(m.group(4));
-            return stringArgs;
-        } else {
-            System.err.printf("Malformed create: %s\n", expr);
-            throw new RuntimeException();
+                lexer.expect("table");
+                return createTable(lexer);
+            case "load":
+                return new Statement.Load(lexer.rest());
+            case "store":
+                return store(lexer);
+            case "drop":
+                lexer.expect("table");
+                return new Statement.Drop(lexer.rest());
+            case "insert":
+                lexer.expect("into");
+                return insertRow(lexer);
+            case "print":
+                return new Statement.Print(lexer.rest());
+            case "select":
+                return select(lexer);
+            case "tables":
+                return new Statement.Tables();
+            default:
+                throw new RuntimeException("Unknown command " + command);
         }
     }
 
-    private static List<String> loadTable(String name) {
-        List<String> stringArgs = new ArrayList<>();
-        stringArgs.add("load");
-        stringArgs.add(name);
-        return stringArgs;
-    }
-
-    private static List<String> storeTable(String name) {
-        List<String> stringArgs = new LinkedList<>();
-        stringArgs.add("store");
-        stringArgs.add(name);
-        return stringArgs;
+    /* Parses the rest of a create statement, which either lists columns or selects them */
+    private static Statement createTable(Lexer lexer) {
+        String name = lexer.expectName();
+        if (lexer.accept("as")) {
+            lexer.expect("select");
+            return new Statement.CreateSelected(name, select(lexer));
+        }
+        lexer.expect("(");
+        //The names and types of the columns, alternating
+        List<String> columnInfo = new ArrayList<>();
+        do {
+            String colName = lexer.expectName();
+            if (!colName.matches("[a-zA-Z0-9]+")) {
+                System.err.printf("Invalid column name: %s\n", colName);
+                throw new RuntimeException();
+            }
+            columnInfo.add(colName);
+            columnInfo.add(lexer.expectName());
+        } while (lexer.accept(","));
+        lexer.expect(")");
+        return new Statement.CreateTable(name, columnInfo);
     }
 
-    private static List<String> dropTable(String name) {
-        List<String> stringArgs = new LinkedList<>();
-        stringArgs.add("drop");
-        stringArgs.add(name);
-        return stringArgs;
+    /* Parses the rest of a create index statement, following the "index" */
+    private static Statement createIndex(Lexer lexer) {
+        String indexName = lexer.expectName();
+        lexer.expect("on");
+        String tableName = lexer.expectName();
+        lexer.expect("(");
+        String colName = lexer.expectName();
+        lexer.expect(")");
+        //Indexes are hash indexes unless another kind is given
+        String kind = lexer.accept("using") ? lexer.expectName() : "hash";
+        return new Statement.CreateIndex(indexName, tableName, colName, kind);
     }
 
-    /* Returns the list of values in the row to be added, as strings */
-    private static List<String> insertRow(String expr) {
-        Matcher m = INSERT_CLS.matcher(expr);
-        //A list of the arguments to insert into table
-        List<String> stringArgs = new LinkedList<>();
-        stringArgs.add("insert");
-
-        if (!m.matches()) {
-            System.err.printf("Malformed insert: %s\n", expr);
-            return null;
+    /* Parses the rest of a store statement; the name is kept as written, up to any "as" */
+    private static Statement store(Lexer lexer) {
+        int start = lexer.peek().start;
+        while (!lexer.atEnd() && !lexer.peek().is("as")) {
+            lexer.next();
         }
-        //Adds the name of the table
-        stringArgs.add(m.group(1));
-
-        //Adds a string of the values to be inserted
-        String row = m.group(2).replaceAll(",", " , ");
-
-        String[] rowValues = row.split(",");
-        for (String val : rowValues) {
-            stringArgs.add(val);
+        String name = lexer.textFrom(start);
+        boolean binary = lexer.accept("as");
+        if (binary) {
+            lexer.expect("binary");
         }
-        return stringArgs;
+        return new Statement.Store(name, binary);
     }
 
-    /* Returns a list of strings where 0-th element is the command and 1st element is the table name */
-    private static List<String> printTable(String name) {
-        //System.out.printf("You are trying to print the table named %s\n", name);
-        List<String> stringArgs = new LinkedList<>();
-        stringArgs.add("print");
-        stringArgs.add(name);
-        return stringArgs;
+    /**
+     * Parses the rest of an insert statement, which gives either a single row, or any
+     * number of rows each in parentheses; the items are kept as written
+     */
+    private static Statement insertRow(Lexer lexer) {
+        String name = lexer.expectName();
+        lexer.expect("values");
+        List<List<String>> rows = new ArrayList<>();
+        if (!lexer.peek().is("(")) {
+            rows.add(row(lexer, null));
+        } else {
+            do {
+                lexer.expect("(");
+                rows.add(row(lexer, ")"));
+                lexer.expect(")");
+            } while (lexer.accept(","));
+        }
+        return new Statement.Insert(name, rows, lexer.parameterCount());
     }
 
+    /* Parses the items of a row, which ends at the end of the statement or the given symbol */
+    private static List<String> row(Lexer lexer, String end) {
+        List<String> values = new ArrayList<>();
+        do {
+            int start = lexer.peek().start;
+            if (lexer.accept("?")) {
+                //A parameter placeholder must be the whole item
+                lexer.nextParameter();
+            }
+            while (!lexer.atEnd() && !lexer.peek().is(",")
+                    && (end == null || !lexer.peek().is(end))) {
+                if (lexer.next().is("?")) {
+                    throw lexer.error("Expected a placeholder to be a whole item");
+                }
+            }
+            values.add(lexer.textFrom(start));
+        } while (lexer.accept(","));
+        return values;
+    }
 
-    private static List<String> select(String expr) {
-        Matcher m = SELECT_CLS.matcher(expr);
-        if (!m.matches()) {
-            System.err.printf("Malformed select: %s\n", expr);
-            return null;
+    /* Parses the clauses of a select, following the "select" */
+    private static Statement.Select select(Lexer lexer) {
+        List<ColumnExpression> colExprs = null;
+        String aggFunc = null;
+        String aggColName = null;
+        if (!lexer.accept("*")) {
+            ExpressionParser exprParser = new ExpressionParser(lexer);
+            Expression expr = exprParser.parseExpression();
+            if (expr instanceof Expression.Name && lexer.accept("(")) {
+                //An aggregation function applied to a column, or to every row
+                aggFunc = ((Expression.Name) expr).name;
+                aggColName = lexer.accept("*") ? "*" : lexer.expectName();
+                lexer.expect(")");
+            } else {
+                colExprs = new ArrayList<>();
+                colExprs.add(columnExpression(lexer, expr));
+                while (lexer.accept(",")) {
+                    colExprs.add(columnExpression(lexer, exprParser.parseExpression()));
+                }
+            }
         }
-        List<String> stringArgs = new LinkedList<>();
-        stringArgs.add("select");
-        stringArgs.add("None");
-
-        //Group 1 is the string of column expressions
-        stringArgs.add(m.group(1));
 
-        //Group 2 is the string of table name/s to get from
-        stringArgs.add(m.group(2));
+        lexer.expect("from");
+        List<String> tableNames = new ArrayList<>();
+        do {
+            tableNames.add(lexer.expectName());
+        } while (lexer.accept(","));
 
-        //Group 3 is the string of conditional expressions
-        stringArgs.add(m.group(3));
-
-        return stringArgs;
+        Expression where = null;
+        if (lexer.accept("where")) {
+            where = new ExpressionParser(lexer).parseExpression();
+        }
+        return new Statement.Select(colExprs, aggFunc, aggColName, tableNames, where,
+                lexer.parameterCount());
     }
 
+    /* Parses the alias, if any, of a column expression that has just been parsed */
+    private static ColumnExpression columnExpression(Lexer lexer, Expression expr) {
+        String alias = lexer.accept("as") ? lexer.expectName() : null;
+        return new ColumnExpression(expr, alias);
+    }
 }
@@ -0,0 +1,202 @@
+package db;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A hash join run in parallel on a fork-join pool. The rows of both inputs are radix
+ * partitioned on the high bits of the hash of their shared columns, so that matching
+ * rows always fall in the same partition; partitions are sized so that the hash table
+ * of one fits in cache, and are joined independently of each other.
+ *
+ * Every left row falls in a single partition, so partitions write the pairs of each of
+ * their left rows to disjoint ranges of the output, which gives the same order as a
+ * serial join without any locking.
+ */
+class PartitionedHashJoin {
+
+    //The number of build rows aimed for in each partition
+    static final int PARTITION_ROWS = 1 << 13;
+
+    //The most bits of the hash used to pick a partition
+    private static final int MAX_PARTITION_BITS = 14;
+
+    private final HashJoin hashJoin;
+
+    private final ForkJoinPool pool;
+
+    PartitionedHashJoin(HashJoin hashJoin, ForkJoinPool pool) {
+        this.hashJoin = hashJoin;
+        this.pool = pool;
+    }
+
+    /**
+     * Joins the given rows of the left and right tables. Returns an array of two
+     * arrays, holding the left and the right row id of each matching pair
+     */
+    int[][] join(BitSet leftRows, BitSet rightRows) {
+        //Builds on the smaller input
+        boolean buildLeft = leftRows.cardinality() < rightRows.cardinality();
+        Column[] buildKeys = buildLeft ? hashJoin.leftKeys : hashJoin.rightKeys;
+        Column[] probeKeys = buildLeft ? hashJoin.rightKeys : hashJoin.leftKeys;
+        int[] buildIds = (buildLeft ? leftRows : rightRows).stream().toArray();
+        int[] probeIds = (buildLeft ? rightRows : leftRows).stream().toArray();
+
+        //Uses enough partitions to keep every thread busy and each hash table small
+        int partitionBits = 32 - Integer.numberOfLeadingZeros(
+                Math.max(pool.getParallelism() * 4, buildIds.length / PARTITION_ROWS) - 1);
+        partitionBits = Math.min(Math.max(partitionBits, 1), MAX_PARTITION_BITS);
+        int numPartitions = 1 << partitionBits;
+
+        //Hashes and partitions both inputs
+        int[] buildHashes = hashRows(buildKeys, buildIds);
+        int[] probeHashes = hashRows(probeKeys, probeIds);
+        int[][] buildParts = partition(buildIds, buildHashes, partitionBits);
+        int[][] probeParts = partition(probeIds, probeHashes, partitionBits);
+
+        //Joins each partition, counting the pairs found for every left row
+        int numLeftRows = leftRows.length();
+        int[] pairCounts = new int[numLeftRows + 1];
+        IntList[][] partPairs = new IntList[numPartitions][];
+        Parallel.forEach(pool, numPartitions, p -> partPairs[p] = joinPartition(
+                buildParts, probeParts, p, buildLeft, pairCounts));
+
+        //Turns the counts into the start of the output range of each left row
+        int numPairs = 0;
+        for (int r = 0; r < numLeftRows; r++) {
+            int count = pairCounts[r];
+            pairCounts[r] = numPairs;
+            numPairs += count;
+        }
+
+        //Writes the pairs of every partition to the ranges of their left rows
+        int[] outLeft = new int[numPairs];
+        int[] outRight = new int[numPairs];
+        Parallel.forEach(pool, numPartitions, p -> {
+            IntList lefts = partPairs[p][0];
+            IntList rights = partPairs[p][1];
+            for (int i = 0; i < lefts.size(); i++) {
+                int pos = pairCounts[lefts.get(i)]++;
+                outLeft[pos] = lefts.get(i);
+                outRight[pos] = rights.get(i);
+            }
+        });
+        return new int[][]{outLeft, outRight};
+    }
+
+    /* Hashes the shared columns of each row in parallel */
+    private int[] hashRows(Column[] keys, int[] ids) {
+        int[] hashes = new int[ids.length];
+        int numChunks = numChunks(ids.length);
+        int[] starts = Parallel.chunkStarts(ids.length, numChunks);
+        Parallel.forEach(pool, numChunks, c -> {
+            for (int i = starts[c]; i < starts[c + 1]; i++) {
+                hashes[i] = HashJoin.hash(keys, ids[i]);
+            }
+        });
+        return hashes;
+    }
+
+    /**
+     * Radix partitions the row ids on the high bits of their hashes. Gets, for each
+     * partition, an array of its row ids in ascending order followed by their hashes
+     */
+    private int[][] partition(int[] ids, int[] hashes, int partitionBits) {
+        int numPartitions = 1 << partitionBits;
+        int shift = 32 - partitionBits;
+        int numChunks = numChunks(ids.length);
+        int[] starts = Parallel.chunkStarts(ids.length, numChunks);
+
+        //Counts the rows of each chunk falling in each partition
+        int[][] histograms = new int[numChunks][numPartitions];
+        Parallel.forEach(pool, numChunks, c -> {
+            for (int i = starts[c]; i < starts[c + 1]; i++) {
+                histograms[c][hashes[i] >>> shift] += 1;
+            }
+        });
+
+        //Each chunk writes its rows of a partition after those of the chunks before it,
+        //so rows stay in ascending order within a partition
+        int[][] parts = new int[numPartitions][];
+        for (int p = 0; p < numPartitions; p++) {
+            int offset = 0;
+            for (int c = 0; c < numChunks; c++) {
+                int count = histograms[c][p];
+                histograms[c][p] = offset;
+                offset += count;
+            }
+            parts[p] = new int[offset * 2];
+        }
+        Parallel.forEach(pool, numChunks, c -> {
+            int[] offsets = histograms[c];
+            for (int i = starts[c]; i < starts[c + 1]; i++) {
+                int p = hashes[i] >>> shift;
+                int[] part = parts[p];
+                int pos = offsets[p]++;
+                part[pos] = ids[i];
+                part[part.length / 2 + pos] = hashes[i];
+            }
+        });
+        return parts;
+    }
+
+    /**
+     * Joins the rows of one partition with a hash table on its build rows. Gets the
+     * left and right row ids of the matching pairs, and counts the pairs of each left row
+     */
+    private IntList[] joinPartition(int[][] buildParts, int[][] probeParts, int p,
+                                    boolean buildLeft, int[] pairCounts) {
+        Column[] buildKeys = buildLeft ? hashJoin.leftKeys : hashJoin.rightKeys;
+        Column[] probeKeys = buildLeft ? hashJoin.rightKeys : hashJoin.leftKeys;
+        int[] build = buildParts[p];
+        int[] probe = probeParts[p];
+        int buildSize = build.length / 2;
+        int probeSize = probe.length / 2;
+
+        //Buckets hold the position of the first build row of a chain, linked by next
+        int numBuckets = Integer.highestOneBit(Math.max(buildSize, 1)) << 1;
+        int mask = numBuckets - 1;
+        int[] buckets = new int[numBuckets];
+        Arrays.fill(buckets, -1);
+        int[] next = new int[buildSize];
+        //Adds rows in descending order, so that every chain lists its rows in ascending order
+        for (int i = buildSize - 1; i >= 0; i--) {
+            if (!HashJoin.hasSpecialKey(buildKeys, build[i])) {
+                int bucket = build[buildSize + i] & mask;
+                next[i] = buckets[bucket];
+                buckets[bucket] = i;
+            }
+        }
+
+        IntList lefts = new IntList();
+        IntList rights = new IntList();
+        for (int i = 0; i < probeSize; i++) {
+            int probeRow = probe[i];
+            int probeHash = probe[probeSize + i];
+            if (HashJoin.hasSpecialKey(probeKeys, probeRow)) {
+                continue;
+            }
+            for (int b = buckets[probeHash & mask]; b >= 0; b = next[b]) {
+                if (build[buildSize + b] != probeHash) {
+                    continue;
+                }
+                int left = buildLeft ? build[b] : probeRow;
+                int right = buildLeft ? probeRow : build[b];
+                if (hashJoin.keysMatch(left, right)) {
+                    lefts.add(left);
+                    rights.add(right);
+                    //Left rows of different partitions are distinct, so no other
+                    //partition counts this row
+                    pairCounts[left] += 1;
+                }
+            }
+        }
+        return new IntList[]{lefts, rights};
+    }
+
+    /* Gets the number of chunks to split n rows into for the threads of the pool */
+    private int numChunks(int n) {
+        return Math.max(1, Math.min(n / 1024, pool.getParallelism() * 4));
+    }
+}
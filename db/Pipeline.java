@@ -0,0 +1,114 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Runs the steps of a select that follow its joins over the joined table a batch of
+ * Table.BATCH_ROWS rows at a time. The rows of a batch are filtered by the conditionals
+ * on the joined table, projected onto the selected columns and filtered by the
+ * conditionals on those, and what is left is added to the result before the next
+ * batch is read. The columns of a batch are gathered from the tables that were joined
+ * only as the steps read them, so no whole column of the joined table is gathered.
+ *
+ * The joins are the breakers of the pipeline: each keeps the row ids of the rows it
+ * joins (see Table.join), and the result is the only other table kept whole.
+ */
+class Pipeline {
+
+    //The conditionals tested on the joined table, and on the selected columns
+    private final List<Conditional> joinedConds;
+
+    private final List<Conditional> selectedConds;
+
+    //The column expressions to select; null when selecting all columns
+    private final List<ColumnExpression> colExprs;
+
+    Pipeline(List<Conditional> joinedConds, List<ColumnExpression> colExprs,
+             List<Conditional> selectedConds) {
+        this.joinedConds = joinedConds;
+        this.colExprs = colExprs;
+        this.selectedConds = selectedConds;
+    }
+
+    /**
+     * Removes the rows not satisfying the conditionals on the joined table from its
+     * selection, testing a batch of rows at a time
+     */
+    void filter(Table joined) {
+        if (joinedConds.isEmpty()) {
+            return;
+        }
+        List<String> names = new ArrayList<>(joined.getColumnNames());
+        BitSet kept = new BitSet(joined.numAllRows());
+        for (int start = 0; start < joined.numAllRows(); start += Table.BATCH_ROWS) {
+            int[] rows = joined.selectedRowIds(start, start + Table.BATCH_ROWS);
+            Table batch = filterBatch(joined.gatherRows(names, rows));
+            BitSet batchKept = batch.selectedRows();
+            batch.release();
+            for (int k = batchKept.nextSetBit(0); k >= 0; k = batchKept.nextSetBit(k + 1)) {
+                kept.set(rows[k]);
+            }
+        }
+        joined.select(kept);
+    }
+
+    /**
+     * Gets the selected columns of the rows of the joined table satisfying the
+     * conditionals, a table holding just those rows
+     */
+    Table select(Table joined) {
+        List<String> names = new ArrayList<>(joined.getColumnNames());
+        List<Column> result = null;
+        //A table without rows still gives the columns of the result
+        int start = 0;
+        do {
+            int[] rows = joined.selectedRowIds(start, start + Table.BATCH_ROWS);
+            Table gathered = filterBatch(joined.gatherRows(names, rows));
+            Table selected = colExprs != null ? gathered.selectColumns(colExprs)
+                    : gathered.materialize();
+            Table batch = selected;
+            if (!selectedConds.isEmpty()) {
+                selected.removeRowsConditions(selectedConds);
+                batch = selected.materialize();
+            }
+            List<Column> batchCols = batch.getColumns();
+            if (result == null) {
+                result = new ArrayList<>();
+                for (Column col : batchCols) {
+                    result.add(col.empty());
+                }
+            }
+            for (int c = 0; c < batchCols.size(); c++) {
+                result.get(c).appendAll(batchCols.get(c));
+            }
+            release(gathered, selected, batch);
+            start += Table.BATCH_ROWS;
+        } while (start < joined.numAllRows());
+        return new Table(result);
+    }
+
+    /**
+     * Releases the tables a batch went through once it is added to the result, so that
+     * its columns give up their shares of the dictionaries of the joined columns; a step
+     * may give back the table it was given, which is released once
+     */
+    private static void release(Table gathered, Table selected, Table batch) {
+        gathered.release();
+        if (selected != gathered) {
+            selected.release();
+        }
+        if (batch != selected && batch != gathered) {
+            batch.release();
+        }
+    }
+
+    /* Removes the rows of a batch not satisfying the conditionals on the joined table */
+    private Table filterBatch(Table batch) {
+        if (!joinedConds.isEmpty()) {
+            batch.removeRowsConditions(joinedConds);
+        }
+        return batch;
+    }
+}
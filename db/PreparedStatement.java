@@ -0,0 +1,28 @@
+package db;
+
+/**
+ * A statement parsed once and run any number of times on a database, with each "?" in
+ * it replaced by the value of a parameter. Parameters are ints, floats, strings, or null
+ * for NOVALUE, given in the order their placeholders appear in the statement.
+ */
+public class PreparedStatement {
+
+    private final Database db;
+
+    private final Statement statement;
+
+    PreparedStatement(Database db, Statement statement) {
+        this.db = db;
+        this.statement = statement;
+    }
+
+    /* Gets the number of parameters the statement takes */
+    public int parameterCount() {
+        return statement.parameterCount;
+    }
+
+    /* Runs the statement with the given parameters, returning what it prints */
+    public String execute(Object... parameters) {
+        return db.execute(statement, parameters);
+    }
+}
@@ -0,0 +1,29 @@
+package db;
+
+/**
+ * Counts the columns sharing the same underlying arrays and bitmaps. A column only
+ * changes its storage when no other column shares it; otherwise it first makes its
+ * own copy of the storage (copy-on-write).
+ */
+class RefCount {
+
+    //The number of columns sharing the storage
+    private int count = 1;
+
+    /* Adds a column to the columns sharing the storage */
+    synchronized void retain() {
+        count += 1;
+    }
+
+    /* Removes a column from the columns sharing the storage */
+    synchronized void release() {
+        if (count > 0) {
+            count -= 1;
+        }
+    }
+
+    /* Checks if more than one column shares the storage */
+    synchronized boolean isShared() {
+        return count > 1;
+    }
+}
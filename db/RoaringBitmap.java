@@ -0,0 +1,262 @@
+package db;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A compressed bitmap of rows, split like a Roaring bitmap into containers of the rows
+ * of each group of 2^16 rows. A container of few rows keeps them as a sorted array of
+ * their lower 16 bits; one of more than ARRAY_ROWS rows keeps them as a bitmap of
+ * 2^16 bits. A sparse bitmap thus takes two bytes a row, and a dense one an eighth of a
+ * byte a row, and two bitmaps are intersected a container at a time, by merging arrays,
+ * looking up the items of an array in a bitmap, or and-ing the words of two bitmaps.
+ */
+class RoaringBitmap {
+
+    //The most rows a container keeps as an array; 2^16 bits take as many bytes as this
+    static final int ARRAY_ROWS = 4096;
+
+    //The upper 16 bits of the rows of each container, in ascending order
+    private char[] keys = new char[4];
+
+    private Container[] containers = new Container[4];
+
+    private int size;
+
+    /* Adds a row; rows are added in ascending order, but need not be */
+    void add(int row) {
+        char key = (char) (row >>> 16);
+        //Rows are usually added to the last container
+        int i = size > 0 && keys[size - 1] == key ? size - 1
+                : Arrays.binarySearch(keys, 0, size, key);
+        if (i < 0) {
+            i = -i - 1;
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                containers = Arrays.copyOf(containers, size * 2);
+            }
+            System.arraycopy(keys, i, keys, i + 1, size - i);
+            System.arraycopy(containers, i, containers, i + 1, size - i);
+            keys[i] = key;
+            containers[i] = new ArrayContainer(new char[4], 0);
+            size += 1;
+        }
+        containers[i] = containers[i].add((char) row);
+    }
+
+    /* Counts the rows */
+    int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    /* Gets a new bitmap of the rows in both this and the other bitmap */
+    RoaringBitmap and(RoaringBitmap other) {
+        RoaringBitmap result = new RoaringBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i += 1;
+            } else if (keys[i] > other.keys[j]) {
+                j += 1;
+            } else {
+                Container both = containers[i].and(other.containers[j]);
+                if (both.cardinality() > 0) {
+                    result.append(keys[i], both);
+                }
+                i += 1;
+                j += 1;
+            }
+        }
+        return result;
+    }
+
+    /* Gets the rows as a BitSet, built from its words rather than a row at a time */
+    BitSet toBitSet() {
+        if (size == 0) {
+            return new BitSet();
+        }
+        long[] words = new long[(keys[size - 1] + 1) << 10];
+        for (int i = 0; i < size; i++) {
+            containers[i].copyTo(words, keys[i] << 10);
+        }
+        return BitSet.valueOf(words);
+    }
+
+    /* Adds a container after every other container */
+    private void append(char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        keys[size] = key;
+        containers[size] = container;
+        size += 1;
+    }
+
+    /* The rows of a group of 2^16 rows, given by their lower 16 bits */
+    private abstract static class Container {
+        /* Adds a row, getting the container that holds the rows afterwards */
+        abstract Container add(char low);
+
+        abstract int cardinality();
+
+        abstract boolean contains(char low);
+
+        /* Gets a new container of the rows in both containers */
+        abstract Container and(Container other);
+
+        /* Sets the bits of the rows in the words, starting at the given word */
+        abstract void copyTo(long[] words, int offset);
+    }
+
+    private static class ArrayContainer extends Container {
+        private char[] lows;
+
+        private int size;
+
+        ArrayContainer(char[] lows, int size) {
+            this.lows = lows;
+            this.size = size;
+        }
+
+        @Override
+        Container add(char low) {
+            int i = size > 0 && lows[size - 1] < low ? -size - 1
+                    : Arrays.binarySearch(lows, 0, size, low);
+            if (i >= 0) {
+                return this;
+            } else if (size == ARRAY_ROWS) {
+                return new BitmapContainer(this).add(low);
+            }
+            i = -i - 1;
+            if (size == lows.length) {
+                lows = Arrays.copyOf(lows, Math.min(size * 2, ARRAY_ROWS));
+            }
+            System.arraycopy(lows, i, lows, i + 1, size - i);
+            lows[i] = low;
+            size += 1;
+            return this;
+        }
+
+        @Override
+        int cardinality() {
+            return size;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return Arrays.binarySearch(lows, 0, size, low) >= 0;
+        }
+
+        @Override
+        Container and(Container other) {
+            char[] both = new char[size];
+            int n = 0;
+            if (other instanceof ArrayContainer) {
+                //Merges the two sorted arrays
+                ArrayContainer array = (ArrayContainer) other;
+                int i = 0;
+                int j = 0;
+                while (i < size && j < array.size) {
+                    if (lows[i] < array.lows[j]) {
+                        i += 1;
+                    } else if (lows[i] > array.lows[j]) {
+                        j += 1;
+                    } else {
+                        both[n] = lows[i];
+                        n += 1;
+                        i += 1;
+                        j += 1;
+                    }
+                }
+            } else {
+                for (int i = 0; i < size; i++) {
+                    if (other.contains(lows[i])) {
+                        both[n] = lows[i];
+                        n += 1;
+                    }
+                }
+            }
+            return new ArrayContainer(both, n);
+        }
+
+        @Override
+        void copyTo(long[] words, int offset) {
+            for (int i = 0; i < size; i++) {
+                words[offset + (lows[i] >>> 6)] |= 1L << lows[i];
+            }
+        }
+    }
+
+    private static class BitmapContainer extends Container {
+        private final long[] words;
+
+        private int cardinality;
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        BitmapContainer(ArrayContainer array) {
+            this(new long[1 << 10], array.size);
+            array.copyTo(words, 0);
+        }
+
+        @Override
+        Container add(char low) {
+            if (!contains(low)) {
+                words[low >>> 6] |= 1L << low;
+                cardinality += 1;
+            }
+            return this;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            long[] otherWords = ((BitmapContainer) other).words;
+            long[] both = new long[words.length];
+            int n = 0;
+            for (int w = 0; w < words.length; w++) {
+                both[w] = words[w] & otherWords[w];
+                n += Long.bitCount(both[w]);
+            }
+            if (n > ARRAY_ROWS) {
+                return new BitmapContainer(both, n);
+            }
+            //Few enough rows are left to keep them as an array
+            char[] lows = new char[n];
+            int i = 0;
+            for (int w = 0; w < both.length; w++) {
+                for (long word = both[w]; word != 0; word &= word - 1) {
+                    lows[i] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+                    i += 1;
+                }
+            }
+            return new ArrayContainer(lows, n);
+        }
+
+        @Override
+        void copyTo(long[] words, int offset) {
+            System.arraycopy(this.words, 0, words, offset, this.words.length);
+        }
+    }
+}
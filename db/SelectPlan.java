@@ -0,0 +1,294 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A plan for evaluating a select statement over the tables of a database. Rather than
+ * joining every table first, the plan
+ *  - filters each table on the conditionals that only use its own columns before
+ *    joining it,
+ *  - joins on comparisons for equality between columns of different tables, along
+ *    with the columns the tables share,
+ *  - drops the columns of each table that the statement doesn't use before joining,
+ *  - joins the tables in the order estimated to be cheapest (see JoinOrder).
+ * Conditionals using other columns of several tables are tested on the joined table,
+ * and conditionals using the aliases of column expressions on the selected columns;
+ * over a joined table, these steps are run a batch of rows at a time (see Pipeline).
+ */
+class SelectPlan {
+
+    //The names of the tables to select from, in the order they are given
+    private final String[] tableNames;
+
+    //The column expressions to select; null when selecting all columns
+    private final List<ColumnExpression> colExprs;
+
+    //The aggregation function and the column it aggregates; null if there is none
+    private final String aggFunc;
+
+    private final String aggColName;
+
+    //The conditionals tested on each table before it is joined
+    private final List<List<Conditional>> tableConds = new ArrayList<>();
+
+    //The pairs of names of columns of different tables compared for equality, which
+    //the tables are joined on
+    private final List<String[]> joinPairs = new ArrayList<>();
+
+    //The conditionals tested on the joined table, and on the selected columns
+    private final List<Conditional> joinedConds = new ArrayList<>();
+
+    private final List<Conditional> selectedConds = new ArrayList<>();
+
+    //The names of the columns of each table used by the statement
+    private final List<Set<String>> usedColumns = new ArrayList<>();
+
+    /* Plans a select statement over the tables of the database */
+    SelectPlan(Map<String, Table> tables, Statement.Select select) {
+        tableNames = select.tableNames.toArray(new String[0]);
+        List<Table> fromTables = new ArrayList<>();
+        for (String name : tableNames) {
+            //Checks if table names are in database
+            if (!tables.containsKey(name)) {
+                System.out.println("No table " + name + " found in database");
+                throw new RuntimeException();
+            }
+            fromTables.add(tables.get(name));
+            tableConds.add(new ArrayList<>());
+            usedColumns.add(new LinkedHashSet<>());
+        }
+
+        //Names used by the column expressions, and the aliases of expressions they compute
+        Set<String> usedNames = new HashSet<>();
+        Set<String> aliases = new HashSet<>();
+        colExprs = select.colExprs;
+        aggFunc = select.aggFunc;
+        aggColName = select.aggColName;
+        if (aggFunc != null) {
+            usedNames.add(aggColName);
+        } else if (colExprs != null) {
+            for (ColumnExpression colExpr : colExprs) {
+                usedNames.addAll(colExpr.getNames());
+                if (!colExpr.isColumn()) {
+                    aliases.add(colExpr.getAlias());
+                }
+            }
+        } else {
+            //Selecting all columns uses every column
+            for (String name : tableNames) {
+                usedNames.addAll(tables.get(name).getColumnNames());
+            }
+        }
+
+        //Separates the conditional expression by its outermost "and"s
+        if (select.where != null) {
+            for (Expression cond : select.where.conjuncts()) {
+                placeConditional(new Conditional(cond), fromTables, aliases, usedNames);
+            }
+        }
+
+        //Keeps the columns used by the statement and the columns a table shares with
+        //another table, which it is joined on
+        for (int i = 0; i < fromTables.size(); i++) {
+            Set<String> used = usedColumns.get(i);
+            for (String name : fromTables.get(i).getColumnNames()) {
+                if (usedNames.contains(name) || tablesWith(name, fromTables).size() > 1) {
+                    used.add(name);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decides where in the plan a conditional is tested, and adds the names of the
+     * columns it uses to the used names
+     */
+    private void placeConditional(Conditional cond, List<Table> fromTables, Set<String> aliases,
+                                  Set<String> usedNames) {
+        if (!cond.isSimple()) {
+            placeExpression(cond, fromTables, aliases, usedNames);
+            return;
+        }
+        String arg1 = cond.getArg1().trim();
+        String arg2 = cond.getArg2().trim();
+        List<Integer> arg1Tables = tablesWith(arg1, fromTables);
+        List<Integer> arg2Tables = tablesWith(arg2, fromTables);
+        boolean arg2IsColumn = !arg2Tables.isEmpty();
+
+        //Conditionals on the aliases of column expressions, or on names that aren't
+        //columns of any table, are tested on the selected columns
+        if (aliases.contains(arg1) || aliases.contains(arg2) || arg1Tables.isEmpty()) {
+            selectedConds.add(cond);
+            return;
+        }
+        usedNames.add(arg1);
+        if (arg2IsColumn) {
+            usedNames.add(arg2);
+        }
+
+        //Tests the conditional on every table having all of the columns it uses; joined
+        //rows have equal items in shared columns, so any such table will do
+        boolean pushedDown = false;
+        for (int i : arg1Tables) {
+            if (!arg2IsColumn || arg2Tables.contains(i)) {
+                tableConds.get(i).add(cond);
+                pushedDown = true;
+            }
+        }
+        if (pushedDown) {
+            return;
+        }
+
+        //Compares columns of different tables; a comparison for equality is a join
+        //on the two columns at the first join having both of them
+        if (cond.operator.equals("==") && canJoinOn(fromTables, arg1, arg2)) {
+            joinPairs.add(new String[]{arg1, arg2});
+            return;
+        }
+        joinedConds.add(cond);
+    }
+
+    /**
+     * Decides where in the plan a conditional other than a comparison of a column to a
+     * column or literal is tested, like placeConditional
+     */
+    private void placeExpression(Conditional cond, List<Table> fromTables, Set<String> aliases,
+                                 Set<String> usedNames) {
+        Set<String> names = new LinkedHashSet<>();
+        for (String name : cond.getNames()) {
+            if (aliases.contains(name)) {
+                selectedConds.add(cond);
+                return;
+            } else if (!tablesWith(name, fromTables).isEmpty()) {
+                names.add(name);
+            } else if (!Expression.isSpecialValue(name)) {
+                //Names that aren't columns of any table are tested on the selected columns
+                selectedConds.add(cond);
+                return;
+            }
+        }
+        usedNames.addAll(names);
+
+        boolean pushedDown = false;
+        for (int i = 0; i < fromTables.size(); i++) {
+            if (fromTables.get(i).getColumnNames().containsAll(names)) {
+                tableConds.get(i).add(cond);
+                pushedDown = true;
+            }
+        }
+        if (!pushedDown) {
+            joinedConds.add(cond);
+        }
+    }
+
+    /**
+     * Checks if rows can be joined on two columns being equal, giving the same rows as
+     * testing the conditional; joins match items of the same type, and never match NaN.
+     * Strings are not joined on, since joins match them exactly while the conditional
+     * compares strings that look like numbers as numbers ('1.0' == '1').
+     */
+    private static boolean canJoinOn(List<Table> fromTables, String name1, String name2) {
+        String type = null;
+        for (Table t : fromTables) {
+            for (String name : new String[]{name1, name2}) {
+                if (t.getColumnNames().contains(name)) {
+                    Column col = t.getColumn(name);
+                    if (!col.nans.isEmpty() || col.columnType.equals("string")
+                            || type != null && !type.equals(col.columnType)) {
+                        return false;
+                    }
+                    type = col.columnType;
+                }
+            }
+        }
+        return true;
+    }
+
+    /* Gets the indices of the tables having a column with the given name */
+    private static List<Integer> tablesWith(String name, List<Table> fromTables) {
+        List<Integer> indices = new ArrayList<>();
+        for (int i = 0; i < fromTables.size(); i++) {
+            if (fromTables.get(i).getColumnNames().contains(name)) {
+                indices.add(i);
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * Evaluates the plan over the tables of the database, joining large tables in
+     * parallel on the given pool
+     */
+    Table execute(Map<String, Table> tables, ForkJoinPool pool) {
+        //Counts the rows of a single table from its bitmap indexes alone, if they answer
+        //every conditional
+        if ("count".equals(aggFunc) && aggColName.equals("*") && tableNames.length == 1
+                && joinedConds.isEmpty() && selectedConds.isEmpty()) {
+            int count = tables.get(tableNames[0]).countIndexed(tableConds.get(0));
+            if (count >= 0) {
+                return Table.aggregated(aggFunc, aggColName, count);
+            }
+        }
+
+        //Copies of the tables with only their used columns; they share the storage of
+        //the tables in the database instead of duplicating it
+        List<Table> inputs = new ArrayList<>();
+        List<Table> sources = new ArrayList<>();
+        JoinOrder joinOrder = null;
+        try {
+            for (int i = 0; i < tableNames.length; i++) {
+                sources.add(tables.get(tableNames[i]));
+                Table input = sources.get(i).project(usedColumns.get(i));
+                inputs.add(input);
+                if (!tableConds.get(i).isEmpty()) {
+                    input.removeRowsConditions(tableConds.get(i), pool);
+                }
+            }
+
+            //Joins the tables in the order estimated to be cheapest
+            joinOrder = new JoinOrder(inputs, sources, joinPairs);
+            Table selectedTable = joinOrder.join(pool);
+            if (tableNames.length > 1) {
+                //The rest of the select runs over the joined rows a batch at a time
+                Pipeline pipeline = new Pipeline(joinedConds, colExprs, selectedConds);
+                if (aggFunc == null) {
+                    return pipeline.select(selectedTable);
+                }
+                pipeline.filter(selectedTable);
+                return selectedTable.aggregate(aggFunc, aggColName);
+            }
+
+            // If there is an aggregation, evaluate it
+            if (aggFunc != null) {
+                return selectedTable.aggregate(aggFunc, aggColName);
+            }
+
+            // If specific columns are selected, applies the column expressions to the table
+            // and stores the resulting table; otherwise select all
+            if (colExprs != null) {
+                selectedTable = selectedTable.selectColumns(colExprs, pool);
+            } else {
+                selectedTable = selectedTable.copy();
+            }
+            if (!selectedConds.isEmpty()) {
+                selectedTable.removeRowsConditions(selectedConds, pool);
+            }
+            return selectedTable;
+        } finally {
+            //Gives up the copies' shares of the storage, and the joined tables' shares of
+            //the dictionaries; the selected table holds its own
+            if (joinOrder != null) {
+                joinOrder.release();
+            }
+            for (Table input : inputs) {
+                input.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A parsed statement of the database's language. Each kind of statement keeps the parts
+ * it was written with, already split and typed, and runs itself on a database. Parsed
+ * statements are never changed, so that they can be cached and run again; a statement
+ * with parameter placeholders is bound to the values of its parameters before it runs.
+ */
+abstract class Statement {
+
+    //The name of the table the statement creates or uses; null if it names none
+    final String tableName;
+
+    //The number of parameter placeholders in the statement
+    final int parameterCount;
+
+    Statement(String tableName) {
+        this(tableName, 0);
+    }
+
+    Statement(String tableName, int parameterCount) {
+        this.tableName = tableName;
+        this.parameterCount = parameterCount;
+    }
+
+    /* Runs the statement on the database, returning what it prints */
+    abstract String execute(Database db);
+
+    /**
+     * Gets the statement with its parameter placeholders replaced by the given values;
+     * a statement without placeholders is returned as it is
+     */
+    Statement bind(Object[] parameters) {
+        return this;
+    }
+
+    /* create table <name> (<column> <type>, ...) */
+    static class CreateTable extends Statement {
+        //The names of the columns and their types, alternating
+        final List<String> columnInfo;
+
+        CreateTable(String tableName, List<String> columnInfo) {
+            super(tableName);
+            this.columnInfo = columnInfo;
+        }
+
+        @Override
+        String execute(Database db) {
+            return db.createNewTable(tableName, columnInfo);
+        }
+    }
+
+    /* create index <name> on <table> (<column>) [using <kind>] */
+    static class CreateIndex extends Statement {
+        final String indexName;
+
+        final String columnName;
+
+        //The kind of index: hash, btree or bitmap
+        final String kind;
+
+        CreateIndex(String indexName, String tableName, String columnName, String kind) {
+            super(tableName);
+            this.indexName = indexName;
+            this.columnName = columnName;
+            this.kind = kind;
+        }
+
+        @Override
+        String execute(Database db) {
+            return db.createIndex(indexName, tableName, columnName, kind);
+        }
+    }
+
+    /* create table <name> as select ... */
+    static class CreateSelected extends Statement {
+        final Select select;
+
+        CreateSelected(String tableName, Select select) {
+            super(tableName, select.parameterCount);
+            this.select = select;
+        }
+
+        @Override
+        String execute(Database db) {
+            return db.createSelectedTable(tableName, select);
+        }
+
+        @Override
+        Statement bind(Object[] parameters) {
+            return new CreateSelected(tableName, select.bind(parameters));
+        }
+    }
+
+    /* select <column expressions> from <tables> [where <conditional>] */
+    static class Select extends Statement {
+        //The column expressions to select; null when selecting all columns or aggregating
+        final List<ColumnExpression> colExprs;
+
+        //The aggregation function and the column it aggregates; null if there is none
+        final String aggFunc;
+
+        final String aggColName;
+
+        //The names of the tables to select from, in the order they are given
+        final List<String> tableNames;
+
+        //The conditional of the where clause; null if there is none
+        final Expression where;
+
+        Select(List<ColumnExpression> colExprs, String aggFunc, String aggColName,
+               List<String> tableNames, Expression where, int parameterCount) {
+            super(null, parameterCount);
+            this.colExprs = colExprs;
+            this.aggFunc = aggFunc;
+            this.aggColName = aggColName;
+            this.tableNames = tableNames;
+            this.where = where;
+        }
+
+        @Override
+        String execute(Database db) {
+            return db.select(this);
+        }
+
+        @Override
+        Select bind(Object[] parameters) {
+            List<ColumnExpression> boundColExprs = null;
+            if (colExprs != null) {
+                boundColExprs = new ArrayList<>();
+                for (ColumnExpression colExpr : colExprs) {
+                    boundColExprs.add(colExpr.bind(parameters));
+                }
+            }
+            return new Select(boundColExprs, aggFunc, aggColName, tableNames,
+                    where == null ? null : where.bind(parameters), 0);
+        }
+    }
+
+    /* insert into <name> values <item>, ... or insert into <name> values (<item>, ...), ... */
+    static class Insert extends Statement {
+        //The items of each row as written; an item that is a parameter placeholder is "?"
+        final List<List<String>> rows;
+
+        Insert(String tableName, List<List<String>> rows, int parameterCount) {
+            super(tableName, parameterCount);
+            this.rows = rows;
+        }
+
+        @Override
+        String execute(Database db) {
+            return db.insertRows(tableName, rows);
+        }
+
+        @Override
+        Statement bind(Object[] parameters) {
+            //Placeholders are numbered in the order of the rows and their items
+            List<List<String>> boundRows = new ArrayList<>();
+            int next = 0;
+            for (List<String> row : rows) {
+                List<String> boundRow = new ArrayList<>();
+                for (String value : row) {
+                    if (value.equals("?")) {
+                        boundRow.add(Expression.Parameter.itemText(parameters[next]));
+                        next += 1;
+                    } else {
+                        boundRow.add(value);
+                    }
+                }
+                boundRows.add(boundRow);
+            }
+            return new Insert(tableName, boundRows, 0);
+        }
+    }
+
+    /* load <name> */
+    static class Load extends Statement {
+        Load(String tableName) {
+            super(tableName);
+        }
+
+        @Override
+        String execute(Database db) {
+            return db.load(tableName);
+        }
+    }
+
+    /* store <name> [as binary] */
+    static class Store extends Statement {
+        final boolean binary;
+
+        Store(String tableName, boolean binary) {
+            super(tableName);
+            this.binary = binary;
+        }
+
+        @Override
+        String execute(Database db) {
+            return db.store(tableName, binary);
+        }
+    }
+
+    /* drop table <name> */
+    static class Drop extends Statement {
+        Drop(String tableName) {
+            super(tableName);
+        }
+
+        @Override
+        String execute(Database db) {
+            return db.dropTable(tableName);
+        }
+    }
+
+    /* print <name> */
+    static class Print extends Statement {
+        Print(String tableName) {
+            super(tableName);
+        }
+
+        @Override
+        String execute(Database db) {
+            return db.printTable(tableName);
+        }
+    }
+
+    /* tables */
+    static class Tables extends Statement {
+        Tables() {
+            super(null);
+        }
+
+        @Override
+        String execute(Database db) {
+            return db.printSchemas();
+        }
+    }
+}
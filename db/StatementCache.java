@@ -0,0 +1,74 @@
+package db;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of parsed statements by the normalized text of their queries, so that a query
+ * run again, even with different whitespace, is not parsed again. When full, the
+ * statement used least recently is evicted.
+ */
+class StatementCache {
+
+    //Number of statements kept by default
+    static final int DEFAULT_CAPACITY = 256;
+
+    //The statements by the normalized text of their queries, in order of use, least
+    //recent first
+    private final Map<String, Statement> statements;
+
+    StatementCache(int capacity) {
+        statements = new LinkedHashMap<String, Statement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Statement> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Gets the parsed statement of a query, parsing it if it isn't cached; queries are
+     * the same if their normalized texts are (see normalize), and a query is parsed from
+     * its normalized text
+     */
+    synchronized Statement get(String query) {
+        String key = normalize(query);
+        Statement statement = statements.get(key);
+        if (statement == null) {
+            statement = Parser.parse(key);
+            statements.put(key, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Gets the text of a query without surrounding whitespace, and with each other run
+     * of whitespace outside quoted strings replaced by a single space. Keywords are not
+     * changed, as the parser tells them apart by their case.
+     */
+    static String normalize(String query) {
+        String trimmed = query.trim();
+        StringBuilder normalized = new StringBuilder(trimmed.length());
+        //The quote of the quoted string the character is in, or 0 if it is in none
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < trimmed.length(); i++) {
+            char c = trimmed.charAt(i);
+            if (quote == 0 && Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space) {
+                normalized.append(' ');
+                space = false;
+            }
+            normalized.append(c);
+            if (quote != 0) {
+                quote = c == quote ? 0 : quote;
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            }
+        }
+        return normalized.toString();
+    }
+}
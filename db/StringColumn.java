@@ -0,0 +1,86 @@
+package db;
+
+import java.util.Arrays;
+
+/**
+ * A column of strings, backed by a growable array of strings. Rows holding NOVALUE
+ * or NaN keep the empty string in their slot of the array.
+ */
+class StringColumn extends Column {
+
+    //The items of the column; only the first size slots are in use
+    private String[] values;
+
+    StringColumn(String columnName) {
+        super(columnName, "string");
+        values = new String[INITIAL_CAPACITY];
+    }
+
+    @Override
+    Column empty() {
+        return new StringColumn(columnName);
+    }
+
+    @Override
+    void appendItem(Column src, int row) {
+        addString(src.getString(row));
+    }
+
+    @Override
+    void unshare() {
+        values = Arrays.copyOf(values, values.length);
+    }
+
+    @Override
+    void reserve(int capacity) {
+        beforeWrite();
+        if (capacity > values.length) {
+            values = Arrays.copyOf(values, Math.max(capacity, values.length * 2));
+        }
+    }
+
+    @Override
+    void addDefault() {
+        addString("");
+    }
+
+    @Override
+    void addString(String item) {
+        reserve(size + 1);
+        values[size] = item;
+        size += 1;
+    }
+
+    @Override
+    void appendAll(Column src) {
+        if (!(src instanceof StringColumn)) {
+            super.appendAll(src);
+            return;
+        }
+        int offset = size;
+        reserve(size + src.size);
+        System.arraycopy(((StringColumn) src).values, 0, values, offset, src.size);
+        size += src.size;
+        appendSpecials(src, offset);
+    }
+
+    @Override
+    Object getItem(int index) {
+        return values[index];
+    }
+
+    @Override
+    void addItem(Object o) {
+        addString((String) o);
+    }
+
+    @Override
+    String formatItem(int index) {
+        return "'" + values[index] + "'";
+    }
+
+    @Override
+    String getString(int index) {
+        return values[index];
+    }
+}
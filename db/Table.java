@@ -1,30 +1,75 @@
 package db;
 
+import java.io.IOException;
 import java.util.*;
 import java.lang.Object;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntPredicate;
 
 /**
  * Created by Joseph on 2/21/2017.
  */
 public class Table {
 
-    // Table is implemented as a list of columns
+    // Table is implemented as a list of columns; the entry of a column of a joined table
+    // is null until the column is first read (see column)
     private List<Column> table;
 
+    // The column of a joined table that each column not yet gathered is gathered from,
+    // and its rows in that column, in order; null for a column already gathered, and
+    // null arrays for a table that was not made by a join
+    private Column[] joinedSources;
+
+    private int[][] joinedRows;
+
+    // Number of rows of a bulk insert checked and added together
+    static final int BATCH_ROWS = 4096;
+
+    // Largest fraction of the selected rows that the rows read from an ordered index may
+    // be, for reading them to be faster than testing every selected row
+    static final double MAX_RANGE_SELECTIVITY = 0.25;
+
+    // Number of rows in a morsel, a range of rows filtered or evaluated as one task when
+    // a table is scanned in parallel; a multiple of 64, so that the bitmap of the rows
+    // of a morsel is made of whole words
+    static final int MORSEL_ROWS = 1 << 14;
+
+    // Fewest selected rows a table needs for scanning it in parallel to be worth the
+    // tasks; smaller tables are scanned on the calling thread
+    static final int MIN_PARALLEL_ROWS = 1 << 17;
+
     // The names of the columns of the table cached in a set; used for joins operation
     private Set<String> columnNames;
 
+    // The rows of the table that satisfy the filters applied to it, as a bitmap; null if
+    // every row is selected. Operators over the table only read the selected rows.
+    private BitSet selection;
+
+    // The indexes of the columns of the table by name, which are shared with the tables
+    // projected from it; a table made from the rows of other tables has none
+    private Map<String, Index> indexes = new LinkedHashMap<>();
+
     /**
      *  Constructor method for table to create new table; sets table name,
      *  creates table, and stores a list of its column names
      */
     Table(List<Column> columns) {
+        this(columns, null, null);
+    }
+
+    /**
+     * Creates a table of which the columns that are null in the list are gathered from
+     * the given source columns at the given rows when they are first read
+     */
+    private Table(List<Column> columns, Column[] joinedSources, int[][] joinedRows) {
         table = columns;
+        this.joinedSources = joinedSources;
+        this.joinedRows = joinedRows;
         columnNames = new LinkedHashSet<>();
 
         // Adds the names of every column to the list of column names
-        for (Column c : table) {
-            columnNames.add(c.columnName);
+        for (int i = 0; i < table.size(); i++) {
+            columnNames.add(nameOf(i));
         }
     }
 
@@ -40,217 +85,654 @@ public class Table {
         for (int i = 0; i < colInfoLength; i = i + 2) {
             String columnName = columnInfo.get(i);
             String columnType = columnInfo.get(i + 1);
-            Column c = new Column(columnName, columnType);
+            Column c = Column.create(columnName, columnType);
             columns.add(c);
         }
         return new Table(columns);
     }
 
-    /* Gets data from colExprs to create a list of column expressions */
-    private List<ColumnExpression> getColExpressions(String[] colExprs) {
-        // Creates a list of column expressions
-        List<ColumnExpression> columnExpressions = new ArrayList<>();
-        for (String expr : colExprs) {
-            expr = expr.trim();
-            String[] exprSplit = expr.split(" as ");
-            // Gets binary expression and trims whitespace
-            String binaryExpr = exprSplit[0].trim();
-            // Gets the column alias of the expression and trims whitespace
-            String colAlias;
-            if (exprSplit.length > 1) {
-                colAlias = exprSplit[1].trim();
-            } else {
-                // No alias given
-                colAlias = null;
-            }
-            ColumnExpression newColExpr = new ColumnExpression(binaryExpr, colAlias);
-            columnExpressions.add(newColExpr);
-        }
-        return columnExpressions;
-    }
-
     /**
      * Selects the given column from the table; evaluates column expressions
      */
-    Table selectColumns(String[] colExprs) {
-        //Creates a list of column expressions
-        List<ColumnExpression> columnExpressions = getColExpressions(colExprs);
+    Table selectColumns(List<ColumnExpression> columnExpressions) {
+        return selectColumns(columnExpressions, null);
+    }
 
+    /**
+     * Selects the given columns from the table, evaluating the column expressions over
+     * the morsels of a large table in parallel on the given pool
+     */
+    Table selectColumns(List<ColumnExpression> columnExpressions, ForkJoinPool pool) {
         //The list of selected columns to be placed in the table
         List<Column> selectedCols = new ArrayList<>();
 
-        for (ColumnExpression colExpr : columnExpressions) {
-            String colName1 = colExpr.getArg1();
-            //Operand2 since it could be empty, a literal, or a column name
-            String operand2 = colExpr.getArg2();
-            //Gets a copy of column with name <colName1>
-            Column column1 = getColumn(colName1).copy();
-            String col1Type = column1.columnType;
-
-            //The column type of the new column, if column types are equal, default is col1Type
-            String newColType = col1Type;
-
-            int rows = column1.size();
+        //Only the selected rows are evaluated; the new columns hold just those rows
+        BitSet rows = selectedRows();
 
+        for (ColumnExpression colExpr : columnExpressions) {
             //If unary expression, simply copy column
-            if (operand2.equals("")) {
-                selectedCols.add(column1);
-            } else if (columnNames.contains(operand2)) {
-                //Evaluate binary expression where operand2 is a column name
-                //Gets appropriate type from arguments
-                Column column2 = getColumn(operand2).copy();
-                String col2Type = column2.columnType;
-
-                //The only case where unequal types are allowed is with ints and floats
-                if (!col1Type.equals(col2Type)) {
-                    if ((col1Type.equals("int") && col2Type.equals("float")) ||
-                            col1Type.equals("float") && col2Type.equals("int")) {
-                        newColType = "float";
-                    }
-                }
-                //Creates a new column to be added to selectedCols
-                Column newCol = new Column(colExpr.getAlias(), newColType);
-
-                for (int i = 0; i < rows; i++) {
-                    Object arg1 = column1.get(i);
-                    Object arg2 = column2.get(i);
-                    newCol.add(colExpr.evalExpression(arg1, arg2));
-                }
-                selectedCols.add(newCol);
-            }
-            else {
-                //Evaluate binary expression where operand2 is a literal value
-                if (col1Type.equals("int")) {
-                    //If both operands are integers then the return type is an int
-                    newColType = "int";
-                } else {
-                    newColType = "float";
-                }
-                Object arg2 = Float.parseFloat(operand2);
-
-                Column newCol = new Column(colExpr.getAlias(), newColType);
-                for (int i = 0; i < rows; i++) {
-                    Object arg1 = column1.get(i);
-                    newCol.add(colExpr.evalExpression(arg1, arg2));
-                }
-                selectedCols.add(newCol);
+            if (colExpr.isColumn()) {
+                int i = indexOf(colExpr.getArg1());
+                selectedCols.add(selection == null ? column(i).copy() : gatherSelected(i, rows));
+            } else if (isParallel(rows, pool)) {
+                selectedCols.add(evaluateMorsels(colExpr, rows, pool));
+            } else {
+                //Evaluate the expression over the columns of the table
+                selectedCols.add(colExpr.evaluate(this, rows));
             }
         }
         return new Table(selectedCols);
     }
 
+    /**
+     * Evaluates a column expression over the given rows a morsel at a time on the pool,
+     * appending the columns of the morsels in order. The morsel of the first row is
+     * evaluated on the calling thread, so that an expression that cannot be evaluated
+     * fails there.
+     */
+    private Column evaluateMorsels(ColumnExpression colExpr, BitSet rows, ForkJoinPool pool) {
+        int start = rows.nextSetBit(0);
+        int end = rows.length();
+        int numMorsels = (end - start + MORSEL_ROWS - 1) / MORSEL_ROWS;
+        Column[] morselCols = new Column[numMorsels];
+        morselCols[0] = colExpr.evaluate(this, rows, start, start + MORSEL_ROWS);
+        Parallel.forEach(pool, numMorsels - 1, m -> {
+            int from = start + (m + 1) * MORSEL_ROWS;
+            int to = Math.min(from + MORSEL_ROWS, end);
+            morselCols[m + 1] = colExpr.evaluate(this, rows, from, to);
+        });
+        Column evaluated = morselCols[0];
+        evaluated.reserve(rows.cardinality());
+        for (int m = 1; m < numMorsels; m++) {
+            evaluated.appendAll(morselCols[m]);
+        }
+        return evaluated;
+    }
+
+    /* Checks if the given rows are enough to scan in parallel on the pool */
+    private static boolean isParallel(BitSet rows, ForkJoinPool pool) {
+        return pool != null && pool.getParallelism() > 1
+                && rows.cardinality() >= MIN_PARALLEL_ROWS;
+    }
+
     /* Aggregates a column in the table, according to the given aggregation function.
        An aggregation function takes in a numerical column, and aggregates all the numbers
        into one summarizing number, e.g., average, sum, count.
      */
     Table aggregate(String agg_func, String col_name) {
-        Column col = table.get(0);
-        if (!(col_name.equals("*") & agg_func.equals("count"))) {
-            col = getColumn(col_name);
+        //Counting every row reads no column
+        if (col_name.equals("*") && agg_func.equals("count")) {
+            return aggregated(agg_func, col_name, numRows());
         }
-        if (col.columnType.equals("string")) {
+        int i = indexOf(col_name);
+        if (typeOf(i).equals("string")) {
             System.out.println("Columns of strings are invalid for aggregations.");
             throw new RuntimeException();
         }
-        Aggregation agg = new Aggregation(agg_func, col);
-        float result = agg.aggregate();
-        Column agg_col = new Column(agg_func + "(" + col_name + ")", "float");
-        agg_col.add(result);
+        Column col;
+        BitSet rows = selectedRows();
+        if (selection != null && table.get(i) == null) {
+            //A column not gathered yet is gathered at just the selected rows
+            col = gatherSelected(i, rows);
+            rows = new BitSet(col.size());
+            rows.set(0, col.size());
+        } else {
+            col = column(i);
+        }
+        Aggregation agg = new Aggregation(agg_func, col, rows);
+        return aggregated(agg_func, col_name, agg.aggregate());
+    }
+
+    /* Makes the table of the result of an aggregation, a single float */
+    static Table aggregated(String agg_func, String col_name, float result) {
+        Column agg_col = Column.create(agg_func + "(" + col_name + ")", "float");
+        if (Float.isNaN(result)) {
+            agg_col.addNaN();
+        } else {
+            agg_col.addFloat(result);
+        }
         List<Column> cols = new LinkedList<>();
         cols.add(agg_col);
         return new Table(cols);
     }
 
-    /* Gets indices of rows where conditions are not satisfied */
-    void removeRowsConditions(List<Conditional> conditions) {
-        //Iterates through the rows of the table, adds indices of rows that do
-        //not satisfy the conditions
-        List<Integer> indicesToRemove = new ArrayList<>();
-        //Iterates through conditions
+    /**
+     * Removes the rows where the conditions are not satisfied from the selection of
+     * the table. Each conditional is tested on the rows still selected and gives a
+     * bitmap of the rows satisfying it, which is intersected with the selection; no
+     * rows are physically removed until the table is materialized. An equality of an
+     * indexed column to a literal looks its rows up in the index, equalities of columns
+     * with bitmap indexes intersect the bitmaps of their literals, and comparisons of a
+     * column with an ordered index read its rows from the index when they are few
+     * enough (see rangeRows); for other conditionals,
+     * row groups that the zone maps of the columns show have no matching rows are
+     * skipped without testing them. Those conditionals are tested on the morsels of a
+     * large table in parallel on the given pool, if there is one.
+     */
+    void removeRowsConditions(List<Conditional> conditions, ForkJoinPool pool) {
+        BitSet selected = selectedRows();
+        //Conditionals an index answers are applied first, as they read no other rows;
+        //comparisons of a column with an ordered index are combined into a range of it
+        List<Conditional> scanned = new ArrayList<>();
+        Map<String, BTreeIndex.KeyRange> ranges = new LinkedHashMap<>();
+        Map<String, List<Conditional>> rangeConds = new HashMap<>();
+        //Equalities answered by bitmap indexes are intersected as bitmaps
+        RoaringBitmap bitmapMatches = null;
         for (Conditional cond : conditions) {
-            //Gets a copy of the column; cond.getArg1() should return the name of
-            // the column to be compared
-            Column colToCompare = getColumn(cond.getArg1().trim()).copy();
-            String arg2 = cond.getArg2();
-            //Gets the number of rows
-            int rows = colToCompare.size();
-
-            //Checks whether the compare is unary or binary
-            if (columnNames.contains(arg2)) {
-                //Binary compare
-                Column otherCol = getColumn(arg2.trim()).copy();
-                //Iterates through the rows of this column and the other column
-                for (int i = 0; i < rows; i++) {
-                    Object objToCompare1 = colToCompare.get(i);
-                    Object objToCompare2 = otherCol.get(i);
-                    if (!cond.compare(objToCompare1, objToCompare2)) {
-                        indicesToRemove.add(i);
-                    }
-                }
+            RoaringBitmap bitmap = cond.matchBitmap(this);
+            if (bitmap != null) {
+                bitmapMatches = bitmapMatches == null ? bitmap : bitmapMatches.and(bitmap);
+                continue;
+            }
+            BitSet matches = cond.matchIndex(this, selected);
+            String colName = matches == null ? cond.rangeColumn(this) : null;
+            if (matches != null) {
+                selected.and(matches);
+            } else if (colName != null) {
+                cond.narrowRange(ranges.computeIfAbsent(colName, n -> new BTreeIndex.KeyRange()));
+                rangeConds.computeIfAbsent(colName, n -> new ArrayList<>()).add(cond);
+            } else {
+                scanned.add(cond);
+            }
+        }
+        if (bitmapMatches != null) {
+            selected.and(bitmapMatches.toBitSet());
+        }
+        for (String colName : ranges.keySet()) {
+            BitSet matches = rangeRows(colName, ranges.get(colName), selected);
+            if (matches != null) {
+                selected.and(matches);
             } else {
-                //Unary compare
-                for (int i = 0; i < rows; i++) {
-                    //Removes the corresponding rows from each column in the table
-                    //Compares current item to the literal value given
-                    if (!cond.compare(colToCompare.get(i), arg2)) {
-                        indicesToRemove.add(i);
+                scanned.addAll(rangeConds.get(colName));
+            }
+        }
+        if (isParallel(selected, pool) && !scanned.isEmpty()) {
+            selection = matchingMorsels(scanned, selected, pool);
+            return;
+        }
+        //Iterates through the other conditions
+        for (Conditional cond : scanned) {
+            cond.skipRowGroups(this, selected);
+            selected.and(matchingRows(cond, selected));
+        }
+        selection = selected;
+    }
+
+    /* Removes the rows where the conditions are not satisfied, on the calling thread */
+    void removeRowsConditions(List<Conditional> conditions) {
+        removeRowsConditions(conditions, null);
+    }
+
+    /**
+     * Gets the given rows satisfying every conditional, testing the rows of each morsel
+     * against one conditional after another as a task on the pool; the bitmaps of the
+     * morsels are then put together in order. The conditionals are compiled, and those
+     * on compressed columns tested, on the calling thread beforehand.
+     */
+    private BitSet matchingMorsels(List<Conditional> conds, BitSet rows, ForkJoinPool pool) {
+        List<IntPredicate> tests = new ArrayList<>();
+        for (Conditional cond : conds) {
+            cond.skipRowGroups(this, rows);
+            BitSet matches = cond.matchCompressed(this, rows);
+            if (matches != null) {
+                rows.and(matches);
+            } else {
+                tests.add(cond.compile(this));
+            }
+        }
+        if (rows.isEmpty() || tests.isEmpty()) {
+            return rows;
+        }
+        //Morsels start at a multiple of 64 rows, at the word of the first row
+        int start = rows.nextSetBit(0) & -64;
+        int end = rows.length();
+        int numMorsels = (end - start + MORSEL_ROWS - 1) / MORSEL_ROWS;
+        long[][] morselWords = new long[numMorsels][];
+        Parallel.forEach(pool, numMorsels, m -> {
+            int from = start + m * MORSEL_ROWS;
+            BitSet morsel = rows.get(from, Math.min(from + MORSEL_ROWS, end));
+            for (IntPredicate test : tests) {
+                for (int k = morsel.nextSetBit(0); k >= 0; k = morsel.nextSetBit(k + 1)) {
+                    if (!test.test(from + k)) {
+                        morsel.clear(k);
                     }
                 }
             }
+            morselWords[m] = morsel.toLongArray();
+        });
+        long[] words = new long[(end + 63) / 64];
+        for (int m = 0; m < numMorsels; m++) {
+            System.arraycopy(morselWords[m], 0, words, (start + m * MORSEL_ROWS) / 64,
+                    morselWords[m].length);
         }
-        removeRows(indicesToRemove);
+        return BitSet.valueOf(words);
     }
 
-    /* Removes the given rows of the table */
-    private void removeRows(List<Integer> rowsToRemove) {
-        int rows = table.get(0).size();
-        for (int i = rows - 1; i >=0; i--) {
-            if (rowsToRemove.contains(i)) {
-                for (Column c : table) {
-                    c.remove(i);
-                }
+    /**
+     * Gets the rows whose items of the named column are in a range of its ordered index,
+     * read from the index if the range holds few enough rows for that to be faster than
+     * testing the selected rows; null if it holds too many. The number of rows in the
+     * range is counted from the index without reading them.
+     */
+    private BitSet rangeRows(String colName, BTreeIndex.KeyRange range, BitSet selected) {
+        BTreeIndex index = orderedIndex(colName);
+        Column col = getColumn(colName);
+        long count = index.count(range) + (range.nanMatches ? col.nans.cardinality() : 0);
+        if (count > selected.cardinality() * MAX_RANGE_SELECTIVITY) {
+            return null;
+        }
+        BitSet matches = index.rowsIn(range);
+        if (range.nanMatches) {
+            matches.or(col.nans);
+        }
+        return matches;
+    }
+
+    /**
+     * Gets the bitmap of the given rows that satisfy the conditional, which is compiled
+     * against the columns of the table once rather than interpreted for every row; a
+     * comparison of a compressed column is tested on its compressed items
+     */
+    private BitSet matchingRows(Conditional cond, BitSet rows) {
+        BitSet matches = cond.matchCompressed(this, rows);
+        if (matches != null) {
+            return matches;
+        }
+        matches = new BitSet(rows.length());
+        IntPredicate test = cond.compile(this);
+        for (int i = rows.nextSetBit(0); i >= 0; i = rows.nextSetBit(i + 1)) {
+            if (test.test(i)) {
+                matches.set(i);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Gets a bitmap of the selected rows of the table, which the caller may modify;
+     * every row is selected if no filter has been applied
+     */
+    BitSet selectedRows() {
+        if (selection != null) {
+            return (BitSet) selection.clone();
+        }
+        BitSet all = new BitSet(numAllRows());
+        all.set(0, numAllRows());
+        return all;
+    }
+
+    /* Gets the selected rows of the table in [start, end), in order */
+    int[] selectedRowIds(int start, int end) {
+        end = Math.min(end, numAllRows());
+        if (selection == null) {
+            int[] rows = new int[Math.max(end - start, 0)];
+            for (int k = 0; k < rows.length; k++) {
+                rows[k] = start + k;
+            }
+            return rows;
+        }
+        int[] rows = new int[selection.get(start, Math.max(start, end)).cardinality()];
+        int k = 0;
+        for (int row = selection.nextSetBit(start); row >= 0 && row < end;
+             row = selection.nextSetBit(row + 1)) {
+            rows[k] = row;
+            k += 1;
+        }
+        return rows;
+    }
+
+    /* Narrows the selection of the table to the given rows */
+    void select(BitSet rows) {
+        BitSet selected = selectedRows();
+        selected.and(rows);
+        selection = selected;
+    }
+
+    /* Gets the number of rows in the columns of the table, selected or not */
+    int numAllRows() {
+        return table.get(0) != null ? table.get(0).size() : joinedRows[0].length;
+    }
+
+    /* Gets the number of selected rows of the table */
+    int numRows() {
+        if (selection == null) {
+            return numAllRows();
+        }
+        return selection.cardinality();
+    }
+
+    /**
+     * Materializes the selected rows into a new table whose columns hold only those
+     * rows; returns the table itself, with every column gathered, if every row is
+     * selected
+     */
+    Table materialize() {
+        if (selection == null) {
+            getColumns();
+            return this;
+        }
+        List<Column> compactedCols = new ArrayList<>();
+        for (int i = 0; i < table.size(); i++) {
+            compactedCols.add(gatherSelected(i, selection));
+        }
+        return new Table(compactedCols);
+    }
+
+    /**
+     * Gets a new column of the items of the column at the given index at the given rows;
+     * a column not yet gathered is gathered from its source at just those rows
+     */
+    private synchronized Column gatherSelected(int i, BitSet rows) {
+        if (table.get(i) != null) {
+            return table.get(i).gather(rows);
+        }
+        int[] sourceRows = new int[rows.cardinality()];
+        int n = 0;
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            sourceRows[n] = joinedRows[i][row];
+            n += 1;
+        }
+        return joinedSources[i].gather(sourceRows);
+    }
+
+    /**
+     * Gets the column at the given index, gathering it from its source if the table was
+     * made by a join and the column has not been read before
+     */
+    private synchronized Column column(int i) {
+        Column col = table.get(i);
+        if (col == null) {
+            col = joinedSources[i].gather(joinedRows[i]);
+            table.set(i, col);
+            joinedSources[i] = null;
+            joinedRows[i] = null;
+        }
+        return col;
+    }
+
+    /* Gets every column of the table, gathering those not gathered yet */
+    List<Column> getColumns() {
+        for (int i = 0; i < table.size(); i++) {
+            column(i);
+        }
+        return table;
+    }
+
+    /* Gets the name of the column at the given index, without gathering it */
+    private synchronized String nameOf(int i) {
+        Column col = table.get(i) != null ? table.get(i) : joinedSources[i];
+        return col.columnName;
+    }
+
+    /* Gets the type of the column at the given index, without gathering it */
+    private synchronized String typeOf(int i) {
+        Column col = table.get(i) != null ? table.get(i) : joinedSources[i];
+        return col.columnType;
+    }
+
+    /* Gets the index of the first column with the given name */
+    private int indexOf(String name) {
+        for (int i = 0; i < table.size(); i++) {
+            if (nameOf(i).equals(name)) {
+                return i;
+            }
+        }
+        throw new RuntimeException("No column " + name + " found.");
+    }
+
+    /**
+     * Dictionary encodes the string columns of the table that have few distinct items
+     */
+    void encodeStrings() {
+        for (int i = 0; i < table.size(); i++) {
+            table.set(i, DictionaryColumn.encode(column(i)));
+        }
+    }
+
+    /* Compresses the int columns and dictionary codes of the table where that saves memory */
+    void compress() {
+        for (Column col : getColumns()) {
+            col.compress();
+        }
+    }
+
+    /**
+     * Gives up the shares of the table's columns in the storage and dictionaries of
+     * other tables; the table must not be used afterwards
+     */
+    void release() {
+        //Columns not gathered yet hold no storage of their own
+        for (Column col : table) {
+            if (col != null) {
+                col.release();
             }
         }
     }
 
     /**
-     * Makes a copy of the table
+     * Makes a copy of the table with only the columns with the given names, keeping at
+     * least the first column; shares storage with this table like copy, and the
+     * indexes of the columns kept
+     */
+    Table project(Set<String> names) {
+        List<Column> projectedCols = new ArrayList<>();
+        for (int i = 0; i < table.size(); i++) {
+            if (names.contains(nameOf(i))) {
+                projectedCols.add(column(i).copy());
+            }
+        }
+        if (projectedCols.isEmpty()) {
+            projectedCols.add(column(0).copy());
+        }
+        Table projectedTable = new Table(projectedCols);
+        if (selection != null) {
+            projectedTable.selection = (BitSet) selection.clone();
+        }
+        //The projected columns have the same rows, so keep their indexes
+        for (Index index : indexes.values()) {
+            if (projectedTable.columnNames.contains(index.columnName)) {
+                projectedTable.indexes.put(index.name, index);
+            }
+        }
+        return projectedTable;
+    }
+
+    /* Adds a column holding an item for every row of the table, selected or not */
+    void addColumn(Column col) {
+        if (col.size() != numAllRows() || columnNames.contains(col.columnName)) {
+            throw new RuntimeException("Cannot add column " + col.columnName);
+        }
+        table.add(col);
+        columnNames.add(col.columnName);
+        if (joinedSources != null) {
+            joinedSources = Arrays.copyOf(joinedSources, table.size());
+            joinedRows = Arrays.copyOf(joinedRows, table.size());
+        }
+    }
+
+    /* Gets the names of the columns of the table, in order */
+    Set<String> getColumnNames() {
+        return columnNames;
+    }
+
+    /**
+     * Makes a copy of the table; the columns of the copy share the storage of this
+     * table's columns until either table changes them. Every column of the copy is
+     * gathered, so that it does not depend on the tables this table was joined from.
      */
     Table copy(){
         List<Column> copiedCols = new ArrayList<>();
         //Copies each column in the table
-        for (Column col : table) {
+        for (Column col : getColumns()) {
             copiedCols.add(col.copy());
         }
-        return new Table(copiedCols);
+        Table copiedTable = new Table(copiedCols);
+        if (selection != null) {
+            copiedTable.selection = (BitSet) selection.clone();
+        }
+        return copiedTable;
     }
 
     /**
      * Adds row to table; implements insert command
      */
     void addRow(List<String> row) {
+        addRows(Collections.singletonList(row));
+    }
+
+    /**
+     * Adds rows to the table, given as the strings of their items. Every item is parsed
+     * before any is added, so no row is added if any item is malformed; the items are
+     * then added a column at a time.
+     */
+    void addRows(List<List<String>> rows) {
         //Gets the number of columns
         int numCols = table.size();
-        //Error if row and column sizes differ
-        if (row.size() != numCols) {
-            throw new RuntimeException();
+        int numRows = rows.size();
+        //The items to add by column, then by row
+        Object[][] itemsToAdd = new Object[numCols][numRows];
+        for (int r = 0; r < numRows; r++) {
+            List<String> row = rows.get(r);
+            //Error if row and column sizes differ
+            if (row.size() != numCols) {
+                throw new RuntimeException();
+            }
+            for (int i = 0; i < numCols; i++) {
+                //Takes the string of the item to add and formats it correctly
+                itemsToAdd[i][r] = column(i).parseString(row.get(i).trim());
+            }
         }
-        //A deque of the items to add, at each iteration add an item to the front
-        //of the deque, then add the items to the columns starting at the end
-        ArrayDeque<Object> itemsToAdd = new ArrayDeque<>();
-        //Checks if the types match up; gets class of the item in rows, then converts
-        //it into a string in lowercase
+        //If no error occurs, add all items to table
         for (int i = 0; i < numCols; i++) {
-            Column column = table.get(i);
-            String itemString = row.get(i).trim();
+            column(i).addAll(itemsToAdd[i], numRows);
+        }
+        extendIndexes();
+    }
 
-            //Takes the string of the item to add and formats it correctly
-            Object item = column.parseString(itemString);
-            itemsToAdd.addFirst(item);
+    /**
+     * Adds rows to the table, given as arrays of objects with an item for each column
+     * (see Column.checkItem), a batch of rows at a time. Every item of a batch is checked
+     * before any of its rows is added; if an item is of the wrong type, the rows of
+     * earlier batches stay added. Returns the number of rows added.
+     */
+    int addRows(Iterator<Object[]> rows) {
+        int numCols = table.size();
+        Object[][] batch = new Object[numCols][BATCH_ROWS];
+        int added = 0;
+        while (rows.hasNext()) {
+            int n = 0;
+            while (n < BATCH_ROWS && rows.hasNext()) {
+                Object[] row = rows.next();
+                if (row.length != numCols) {
+                    throw new RuntimeException("Expected " + numCols + " items in a row but found "
+                            + row.length);
+                }
+                for (int i = 0; i < numCols; i++) {
+                    batch[i][n] = column(i).checkItem(row[i]);
+                }
+                n += 1;
+            }
+            for (int i = 0; i < numCols; i++) {
+                column(i).addAll(batch[i], n);
+            }
+            added += n;
+            extendIndexes();
         }
-        //If no error occurs, add all items to table
-        for (Column c : table) {
-            c.add(itemsToAdd.removeLast());
+        return added;
+    }
+
+    /**
+     * Creates an index of the named column, which is kept up to date as rows are added
+     * to the table: a hash index (see HashIndex), an ordered index (see BTreeIndex) or
+     * a bitmap index (see BitmapIndex)
+     */
+    void createIndex(String indexName, String colName, String kind) {
+        if (!columnNames.contains(colName) || indexes.containsKey(indexName)) {
+            throw new RuntimeException("Cannot create index " + indexName + " on " + colName);
+        }
+        switch (kind) {
+            case "hash":
+                indexes.put(indexName, new HashIndex(indexName, getColumn(colName)));
+                break;
+            case "btree":
+                indexes.put(indexName, new BTreeIndex(indexName, getColumn(colName)));
+                break;
+            case "bitmap":
+                indexes.put(indexName, new BitmapIndex(indexName, getColumn(colName)));
+                break;
+            default:
+                throw new RuntimeException("Unknown kind of index " + kind);
+        }
+    }
+
+    /* Gets the names of the indexes of the table */
+    Set<String> indexNames() {
+        return indexes.keySet();
+    }
+
+    /* Gets an index of the named column, with every row of the column indexed; null if none */
+    HashIndex hashIndex(String colName) {
+        for (Index index : indexes.values()) {
+            if (index instanceof HashIndex && index.columnName.equals(colName)) {
+                index.extend(getColumn(colName));
+                return (HashIndex) index;
+            }
+        }
+        return null;
+    }
+
+    /* Gets a bitmap index of the named column, with every row indexed; null if none */
+    BitmapIndex bitmapIndex(String colName) {
+        for (Index index : indexes.values()) {
+            if (index instanceof BitmapIndex && index.columnName.equals(colName)) {
+                index.extend(getColumn(colName));
+                return (BitmapIndex) index;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Counts the rows satisfying every conditional from the bitmap indexes of the
+     * columns alone, by intersecting the bitmaps of the literals they compare to; -1 if
+     * any conditional is not an equality a bitmap index answers, or not every row of
+     * the table is selected
+     */
+    int countIndexed(List<Conditional> conditions) {
+        if (selection != null) {
+            return -1;
+        }
+        RoaringBitmap matches = null;
+        for (Conditional cond : conditions) {
+            RoaringBitmap bitmap = cond.matchBitmap(this);
+            if (bitmap == null) {
+                return -1;
+            }
+            matches = matches == null ? bitmap : matches.and(bitmap);
+        }
+        return matches == null ? numAllRows() : matches.cardinality();
+    }
+
+    /* Gets an ordered index of the named column, with every row indexed; null if none */
+    BTreeIndex orderedIndex(String colName) {
+        for (Index index : indexes.values()) {
+            if (index instanceof BTreeIndex && index.columnName.equals(colName)) {
+                index.extend(getColumn(colName));
+                return (BTreeIndex) index;
+            }
+        }
+        return null;
+    }
+
+    /* Drops every index of the table */
+    void dropIndexes() {
+        indexes.clear();
+    }
+
+    /* Indexes the rows added to the indexed columns */
+    private void extendIndexes() {
+        for (Index index : indexes.values()) {
+            index.extend(getColumn(index.columnName));
         }
     }
 
@@ -258,9 +740,19 @@ public class Table {
      * Performs join operation of two tables. If they share columns, append the rows
      * of the table where the values of the shared columns are the same. If the shared
      * columns don't share any values, then return an empty table. If they don't share
-     * any columns, then return the Cartesian product of the tables.
+     * any columns, then return the Cartesian product of the tables. Large joins are
+     * run in parallel on the given pool.
+     */
+    Table join(Table otherTable, ForkJoinPool pool) {
+        return join(otherTable, new ArrayList<>(), pool);
+    }
+
+    /**
+     * Performs join operation of two tables, where rows must also have equal items in
+     * each pair of given columns; the first column of a pair is a column of this table,
+     * and the second a column of the other table
      */
-    Table join(Table otherTable) {
+    Table join(Table otherTable, List<String[]> keyPairs, ForkJoinPool pool) {
         Set<String> joinedColumnNames = new LinkedHashSet<>();
         //Holds sets of table1, table 2, & shared column names for utility
         List<String> table1Names = new ArrayList<>(columnNames);
@@ -270,8 +762,7 @@ public class Table {
         //Iterates through column names in this table and compares to column names in
         //other table; if shared, then add to joined column names and shared column names
         //and remove from table names
-        for (Column col : table) {
-            String colName = col.columnName;
+        for (String colName : columnNames) {
             if (table2Names.contains(colName)) {
                 joinedColumnNames.add(colName);
                 sharedColumnNames.add(colName);
@@ -284,123 +775,159 @@ public class Table {
         joinedColumnNames.addAll(table1Names);
         joinedColumnNames.addAll(table2Names);
 
-        //Iterates through joined table names to create the joined table
-        List<Column> joinedTableColumns = new ArrayList<>();
+        //Gets the selected rows of this table and of the other table
+        BitSet thisRows = selectedRows();
+        BitSet otherRows = otherTable.selectedRows();
 
-        for (String name : joinedColumnNames) {
-            Column colToAdd;
-            if (columnNames.contains(name)) {
-                colToAdd = new Column(name, getColumn(name).columnType);
-            } else {
-                colToAdd = new Column(name, otherTable.getColumn(name).columnType);
-            }
-            joinedTableColumns.add(colToAdd);
+        //If the tables don't share any columns, return their cartesian product
+        if (sharedColumnNames.isEmpty() && keyPairs.isEmpty()) {
+            return joined(otherTable, joinedColumnNames, cartesianProduct(thisRows, otherRows));
         }
 
-        //Joined table to return
-        Table joinedTable = new Table(joinedTableColumns);
-
-        //If the tables don't share any columns, return their cartesian product
-        if (sharedColumnNames.isEmpty()) {
-            return cartesianProduct(otherTable, joinedTable);
-        }
-
-        //Gets length of items in this table
-        int thisLength = table.get(0).size();
-        //Gets length of items in other table
-        int otherLength = otherTable.table.get(0).size();
-
-        //Iterates through the rows in this table to check for same values for shared columns
-        for (int i = 0; i < thisLength; i++) {
-
-            List<String> rowToAdd = new ArrayList<>();
-
-            //Iterates through the rows in the other table
-            for (int j = 0; j < otherLength; j++) {
-                //Whether to add a row or not
-                boolean addRow = true;
-                //Iterates through shared column names in this table
-                for (String s : sharedColumnNames) {
-                    Column sharedColThis = getColumn(s);
-                    Object item1 = sharedColThis.get(i);
-                    Column sharedColOther = otherTable.getColumn(s);
-                    Object item2 = sharedColOther.get(j);
-                    //If value is unequal, break from for-loop and move on to next row
-                    if (!item1.equals(item2)) {
-                        addRow = false;
-                        break;
-                    }
-                }
-                if (addRow) {
-                    for (String nameToAdd : joinedColumnNames) {
-                        if (table1Names.contains(nameToAdd)) {
-                            //Adds the i-th item in this table's column as a string
-                            rowToAdd.add(getColumn(nameToAdd).get(i).toString());
-                        } else {
-                            //Adds the j-th item in the other table's column as a string
-                            rowToAdd.add(otherTable.getColumn(nameToAdd).get(j).toString());
-                        }
-                    }
-                    joinedTable.addRow(rowToAdd);
-                    rowToAdd = new ArrayList<>();
+        //Gets the shared columns of both tables once, rather than by name for every row
+        int numShared = sharedColumnNames.size();
+        Column[] sharedColsThis = new Column[numShared + keyPairs.size()];
+        Column[] sharedColsOther = new Column[numShared + keyPairs.size()];
+        for (int k = 0; k < numShared; k++) {
+            String s = sharedColumnNames.get(k);
+            sharedColsThis[k] = getColumn(s);
+            sharedColsOther[k] = otherTable.getColumn(s);
+        }
+        for (int k = 0; k < keyPairs.size(); k++) {
+            sharedColsThis[numShared + k] = getColumn(keyPairs.get(k)[0]);
+            sharedColsOther[numShared + k] = otherTable.getColumn(keyPairs.get(k)[1]);
+        }
+        HashJoin hashJoin = new HashJoin(sharedColsThis, sharedColsOther);
+
+        //Probes an index of a shared column rather than building a hash table, if either
+        //table has one; prefers to probe the index of the larger table
+        boolean otherLarger = otherRows.cardinality() >= thisRows.cardinality();
+        for (boolean indexOther : new boolean[]{otherLarger, !otherLarger}) {
+            for (int k = 0; k < sharedColsThis.length; k++) {
+                HashIndex index = indexOther
+                        ? otherTable.joinIndex(sharedColsOther[k], sharedColsThis[k], otherRows)
+                        : joinIndex(sharedColsThis[k], sharedColsOther[k], thisRows);
+                if (index != null) {
+                    return joined(otherTable, joinedColumnNames,
+                            hashJoin.join(thisRows, otherRows, index, k, !indexOther));
                 }
             }
         }
-        return joinedTable;
+
+        //Finds the pairs of rows where the values of the shared columns are the same
+        int[][] matchingRows = hashJoin.join(thisRows, otherRows, pool);
+        return joined(otherTable, joinedColumnNames, matchingRows);
     }
 
     /**
-     * Returns the cartesian product of tables 1 & 2. That is, for each row in table 1,
-     * we append to it a row in table 2 for each row in table 2. Takes in the joined table
-     * with new columns already created
+     * Gets an index of a key column of the table to join on, probed with the items of a
+     * key column of the other table; null unless the column is indexed, the items are of
+     * the same type, and at least half the rows of the table are selected, as the index
+     * lists them all
      */
-    private Table cartesianProduct(Table otherTable, Table joinedTable) {
-
-        //Gets length of column items in this table and in other table
-        Column firstCol1 = table.get(0);
-        int thisLength = firstCol1.size();
-
-        Column firstCol2 = otherTable.table.get(0);
-        int otherLength = firstCol2.size();
+    private HashIndex joinIndex(Column key, Column probeKey, BitSet rows) {
+        HashIndex index = hashIndex(key.columnName);
+        if (index == null || !index.columnType.equals(probeKey.columnType)
+                || rows.cardinality() * 2 < numAllRows()) {
+            return null;
+        }
+        return index;
+    }
 
-        //Iterate through the rows in this table and through each row in other table,
-        //adding each item to the row to be added to joined table
-        for (int i = 0; i < thisLength; i++) {
+    /**
+     * Creates the joined table from the pairs of ids of joined rows. No column is
+     * gathered yet: each is gathered from its source column at its rows when it is
+     * first read, so the columns that are never filtered or selected are never read.
+     * Shared columns are taken from this table.
+     */
+    private Table joined(Table otherTable, Set<String> joinedColumnNames, int[][] rowPairs) {
+        int numJoined = joinedColumnNames.size();
+        Column[] sources = new Column[numJoined];
+        int[][] sourceRows = new int[numJoined][];
+        //The rows of the columns of each table not gathered yet, composed with the rows
+        //of that table once for all its columns gathered from the same rows
+        List<Map<int[], int[]>> composed = Arrays.asList(new IdentityHashMap<>(),
+                new IdentityHashMap<>());
+        int c = 0;
+        for (String name : joinedColumnNames) {
+            int side = columnNames.contains(name) ? 0 : 1;
+            Table source = side == 0 ? this : otherTable;
+            sources[c] = source.sourceOf(source.indexOf(name), rowPairs[side],
+                    composed.get(side), sourceRows, c);
+            c += 1;
+        }
+        return new Table(new ArrayList<>(Collections.nCopies(numJoined, null)), sources,
+                sourceRows);
+    }
 
-            Column colItemsOther;
-            for (int j = 0; j < otherLength; j++) {
+    /**
+     * Makes a table of the named columns at the given rows of this table, in order,
+     * without gathering any of them; see joined
+     */
+    Table gatherRows(List<String> names, int[] rows) {
+        Column[] sources = new Column[names.size()];
+        int[][] sourceRows = new int[names.size()][];
+        Map<int[], int[]> composed = new IdentityHashMap<>();
+        for (int c = 0; c < names.size(); c++) {
+            sources[c] = sourceOf(indexOf(names.get(c)), rows, composed, sourceRows, c);
+        }
+        return new Table(new ArrayList<>(Collections.nCopies(names.size(), null)), sources,
+                sourceRows);
+    }
 
-                //Iterate through the columns in this table to add items to rowToAdd
-                Column colItemsThis;
-                List rowToAdd = new ArrayList<>();
-                for (Column c1 : table) {
-                    colItemsThis = c1;
-                    rowToAdd.add(colItemsThis.get(i).toString());
-                }
-                //Iterate through the columns in other table to add items to rowToAdd
-                for (Column c2 : otherTable.table) {
-                    colItemsOther = c2;
-                    rowToAdd.add(colItemsOther.get(j).toString());
-                }
+    /**
+     * Gets the column that a column made of the items of the column at the given index
+     * at the given rows is gathered from, and puts its rows in that column in
+     * sourceRows[c]: the column itself at the given rows if it is gathered, or else its
+     * own source at its rows composed with the given rows, which are kept in composed
+     * so that columns gathered from the same rows have them composed once
+     */
+    private synchronized Column sourceOf(int i, int[] rows, Map<int[], int[]> composed,
+                                         int[][] sourceRows, int c) {
+        if (table.get(i) != null) {
+            sourceRows[c] = rows;
+            return table.get(i);
+        }
+        int[] ownRows = joinedRows[i];
+        sourceRows[c] = composed.computeIfAbsent(ownRows, r -> {
+            int[] both = new int[rows.length];
+            for (int k = 0; k < rows.length; k++) {
+                both[k] = ownRows[rows[k]];
+            }
+            return both;
+        });
+        return joinedSources[i];
+    }
 
-                //Iteration for one row complete; adds row to joined table
-                joinedTable.addRow(rowToAdd);
+    /**
+     * Returns the pairs of row ids of the cartesian product of tables 1 & 2. That is,
+     * for each row in table 1, we pair it with each row in table 2
+     */
+    private static int[][] cartesianProduct(BitSet thisRows, BitSet otherRows) {
+        long numPairs = (long) thisRows.cardinality() * otherRows.cardinality();
+        if (numPairs > Integer.MAX_VALUE) {
+            System.out.println("The cartesian product of the tables has too many rows.");
+            throw new RuntimeException();
+        }
+        int[] thisIds = new int[(int) numPairs];
+        int[] otherIds = new int[(int) numPairs];
+        int pair = 0;
+        //Iterate through the rows in this table and through each row in other table
+        for (int i = thisRows.nextSetBit(0); i >= 0; i = thisRows.nextSetBit(i + 1)) {
+            for (int j = otherRows.nextSetBit(0); j >= 0; j = otherRows.nextSetBit(j + 1)) {
+                thisIds[pair] = i;
+                otherIds[pair] = j;
+                pair += 1;
             }
         }
-
-        return joinedTable;
+        return new int[][]{thisIds, otherIds};
     }
 
     /**
      * Returns the column in the table with the given name
      */
-    private Column getColumn(String name) {
-        for (Column column : table) {
-            if (column.columnName.equals(name)) {
-                return column;
-            }
-        }
-        throw new RuntimeException("No column " + name + " found.");
+    Column getColumn(String name) {
+        return column(indexOf(name));
     }
 
     /* Stores the table as a string using a string builder */
@@ -412,13 +939,13 @@ public class Table {
                 if (i > 0) {
                     stringBuilder.append(", ");
                 }
-                Column column = table.get(i);
-                stringBuilder.append(column.columnName + " " + column.columnType);
+                stringBuilder.append(nameOf(i) + " " + typeOf(i));
             }
             stringBuilder.append("\n");
-            //Iterates through the rows, defined by the size of the list of items of each column
-            int rows = table.get(0).size();
-            for (int j = 0; j < rows; j++) {
+            //Iterates through the selected rows of the columns
+            BitSet rows = selectedRows();
+            List<Column> cols = rows.isEmpty() ? table : getColumns();
+            for (int j = rows.nextSetBit(0); j >= 0; j = rows.nextSetBit(j + 1)) {
 
                 //For each row, iterate through the columns
                 for (int i = 0; i < table.size(); i++) {
@@ -426,29 +953,34 @@ public class Table {
                         stringBuilder.append(",");
                     }
                     //Gets the items list of the column
-                    Column col = table.get(i);
-                    Object item = col.get(j);
+                    Column col = cols.get(i);
 
                     //Formats the item as a string and adds it to the string builder
-                    stringBuilder.append(col.format(item));
+                    stringBuilder.append(col.format(j));
                 }
-                if (j != rows - 1) {
+                if (rows.nextSetBit(j + 1) >= 0) {
                     stringBuilder.append("\n");
                 }
             }
             return stringBuilder.toString();
     }
 
+    /**
+     * Stores the selected rows of the table in the file with the given name, either as
+     * print prints them or in the binary format of BinaryTableFile
+     */
+    void store(String fileName, boolean binary) throws IOException {
+        TableWriter.write(fileName, getColumns(), selectedRows(), binary);
+    }
+
     /* Prints the schema of the table using a string builder */
     String schema() {
         StringBuilder stringBuilder = new StringBuilder();
-        int flag = 1;
-        for (Column col : table) {
-            if (flag == 0) {
+        for (int i = 0; i < table.size(); i++) {
+            if (i > 0) {
                 stringBuilder.append(", ");
             }
-            flag = 0;
-            stringBuilder.append(col.columnName + " " + col.columnType);
+            stringBuilder.append(nameOf(i) + " " + typeOf(i));
         }
         return stringBuilder.toString();
     }
@@ -0,0 +1,376 @@
+package db;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Loads a table from a .tbl file: a line of the names and types of the columns, then a
+ * line of comma separated items for each row. The file is memory-mapped and split into
+ * chunks of whole lines, which are parsed in parallel into columns of their own; the
+ * columns of the chunks are then appended to the table in order. Numbers are parsed
+ * straight from the bytes of the file, and strings are only created for string items.
+ *
+ * Items the chunk parser doesn't recognize are parsed like inserted items. If any line
+ * is malformed, the file is loaded again a line at a time, so that the error is
+ * reported just as it is for a row inserted on its own.
+ *
+ * A file stored as binary is recognized by its first bytes, and opened by BinaryTableFile.
+ */
+class TableLoader {
+
+    //Number of bytes in a chunk parsed as a whole, before extending it to the end of a line
+    static final int CHUNK_BYTES = 1 << 22;
+
+    //Powers of ten that are exact as floats
+    private static final float[] POWERS_OF_TEN = new float[]{
+        1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    private final FileChannel channel;
+
+    //The columns of the table, empty until the chunks are appended to them
+    private final List<Column> columns;
+
+    private TableLoader(FileChannel channel, List<Column> columns) {
+        this.channel = channel;
+        this.columns = columns;
+    }
+
+    /* Loads the table in the file with the given name, parsing its chunks on the pool */
+    static Table load(String fileName, ForkJoinPool pool) throws IOException {
+        Path path = Paths.get(fileName);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() == 0) {
+                throw new RuntimeException("No columns in " + fileName);
+            }
+            if (BinaryTableFile.isBinary(channel)) {
+                return BinaryTableFile.read(channel, fileName);
+            }
+            long headerEnd = lineEnd(channel, 0);
+            ByteBuffer header = ByteBuffer.allocate((int) headerEnd);
+            channel.read(header, 0);
+            List<String> colInfo = columnInfo(new String(header.array(), StandardCharsets.UTF_8));
+            List<Column> columns = new ArrayList<>();
+            for (int i = 0; i < colInfo.size(); i = i + 2) {
+                columns.add(Column.create(colInfo.get(i), colInfo.get(i + 1)));
+            }
+
+            TableLoader loader = new TableLoader(channel, columns);
+            if (!loader.loadChunks(headerEnd + 1, pool)) {
+                return loadLines(path);
+            }
+            return new Table(columns);
+        }
+    }
+
+    /**
+     * Gets the names and types of the columns, alternating, from the first line of a file.
+     * If formatted correctly, the first and last words of each column are its name and type
+     */
+    private static List<String> columnInfo(String line) {
+        List<String> colInfoList = new ArrayList<>();
+        for (String colInfo : line.split(",")) {
+            String[] colInfoSplit = colInfo.trim().split(" ");
+            colInfoList.add(colInfoSplit[0]);
+            colInfoList.add(colInfoSplit[colInfoSplit.length - 1]);
+        }
+        return colInfoList;
+    }
+
+    /**
+     * Loads a table a line at a time; every line is parsed like an inserted row,
+     * printing an error for an item of the wrong type
+     */
+    private static Table loadLines(Path path) throws IOException {
+        try (BufferedReader br = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            //This string contains column information
+            List<String> colInfoList = columnInfo(br.readLine());
+            Table loadedTable = Table.getColumnInfo(colInfoList);
+
+            //Read next lines, which are the rows
+            String line = br.readLine();
+            while (line != null) {
+                if (line.equals("") && colInfoList.size() > 2) {
+                    throw new RuntimeException();
+                }
+                List<String> rowInfo = new ArrayList<>();
+                Collections.addAll(rowInfo, line.split(","));
+                loadedTable.addRow(rowInfo);
+                line = br.readLine();
+            }
+            return loadedTable;
+        }
+    }
+
+    /* Gets the index of the first newline at or after start, or the size of the file */
+    private static long lineEnd(FileChannel channel, long start) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 12);
+        long position = start;
+        while (true) {
+            buffer.clear();
+            int n = channel.read(buffer, position);
+            if (n <= 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < n; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i;
+                }
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * Parses the rows from start to the end of the file in chunks on the pool, and
+     * appends them to the columns; returns false without changing the columns if any
+     * line is malformed
+     */
+    private boolean loadChunks(long start, ForkJoinPool pool) throws IOException {
+        long size = channel.size();
+        //The chunks start after a newline, the first at the start of the rows
+        List<Long> starts = new ArrayList<>();
+        long chunkStart = start;
+        while (chunkStart < size) {
+            starts.add(chunkStart);
+            chunkStart = lineEnd(channel, Math.min(chunkStart + CHUNK_BYTES, size)) + 1;
+        }
+        starts.add(Math.max(size, start));
+
+        int numChunks = starts.size() - 1;
+        List<List<Column>> chunkColumns = new ArrayList<>(Collections.nCopies(numChunks, null));
+        Parallel.forEach(pool, numChunks, c -> {
+            chunkColumns.set(c, parseChunk(starts.get(c), starts.get(c + 1)));
+        });
+        for (List<Column> parsed : chunkColumns) {
+            if (parsed == null) {
+                return false;
+            }
+        }
+
+        for (List<Column> parsed : chunkColumns) {
+            for (int i = 0; i < columns.size(); i++) {
+                columns.get(i).appendAll(parsed.get(i));
+            }
+        }
+        return true;
+    }
+
+    /* Parses the lines of the file from start to end into new columns; null if any is malformed */
+    private List<Column> parseChunk(long start, long end) {
+        MappedByteBuffer buffer;
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        } catch (IOException e) {
+            return null;
+        }
+        List<Column> parsed = new ArrayList<>();
+        for (Column col : columns) {
+            parsed.add(col.empty());
+        }
+        int numCols = parsed.size();
+        int length = (int) (end - start);
+        //Bytes of string items, which are copied out to be decoded
+        byte[] scratch = new byte[64];
+
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && buffer.get(lineEnd) != '\n') {
+                lineEnd += 1;
+            }
+            int nextLine = lineEnd + 1;
+            if (lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r') {
+                lineEnd -= 1;
+            }
+
+            //Parses each item of the line into its column
+            int itemStart = lineStart;
+            for (int i = 0; i < numCols; i++) {
+                int itemEnd = itemStart;
+                while (itemEnd < lineEnd && buffer.get(itemEnd) != ',') {
+                    //Other readers of the file end lines at a lone carriage return
+                    if (buffer.get(itemEnd) == '\r') {
+                        return null;
+                    }
+                    itemEnd += 1;
+                }
+                //The last item ends the line, and every other item is followed by a comma
+                if ((i == numCols - 1) != (itemEnd == lineEnd)) {
+                    return null;
+                }
+                int first = itemStart;
+                int last = itemEnd;
+                while (first < last && (buffer.get(first) & 0xff) <= ' ') {
+                    first += 1;
+                }
+                while (last > first && (buffer.get(last - 1) & 0xff) <= ' ') {
+                    last -= 1;
+                }
+                if (last - first > scratch.length) {
+                    scratch = new byte[Math.max(last - first, scratch.length * 2)];
+                }
+                if (!parseItem(buffer, first, last, parsed.get(i), scratch)) {
+                    return null;
+                }
+                itemStart = itemEnd + 1;
+            }
+            lineStart = nextLine;
+        }
+        return parsed;
+    }
+
+    /**
+     * Parses the item between the given indices of the buffer, without surrounding
+     * whitespace, and adds it to the column; returns false if it is malformed
+     */
+    private static boolean parseItem(ByteBuffer buffer, int start, int end, Column col,
+                                     byte[] scratch) {
+        if (matches(buffer, start, end, "NOVALUE")) {
+            col.addNoValue();
+            return true;
+        } else if (matches(buffer, start, end, "NaN")) {
+            col.addNaN();
+            return true;
+        }
+        switch (col.columnType) {
+            case "int":
+                if (parseInt(buffer, start, end, col)) {
+                    return true;
+                }
+                break;
+            case "float":
+                if (parseFloat(buffer, start, end, col)) {
+                    return true;
+                }
+                break;
+            default:
+                //A quoted string without other quotes in it
+                if (end - start >= 2 && buffer.get(start) == '\'' && buffer.get(end - 1) == '\''
+                        && !hasQuote(buffer, start + 1, end - 1)) {
+                    col.addString(decode(buffer, start + 1, end - 1, scratch));
+                    return true;
+                }
+        }
+
+        //Parses any other item like an inserted item
+        try {
+            Object item = col.parseItem(decode(buffer, start, end, scratch));
+            if (item == null) {
+                return false;
+            }
+            col.add(item);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /* Checks if the bytes between the given indices are the given ASCII string */
+    private static boolean matches(ByteBuffer buffer, int start, int end, String s) {
+        if (end - start != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (buffer.get(start + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* Checks if there is a quote between the given indices */
+    private static boolean hasQuote(ByteBuffer buffer, int start, int end) {
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b == '\'' || b == '"') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Decodes the UTF-8 bytes between the given indices */
+    private static String decode(ByteBuffer buffer, int start, int end, byte[] scratch) {
+        for (int i = start; i < end; i++) {
+            scratch[i - start] = buffer.get(i);
+        }
+        return new String(scratch, 0, end - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Adds an int written as an optional sign and at most nine digits to the column;
+     * returns false for any other int, which is left to parseItem
+     */
+    private static boolean parseInt(ByteBuffer buffer, int start, int end, Column col) {
+        boolean negative = false;
+        int i = start;
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i += 1;
+        }
+        if (i == end || end - i > 9) {
+            return false;
+        }
+        int value = 0;
+        for (; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return false;
+            }
+            value = value * 10 + digit;
+        }
+        col.addInt(negative ? -value : value);
+        return true;
+    }
+
+    /**
+     * Adds a float written as an optional sign, digits and a decimal point to the column,
+     * if dividing its digits as an integer by a power of ten gives the float exactly as
+     * Float.parseFloat would: when both are exact as floats, a single division rounds
+     * correctly. Returns false for any other float, which is left to parseItem.
+     */
+    private static boolean parseFloat(ByteBuffer buffer, int start, int end, Column col) {
+        boolean negative = false;
+        int i = start;
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i += 1;
+        }
+        long digits = 0;
+        int numDigits = 0;
+        int fractionDigits = -1;
+        for (; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else if (b >= '0' && b <= '9' && numDigits < 18) {
+                digits = digits * 10 + (b - '0');
+                numDigits += 1;
+                if (fractionDigits >= 0) {
+                    fractionDigits += 1;
+                }
+            } else {
+                return false;
+            }
+        }
+        if (fractionDigits < 0 || numDigits == 0 || digits > 1 << 24
+                || fractionDigits >= POWERS_OF_TEN.length) {
+            return false;
+        }
+        float value = (float) digits / POWERS_OF_TEN[fractionDigits];
+        col.addFloat(negative ? -value : value);
+        return true;
+    }
+}
@@ -0,0 +1,259 @@
+package db;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Stores a table in a .tbl file, in the format Table.print gives it with a line
+ * separator after every line. The rows are formatted straight into a buffer of bytes,
+ * which is written to the file whenever it fills up, so the table is never held as a
+ * string. The file is first written under a temporary name, and renamed once it is
+ * complete, so that a failed store leaves any earlier file as it was. Tables stored as
+ * binary are written by BinaryTableFile in the same way.
+ */
+class TableWriter {
+
+    //Number of bytes buffered before they are written to the file
+    static final int BUFFER_BYTES = 1 << 16;
+
+    //Room left in the buffer for any item formatted by hand
+    private static final int MAX_NUMBER_BYTES = 32;
+
+    //Floats at least this large are formatted by String.format, which only prints
+    //their shortest digits exactly
+    private static final float LARGE_FLOAT = 0x1p52f;
+
+    private static final byte[] LINE_SEPARATOR =
+            System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final FileChannel channel;
+
+    private final byte[] buffer = new byte[BUFFER_BYTES];
+
+    //The number of bytes in use in the buffer
+    private int length;
+
+    private TableWriter(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /* Stores the given rows of the columns in the file with the given name, as text or binary */
+    static void write(String fileName, List<Column> columns, BitSet rows, boolean binary)
+            throws IOException {
+        Path target = Paths.get(fileName);
+        Path temp = Paths.get(fileName + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            if (binary) {
+                BinaryTableFile.write(channel, columns, rows);
+            } else {
+                TableWriter writer = new TableWriter(channel);
+                writer.writeHeader(columns);
+                for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+                    writer.writeRow(columns, row);
+                }
+                writer.flush();
+            }
+            channel.force(false);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /* Writes the line of the names and types of the columns */
+    private void writeHeader(List<Column> columns) throws IOException {
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                putAscii(", ");
+            }
+            Column column = columns.get(i);
+            putString(column.columnName + " " + column.columnType);
+        }
+        putBytes(LINE_SEPARATOR);
+    }
+
+    /* Writes the line of the items of a row of the columns, separated by commas */
+    private void writeRow(List<Column> columns, int row) throws IOException {
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                putByte((byte) ',');
+            }
+            Column col = columns.get(i);
+            if (col.isNoValue(row)) {
+                putAscii("NOVALUE");
+                continue;
+            } else if (col.isNaN(row)) {
+                putAscii("NaN");
+                continue;
+            }
+            switch (col.columnType) {
+                case "int":
+                    putInt(col.getInt(row));
+                    break;
+                case "float":
+                    putFloat(col.getFloat(row));
+                    break;
+                default:
+                    putByte((byte) '\'');
+                    putString(col.getString(row));
+                    putByte((byte) '\'');
+            }
+        }
+        putBytes(LINE_SEPARATOR);
+    }
+
+    /* Writes the bytes in the buffer to the file, and empties the buffer */
+    private void flush() throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, length);
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        length = 0;
+    }
+
+    /* Makes sure the buffer has room for n more bytes, if it can hold that many */
+    private void reserve(int n) throws IOException {
+        if (length + n > buffer.length) {
+            flush();
+        }
+    }
+
+    private void putByte(byte b) throws IOException {
+        reserve(1);
+        buffer[length] = b;
+        length += 1;
+    }
+
+    private void putBytes(byte[] bytes) throws IOException {
+        reserve(bytes.length);
+        if (bytes.length > buffer.length) {
+            ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+            while (wrapped.hasRemaining()) {
+                channel.write(wrapped);
+            }
+            return;
+        }
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    /* Writes a string of ASCII characters */
+    private void putAscii(String s) throws IOException {
+        reserve(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buffer[length + i] = (byte) s.charAt(i);
+        }
+        length += s.length();
+    }
+
+    /* Writes a string encoded in UTF-8; ASCII strings are copied without encoding them */
+    private void putString(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                putBytes(s.getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+        }
+        if (s.length() > buffer.length) {
+            putBytes(s.getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        putAscii(s);
+    }
+
+    /* Writes an int in decimal */
+    private void putInt(int item) throws IOException {
+        reserve(MAX_NUMBER_BYTES);
+        long value = item;
+        if (value < 0) {
+            buffer[length] = '-';
+            length += 1;
+            value = -value;
+        }
+        putDigits(value);
+    }
+
+    /**
+     * Writes a float with three decimals, as String.format("%.3f") does: the magnitude
+     * is rounded half up, and a negative float keeps its sign even if it rounds to zero.
+     * Below LARGE_FLOAT the float times 1000 is computed exactly from its bits, which
+     * rounds the same as String.format, since no float is close enough to a tie
+     * between thousandths for their shortest digits to fall on the other side of it.
+     */
+    private void putFloat(float item) throws IOException {
+        if (Float.isInfinite(item) || Math.abs(item) >= LARGE_FLOAT) {
+            putAscii(String.format("%.3f", item));
+            return;
+        }
+        reserve(MAX_NUMBER_BYTES);
+        int bits = Float.floatToRawIntBits(item);
+        if (bits < 0) {
+            buffer[length] = '-';
+            length += 1;
+        }
+        //The magnitude is mantissa * 2^-shift
+        int exponent = Math.getExponent(item);
+        long mantissa;
+        int shift;
+        if (exponent < Float.MIN_EXPONENT) {
+            mantissa = bits & 0x7fffff;
+            shift = 149;
+        } else {
+            mantissa = (bits & 0x7fffff) | 0x800000;
+            shift = 23 - exponent;
+        }
+        long thousandths;
+        if (shift <= 0) {
+            thousandths = (mantissa << -shift) * 1000;
+        } else if (shift >= 40) {
+            //Less than half a thousandth
+            thousandths = 0;
+        } else {
+            long scaled = mantissa * 1000;
+            thousandths = scaled >> shift;
+            if (((scaled >> (shift - 1)) & 1) != 0) {
+                thousandths += 1;
+            }
+        }
+        putDigits(thousandths / 1000);
+        int fraction = (int) (thousandths % 1000);
+        buffer[length] = '.';
+        buffer[length + 1] = (byte) ('0' + fraction / 100);
+        buffer[length + 2] = (byte) ('0' + fraction / 10 % 10);
+        buffer[length + 3] = (byte) ('0' + fraction % 10);
+        length += 4;
+    }
+
+    /* Writes the decimal digits of a value that isn't negative; the buffer has room for them */
+    private void putDigits(long value) {
+        int start = length;
+        do {
+            buffer[length] = (byte) ('0' + value % 10);
+            length += 1;
+            value /= 10;
+        } while (value > 0);
+        //The digits were written from the least significant, so reverses them
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte digit = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = digit;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package db;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A summary of each group of GROUP_ROWS consecutive rows of a column: how many of its rows
+ * hold NOVALUE, NaN and other items, and the smallest and largest of the other items. A
+ * filter skips the rows of any group whose summary shows that none of them can satisfy it.
+ *
+ * Rows are summarized in order as they are added to the map. Since the rows of a column
+ * never change once added, the map of a column only needs to summarize the rows added
+ * to it since it was last used.
+ */
+class ZoneMap {
+
+    //Number of rows in a group, the same as in a segment of compressed items
+    static final int GROUP_ROWS = CompressedInts.SEGMENT_ROWS;
+
+    //Whether the items are numbers, compared as floats, or strings
+    private final boolean numeric;
+
+    //The number of rows summarized
+    private int rows;
+
+    //The counts of each group
+    private int[] noValues = new int[0];
+
+    private int[] nans = new int[0];
+
+    private int[] items = new int[0];
+
+    //The smallest and largest item of each group, as floats or strings; a float item that
+    //is itself not a number gives its group the smallest and largest floats
+    private float[] mins = new float[0];
+
+    private float[] maxes = new float[0];
+
+    private String[] minStrings = new String[0];
+
+    private String[] maxStrings = new String[0];
+
+    ZoneMap(boolean numeric) {
+        this.numeric = numeric;
+    }
+
+    /* Makes a copy of the map, which is summarized separately from then on */
+    synchronized ZoneMap copy() {
+        ZoneMap copied = new ZoneMap(numeric);
+        copied.rows = rows;
+        copied.noValues = noValues.clone();
+        copied.nans = nans.clone();
+        copied.items = items.clone();
+        copied.mins = mins.clone();
+        copied.maxes = maxes.clone();
+        copied.minStrings = minStrings.clone();
+        copied.maxStrings = maxStrings.clone();
+        return copied;
+    }
+
+    /* Summarizes the rows of the column that were added since it was last summarized */
+    synchronized void extend(Column col) {
+        for (int row = rows; row < col.size(); row++) {
+            if (col.isNoValue(row)) {
+                addNoValue();
+            } else if (col.isNaN(row)) {
+                addNaN();
+            } else if (numeric) {
+                add(col.getFloat(row));
+            } else {
+                add(col.getString(row));
+            }
+        }
+    }
+
+    /* Gets the number of groups, the last of which may not be full */
+    int numGroups() {
+        return (rows + GROUP_ROWS - 1) / GROUP_ROWS;
+    }
+
+    /* Gets the number of rows summarized */
+    int size() {
+        return rows;
+    }
+
+    int noValueCount(int group) {
+        return noValues[group];
+    }
+
+    int nanCount(int group) {
+        return nans[group];
+    }
+
+    /* Gets the number of rows of the group holding items other than NOVALUE and NaN */
+    int itemCount(int group) {
+        return items[group];
+    }
+
+    float min(int group) {
+        return mins[group];
+    }
+
+    float max(int group) {
+        return maxes[group];
+    }
+
+    String minString(int group) {
+        return minStrings[group];
+    }
+
+    String maxString(int group) {
+        return maxStrings[group];
+    }
+
+    void addNoValue() {
+        int group = nextGroup();
+        noValues[group] += 1;
+    }
+
+    void addNaN() {
+        int group = nextGroup();
+        nans[group] += 1;
+    }
+
+    /* Summarizes a row holding a number */
+    void add(float item) {
+        int group = nextGroup();
+        items[group] += 1;
+        if (Float.isNaN(item)) {
+            mins[group] = Float.NEGATIVE_INFINITY;
+            maxes[group] = Float.POSITIVE_INFINITY;
+        }
+        if (item < mins[group]) {
+            mins[group] = item;
+        }
+        if (item > maxes[group]) {
+            maxes[group] = item;
+        }
+    }
+
+    /* Summarizes a row holding a string */
+    void add(String item) {
+        int group = nextGroup();
+        items[group] += 1;
+        if (minStrings[group] == null || item.compareTo(minStrings[group]) < 0) {
+            minStrings[group] = item;
+        }
+        if (maxStrings[group] == null || item.compareTo(maxStrings[group]) > 0) {
+            maxStrings[group] = item;
+        }
+    }
+
+    /* Counts a new row, starting a new group for it if the last is full; gets its group */
+    private int nextGroup() {
+        int group = rows / GROUP_ROWS;
+        if (rows % GROUP_ROWS == 0) {
+            if (group == noValues.length) {
+                int capacity = Math.max(4, group * 2);
+                noValues = Arrays.copyOf(noValues, capacity);
+                nans = Arrays.copyOf(nans, capacity);
+                items = Arrays.copyOf(items, capacity);
+                mins = Arrays.copyOf(mins, capacity);
+                maxes = Arrays.copyOf(maxes, capacity);
+                minStrings = Arrays.copyOf(minStrings, capacity);
+                maxStrings = Arrays.copyOf(maxStrings, capacity);
+            }
+            mins[group] = Float.POSITIVE_INFINITY;
+            maxes[group] = Float.NEGATIVE_INFINITY;
+        }
+        rows += 1;
+        return group;
+    }
+
+    /* Gets the number of bytes the map takes when written */
+    int bytes() {
+        int bytes = 8;
+        for (int group = 0; group < numGroups(); group++) {
+            bytes += 12;
+            if (numeric) {
+                bytes += 8;
+            } else {
+                bytes += stringBytes(minStrings[group]) + stringBytes(maxStrings[group]);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes the number of rows and groups, then the counts of each group and its
+     * smallest and largest items, as floats or as the lengths and UTF-8 bytes of strings
+     */
+    synchronized void write(ByteBuffer out) {
+        out.putInt(rows);
+        out.putInt(numGroups());
+        for (int group = 0; group < numGroups(); group++) {
+            out.putInt(noValues[group]);
+            out.putInt(nans[group]);
+            out.putInt(items[group]);
+            if (numeric) {
+                out.putFloat(mins[group]);
+                out.putFloat(maxes[group]);
+            } else {
+                putString(out, minStrings[group]);
+                putString(out, maxStrings[group]);
+            }
+        }
+    }
+
+    /**
+     * Reads a map written by write; throws an IllegalArgumentException if it is malformed
+     */
+    static ZoneMap read(ByteBuffer in, boolean numeric) {
+        ZoneMap zones = new ZoneMap(numeric);
+        int rows = in.getInt();
+        int numGroups = in.getInt();
+        if (rows < 0 || numGroups != (rows + GROUP_ROWS - 1) / GROUP_ROWS) {
+            throw new IllegalArgumentException();
+        }
+        zones.rows = rows;
+        zones.noValues = new int[numGroups];
+        zones.nans = new int[numGroups];
+        zones.items = new int[numGroups];
+        zones.mins = new float[numGroups];
+        zones.maxes = new float[numGroups];
+        zones.minStrings = new String[numGroups];
+        zones.maxStrings = new String[numGroups];
+        for (int group = 0; group < numGroups; group++) {
+            zones.noValues[group] = in.getInt();
+            zones.nans[group] = in.getInt();
+            zones.items[group] = in.getInt();
+            int groupRows = Math.min(GROUP_ROWS, rows - group * GROUP_ROWS);
+            if (zones.noValues[group] < 0 || zones.nans[group] < 0 || zones.items[group] < 0
+                    || zones.noValues[group] + zones.nans[group] + zones.items[group] != groupRows) {
+                throw new IllegalArgumentException();
+            }
+            if (numeric) {
+                zones.mins[group] = in.getFloat();
+                zones.maxes[group] = in.getFloat();
+            } else {
+                zones.minStrings[group] = getString(in);
+                zones.maxStrings[group] = getString(in);
+                if (zones.items[group] > 0 && (zones.minStrings[group] == null
+                        || zones.maxStrings[group] == null)) {
+                    throw new IllegalArgumentException();
+                }
+            }
+        }
+        return zones;
+    }
+
+    private static int stringBytes(String s) {
+        return 4 + (s == null ? 0 : s.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    /* Writes a string as its length and UTF-8 bytes, or a length of -1 for null */
+    private static void putString(ByteBuffer out, String s) {
+        if (s == null) {
+            out.putInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.putInt(bytes.length);
+        out.put(bytes);
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length == -1) {
+            return null;
+        } else if (length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException();
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}